@@ -0,0 +1,221 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ca.uwo.owl.ezproxy.logic.signer.Signer;
+
+/**
+ * Generates launch URLs for many users of one site at once, e.g. to export personalised links for a whole roster.
+ *
+ * Signers and the {@link LaunchURLBuilder} keep their digest and buffer per thread, so each worker reuses its own.
+ * Rosters larger than the split threshold are divided across a fork-join pool. The CSV writer pulls user EIDs from
+ * an iterator one chunk at a time, so memory use stays flat no matter how large the roster is.
+ */
+public class BatchLaunchURLGenerator
+{
+    // Class members
+    public  static final int    DEFAULT_SPLIT_THRESHOLD = 512;                  // Rosters up to this size are signed on the calling thread
+    public  static final int    DEFAULT_CHUNK_SIZE      = 4096;                 // The number of users read into memory at a time when streaming
+    public  static final String CSV_HEADER              = "userEid,launchURL";  // The header row of the CSV export
+    private static final String CSV_LINE_SEPARATOR      = "\r\n";               // RFC 4180 line separator
+
+    // Instance members
+    private final Signer            signer;         // Signs each launch
+    private final LaunchURLBuilder  builder;        // Builds each launch URL
+    private final ForkJoinPool      pool;           // Runs the split work
+    private final int               splitThreshold; // The size below which work is not split any further
+
+    // Constructors
+    public BatchLaunchURLGenerator( Signer signer, LaunchURLBuilder builder )
+    {
+        this( signer, builder, ForkJoinPool.commonPool(), DEFAULT_SPLIT_THRESHOLD );
+    }
+    public BatchLaunchURLGenerator( Signer signer, LaunchURLBuilder builder, ForkJoinPool pool, int splitThreshold )
+    {
+        if( signer == null || builder == null || pool == null )
+        {
+            throw new IllegalArgumentException( "You must supply a signer, a URL builder and a pool" );
+        }
+
+        this.signer         = signer;
+        this.builder        = builder;
+        this.pool           = pool;
+        this.splitThreshold = Math.max( 1, splitThreshold );
+    }
+
+    /**
+     * Generate the launch URLs for the given users
+     * @param siteID the ID of the site containing the link
+     * @param userEids the EIDs of the users
+     * @param destinationURL the URL of the library resource
+     * @return the launch URL for each user EID, in the iteration order of the given collection
+     */
+    public Map<String, String> generate( String siteID, Collection<String> userEids, String destinationURL )
+    {
+        String[] eids = userEids.toArray( new String[userEids.size()] );
+        String[] urls = generate( siteID, eids, eids.length, destinationURL );
+
+        Map<String, String> retVal = new LinkedHashMap<>( (int) ( eids.length / 0.75f ) + 1 );
+        for( int i = 0; i < eids.length; ++i )
+        {
+            retVal.put( eids[i], urls[i] );
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Stream the launch URLs for the given users as CSV (see {@link #CSV_HEADER}). The writer is flushed after
+     * each chunk, but not closed.
+     * @param out the writer to write to
+     * @param siteID the ID of the site containing the link
+     * @param userEids the EIDs of the users
+     * @param destinationURL the URL of the library resource
+     * @return the number of rows written (excluding the header)
+     * @throws IOException if the writer fails
+     */
+    public int writeCSV( Writer out, String siteID, Iterator<String> userEids, String destinationURL ) throws IOException
+    {
+        out.write( CSV_HEADER );
+        out.write( CSV_LINE_SEPARATOR );
+
+        int rows = 0;
+        String[] eids = new String[DEFAULT_CHUNK_SIZE];
+        while( userEids.hasNext() )
+        {
+            // Read the next chunk
+            int count = 0;
+            while( count < eids.length && userEids.hasNext() )
+            {
+                String eid = userEids.next();
+                if( eid != null )
+                {
+                    eids[count++] = eid;
+                }
+            }
+
+            // Sign it (in parallel if it's large enough) and write it out in order
+            String[] urls = generate( siteID, eids, count, destinationURL );
+            for( int i = 0; i < count; ++i )
+            {
+                writeCSVField( out, eids[i] );
+                out.write( ',' );
+                writeCSVField( out, urls[i] );
+                out.write( CSV_LINE_SEPARATOR );
+            }
+
+            rows += count;
+            out.flush();
+        }
+
+        return rows;
+    }
+
+    /**
+     * Generate the launch URLs for the first count EIDs of the array
+     * @param siteID the ID of the site containing the link
+     * @param eids the EIDs of the users
+     * @param count the number of EIDs to use
+     * @param destinationURL the URL of the library resource
+     * @return the launch URLs, index aligned with the EIDs
+     */
+    private String[] generate( String siteID, String[] eids, int count, String destinationURL )
+    {
+        String[] urls = new String[count];
+        SignTask task = new SignTask( siteID, destinationURL, eids, urls, 0, count );
+        if( count <= splitThreshold )
+        {
+            task.compute();
+        }
+        else
+        {
+            pool.invoke( task );
+        }
+
+        return urls;
+    }
+
+    /**
+     * Write a CSV field, quoting it if it contains a separator, quote or line break
+     * @param out the writer to write to
+     * @param value the field value
+     * @throws IOException
+     */
+    private static void writeCSVField( Writer out, String value ) throws IOException
+    {
+        boolean quote = false;
+        for( int i = 0; i < value.length() && !quote; ++i )
+        {
+            char c = value.charAt( i );
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+
+        if( !quote )
+        {
+            out.write( value );
+            return;
+        }
+
+        out.write( '"' );
+        for( int i = 0; i < value.length(); ++i )
+        {
+            char c = value.charAt( i );
+            if( c == '"' )
+            {
+                out.write( '"' );
+            }
+            out.write( c );
+        }
+        out.write( '"' );
+    }
+
+    /**
+     * Signs a range of the roster, splitting it in half until it is below the threshold
+     */
+    private final class SignTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String    siteID;
+        private final String    destinationURL;
+        private final String[]  eids;
+        private final String[]  urls;
+        private final int       from;
+        private final int       to;
+
+        private SignTask( String siteID, String destinationURL, String[] eids, String[] urls, int from, int to )
+        {
+            this.siteID         = siteID;
+            this.destinationURL = destinationURL;
+            this.eids           = eids;
+            this.urls           = urls;
+            this.from           = from;
+            this.to             = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if( to - from <= splitThreshold )
+            {
+                for( int i = from; i < to; ++i )
+                {
+                    urls[i] = builder.build( signer, eids[i], siteID, destinationURL );
+                }
+            }
+            else
+            {
+                int mid = ( from + to ) >>> 1;
+                invokeAll( new SignTask( siteID, destinationURL, eids, urls, from, mid ),
+                           new SignTask( siteID, destinationURL, eids, urls, mid, to ) );
+            }
+        }
+    }
+}
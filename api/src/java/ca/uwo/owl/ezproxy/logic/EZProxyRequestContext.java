@@ -0,0 +1,56 @@
+package ca.uwo.owl.ezproxy.logic;
+
+/**
+ * A snapshot of the Sakai context of the current request (site, page, user and permissions).
+ * Each value is looked up lazily, at most once per request; see {@link SakaiProxy#getCurrentContext()}.
+ */
+public interface EZProxyRequestContext
+{
+    /**
+     * Get the ID of the current site
+     * @return
+     */
+    public String getSiteId();
+
+    /**
+     * Get the ID of the current page
+     * @return
+     */
+    public String getPageId();
+
+    /**
+     * Get the ID of the current user
+     * @return
+     */
+    public String getUserId();
+
+    /**
+     * Get the EID of the current user
+     * @return
+     */
+    public String getUserEid();
+
+    /**
+     * Get the type of the current user
+     * @return
+     */
+    public String getUserType();
+
+    /**
+     * Is the current user a superUser? (anyone in admin realm)
+     * @return
+     */
+    public boolean isSuperUser();
+
+    /**
+     * Does the current user have the ability to configure the current EZProxy link
+     * @return
+     */
+    public boolean isConfigAuth();
+
+    /**
+     * Is the current user allowed to view EZProxy links
+     * @return
+     */
+    public boolean isViewAuth();
+}
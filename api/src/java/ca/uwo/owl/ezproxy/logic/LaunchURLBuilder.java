@@ -0,0 +1,188 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import ca.uwo.owl.ezproxy.logic.signer.Signer;
+
+/**
+ * Builds the final EZProxy launch URL: the service URL followed by the mac, pid, lcid and url parameters
+ * (and the signature version for non legacy signers).
+ *
+ * The service URL is parsed once when the builder is created. URLs are written into a pre-sized buffer that is
+ * reused per thread, and every parameter value is percent-encoded (UTF-8) in a single pass, so destination URLs
+ * containing '&amp;', '#' or '?' survive the trip to EZProxy intact. Builders are immutable and thread safe.
+ */
+public class LaunchURLBuilder
+{
+    // Class members
+    public  static final String PARAM_MAC       = "mac";    // The message authentication code
+    public  static final String PARAM_USER      = "pid";    // The user EID
+    public  static final String PARAM_SITE      = "lcid";   // The site ID
+    public  static final String PARAM_URL       = "url";    // The destination URL
+    private static final int    INITIAL_CAPACITY = 512;     // The initial size of the per thread buffer
+    private static final int    MAX_RETAINED    = 8192;     // Buffers grown beyond this are not kept for reuse
+    private static final char[] HEX_DIGITS      = "0123456789ABCDEF".toCharArray();
+
+    // Per thread URL buffer
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>()
+    {
+        @Override
+        protected StringBuilder initialValue()
+        {
+            return new StringBuilder( INITIAL_CAPACITY );
+        }
+    };
+
+    // Instance members
+    private final String serviceURL;    // The service URL as configured
+    private final String prefix;        // The service URL (without fragment), followed by the query separator
+
+    /**
+     * Create a builder for the given EZProxy service URL
+     * @param serviceURL the EZProxy service URL; may already contain a query string
+     */
+    public LaunchURLBuilder( String serviceURL )
+    {
+        if( serviceURL == null || serviceURL.trim().isEmpty() )
+        {
+            throw new IllegalArgumentException( "You must supply a valid service URL" );
+        }
+
+        this.serviceURL = serviceURL;
+
+        // Drop any fragment, and work out how the first parameter has to be joined on
+        String base = serviceURL.trim();
+        int hash = base.indexOf( '#' );
+        if( hash >= 0 )
+        {
+            base = base.substring( 0, hash );
+        }
+
+        int query = base.indexOf( '?' );
+        if( query < 0 )
+        {
+            prefix = base + "?";
+        }
+        else if( query == base.length() - 1 || base.endsWith( "&" ) )
+        {
+            prefix = base;
+        }
+        else
+        {
+            prefix = base + "&";
+        }
+    }
+
+    // Getters
+    public String getServiceURL() { return serviceURL; }
+
+    /**
+     * Sign the launch and build its URL
+     * @param signer the signer to generate the MAC with
+     * @param userEid the EID of the user launching the link
+     * @param siteID the ID of the site containing the link
+     * @param destinationURL the URL of the library resource
+     * @return the launch URL
+     */
+    public String build( Signer signer, String userEid, String siteID, String destinationURL )
+    {
+        String version = Signer.LEGACY_VERSION.equals( signer.getVersion() ) ? null : signer.getVersion();
+        return build( signer.sign( userEid, siteID ), version, userEid, siteID, destinationURL );
+    }
+
+    /**
+     * Build the launch URL from an already generated MAC
+     * @param mac the message authentication code
+     * @param version the signature version, or null to omit it (legacy signatures)
+     * @param userEid the EID of the user launching the link
+     * @param siteID the ID of the site containing the link
+     * @param destinationURL the URL of the library resource
+     * @return the launch URL
+     */
+    public String build( String mac, String version, String userEid, String siteID, String destinationURL )
+    {
+        StringBuilder sb = BUFFER.get();
+        sb.setLength( 0 );
+
+        sb.append( prefix ).append( PARAM_MAC ).append( '=' );
+        appendEncoded( sb, mac );
+        if( version != null )
+        {
+            sb.append( '&' ).append( Signer.PARAM_VERSION ).append( '=' );
+            appendEncoded( sb, version );
+        }
+        sb.append( '&' ).append( PARAM_USER ).append( '=' );
+        appendEncoded( sb, userEid );
+        sb.append( '&' ).append( PARAM_SITE ).append( '=' );
+        appendEncoded( sb, siteID );
+        sb.append( '&' ).append( PARAM_URL ).append( '=' );
+        appendEncoded( sb, destinationURL );
+
+        String url = sb.toString();
+        if( sb.capacity() > MAX_RETAINED )
+        {
+            BUFFER.remove();
+        }
+
+        return url;
+    }
+
+    /**
+     * Percent-encode a query parameter value (UTF-8), leaving only the RFC 3986 unreserved characters as they are
+     * @param sb the buffer to append to
+     * @param value the value to encode; null is treated as empty
+     */
+    public static void appendEncoded( StringBuilder sb, CharSequence value )
+    {
+        if( value == null )
+        {
+            return;
+        }
+
+        int length = value.length();
+        for( int i = 0; i < length; ++i )
+        {
+            char c = value.charAt( i );
+            if( ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' ) || ( c >= '0' && c <= '9' )
+                    || c == '-' || c == '.' || c == '_' || c == '~' )
+            {
+                sb.append( c );
+            }
+            else if( c < 0x80 )
+            {
+                appendEscaped( sb, c );
+            }
+            else if( c < 0x800 )
+            {
+                appendEscaped( sb, 0xC0 | ( c >> 6 ) );
+                appendEscaped( sb, 0x80 | ( c & 0x3F ) );
+            }
+            else if( Character.isHighSurrogate( c ) && i + 1 < length && Character.isLowSurrogate( value.charAt( i + 1 ) ) )
+            {
+                int cp = Character.toCodePoint( c, value.charAt( ++i ) );
+                appendEscaped( sb, 0xF0 | ( cp >> 18 ) );
+                appendEscaped( sb, 0x80 | ( ( cp >> 12 ) & 0x3F ) );
+                appendEscaped( sb, 0x80 | ( ( cp >> 6 ) & 0x3F ) );
+                appendEscaped( sb, 0x80 | ( cp & 0x3F ) );
+            }
+            else if( Character.isSurrogate( c ) )
+            {
+                appendEscaped( sb, '?' ); // Unpaired surrogate, as the UTF-8 encoder would substitute it
+            }
+            else
+            {
+                appendEscaped( sb, 0xE0 | ( c >> 12 ) );
+                appendEscaped( sb, 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                appendEscaped( sb, 0x80 | ( c & 0x3F ) );
+            }
+        }
+    }
+
+    /**
+     * Append a single percent-escaped byte
+     * @param sb the buffer to append to
+     * @param b the byte value (0-255)
+     */
+    private static void appendEscaped( StringBuilder sb, int b )
+    {
+        sb.append( '%' ).append( HEX_DIGITS[( b >> 4 ) & 0x0F] ).append( HEX_DIGITS[b & 0x0F] );
+    }
+}
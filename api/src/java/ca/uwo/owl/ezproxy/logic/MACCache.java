@@ -0,0 +1,175 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, concurrent cache of generated MACs.
+ *
+ * The MAC algorithm only signs the byte-sum of the data (see {@link MACEngine}), so the cache is keyed on that sum
+ * rather than on the data itself. The number of distinct sums is small compared with the number of (user, site)
+ * pairs, so most lookups are hits and skip MD5 entirely. The cached values are scoped to the shared secret they were
+ * generated with; when a different secret is supplied, the engine and all cached values are replaced at once.
+ */
+public class MACCache
+{
+    // Class members
+    public static final int DEFAULT_MAX_ENTRIES = 4096; // The default maximum number of cached MACs
+
+    // Instance members
+    private final int           maxEntries;                     // The maximum number of cached MACs per secret
+    private final AtomicLong    hits        = new AtomicLong(); // The number of cache hits
+    private final AtomicLong    misses      = new AtomicLong(); // The number of cache misses
+    private volatile Generation generation;                     // The engine and cached MACs for the current secret
+
+    // Constructors
+    public MACCache() { this( DEFAULT_MAX_ENTRIES ); }
+    public MACCache( int maxEntries )
+    {
+        if( maxEntries < 1 )
+        {
+            throw new IllegalArgumentException( "maxEntries must be positive: " + maxEntries );
+        }
+
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Get the message authentication code (MAC) for a string of data and a key, generating it if it is not cached.
+     * If the key differs from the one the cached values were generated with, the cache is invalidated first.
+     * @param data      the data that will be hashed to get the MAC
+     * @param secretKey the shared secret
+     * @return the message authentication code
+     * @throws NoSuchAlgorithmException
+     */
+    public String generateMAC( String data, String secretKey ) throws NoSuchAlgorithmException
+    {
+        Generation current = generation;
+        if( current == null || !current.engine.isKeyedWith( secretKey ) )
+        {
+            current = rekey( secretKey );
+        }
+
+        Long sum = MACEngine.byteSum( data );
+        String mac = current.macs.get( sum );
+        if( mac != null )
+        {
+            hits.incrementAndGet();
+            return mac;
+        }
+
+        misses.incrementAndGet();
+        mac = current.engine.generateMAC( sum );
+        if( current.macs.size() < maxEntries )
+        {
+            current.macs.putIfAbsent( sum, mac );
+        }
+
+        return mac;
+    }
+
+    /**
+     * Generate and cache the MACs for the given byte-sums ahead of time, e.g. to warm a cache for a new secret
+     * with the sums seen under the old one. Priming does not count towards the hit/miss statistics.
+     * @param sums      the byte-sums to generate MACs for
+     * @param secretKey the shared secret
+     * @throws NoSuchAlgorithmException
+     */
+    public void prime( Iterable<Long> sums, String secretKey ) throws NoSuchAlgorithmException
+    {
+        Generation current = generation;
+        if( current == null || !current.engine.isKeyedWith( secretKey ) )
+        {
+            current = rekey( secretKey );
+        }
+
+        for( Long sum : sums )
+        {
+            if( current.macs.size() >= maxEntries )
+            {
+                break;
+            }
+            if( !current.macs.containsKey( sum ) )
+            {
+                current.macs.putIfAbsent( sum, current.engine.generateMAC( sum ) );
+            }
+        }
+    }
+
+    /**
+     * Get the byte-sums that currently have a cached MAC
+     * @return an unmodifiable view of the cached sums
+     */
+    public Set<Long> getCachedSums()
+    {
+        Generation current = generation;
+        return current == null ? Collections.<Long>emptySet() : Collections.unmodifiableSet( current.macs.keySet() );
+    }
+
+    /**
+     * Discard all cached MACs; the next call will start a new cache for whatever secret it supplies.
+     */
+    public void invalidate()
+    {
+        generation = null;
+    }
+
+    // Getters
+    public long getHits()       { return hits.get(); }
+    public long getMisses()     { return misses.get(); }
+    public int  getMaxEntries() { return maxEntries; }
+    public int  getSize()
+    {
+        Generation current = generation;
+        return current == null ? 0 : current.macs.size();
+    }
+
+    /**
+     * Start a new generation for the given secret, unless another thread has just done so.
+     * @param secretKey the shared secret
+     * @return the generation bound to the secret
+     * @throws NoSuchAlgorithmException
+     */
+    private synchronized Generation rekey( String secretKey ) throws NoSuchAlgorithmException
+    {
+        Generation current = generation;
+        if( current == null || !current.engine.isKeyedWith( secretKey ) )
+        {
+            current = new Generation( new MACEngine( secretKey ) );
+            generation = current;
+        }
+
+        return current;
+    }
+
+    /**
+     * Returns a string representation of the cache statistics.
+     * @return the string representation of the cache
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append( "{ size=" ).append( getSize() ).append( ", maxEntries=" ).append( maxEntries ).append( ", hits=" )
+            .append( getHits() ).append( ", misses=" ).append( getMisses() ).append( " }" );
+        return b.toString();
+    }
+
+    /**
+     * An engine together with the MACs it has generated.
+     */
+    private static final class Generation
+    {
+        private final MACEngine                     engine;
+        private final ConcurrentMap<Long, String>   macs = new ConcurrentHashMap<>();
+
+        private Generation( MACEngine engine )
+        {
+            this.engine = engine;
+        }
+    }
+}
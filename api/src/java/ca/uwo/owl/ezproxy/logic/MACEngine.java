@@ -0,0 +1,204 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Reusable engine that generates the MD5 shared secret MAC expected by EZProxy.
+ *
+ * An engine is bound to a single shared secret, whose bytes are encoded once up front. The MD5 digest
+ * and all scratch buffers are kept per thread, so generating a MAC allocates nothing but the returned string.
+ * The output is identical to the original {@link SharedSecretAuth#generateMAC(String, String)} algorithm:
+ * the lower case hex MD5 of the decimal byte-sum of the data followed by the secret.
+ */
+public class MACEngine
+{
+    // Class members
+    public  static final Charset    CHARSET         = StandardCharsets.UTF_8;               // The fixed charset used to encode data and secret
+    private static final String     ALGORITHM       = "MD5";                                // The digest algorithm
+    private static final int        DIGEST_LENGTH   = 16;                                   // The length of an MD5 digest in bytes
+    private static final char[]     HEX_DIGITS      = "0123456789abcdef".toCharArray();     // The hex encoding table
+    private static final byte       REPLACEMENT     = (byte) '?';                           // The byte the encoder substitutes for unpaired surrogates
+
+    // Per thread digest and scratch buffers
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>()
+    {
+        @Override
+        protected Scratch initialValue()
+        {
+            return new Scratch();
+        }
+    };
+
+    // Instance members
+    private final String secretKey;     // The shared secret this engine is bound to
+    private final byte[] secretBytes;   // The encoded shared secret
+
+    /**
+     * Create an engine bound to the given shared secret.
+     * @param secretKey the shared secret
+     * @throws NoSuchAlgorithmException if the MD5 algorithm is not supported by the JVM
+     */
+    public MACEngine( String secretKey ) throws NoSuchAlgorithmException
+    {
+        MessageDigest.getInstance( ALGORITHM ); // Fail fast if MD5 is not supported
+        this.secretKey      = secretKey;
+        this.secretBytes    = String.valueOf( secretKey ).getBytes( CHARSET );
+    }
+
+    /**
+     * Determine if this engine is bound to the given shared secret.
+     * @param secretKey the shared secret to check
+     * @return true if this engine signs with the given secret
+     */
+    public boolean isKeyedWith( String secretKey )
+    {
+        return this.secretKey == null ? secretKey == null : this.secretKey.equals( secretKey );
+    }
+
+    /**
+     * Generates the message authentication code (MAC) for a string of data.
+     * @param data the data that will be hashed to get the MAC
+     * @return the message authentication code
+     */
+    public String generateMAC( CharSequence data )
+    {
+        return generateMAC( byteSum( data ) );
+    }
+
+    /**
+     * Generates the message authentication code (MAC) for a pre-computed byte-sum.
+     * @param sum the byte-sum of the data, as returned by {@link #byteSum(CharSequence)}
+     * @return the message authentication code
+     */
+    public String generateMAC( long sum )
+    {
+        Scratch scratch = SCRATCH.get();
+        MessageDigest digest = scratch.digest;
+
+        // Combine the decimal sum with the secret key to get our message
+        int start = writeDecimal( sum, scratch.sumDigits );
+        digest.update( scratch.sumDigits, start, scratch.sumDigits.length - start );
+        digest.update( secretBytes, 0, secretBytes.length );
+
+        try { digest.digest( scratch.digestBytes, 0, DIGEST_LENGTH ); }
+        catch( DigestException ex )
+        {
+            digest.reset();
+            throw new IllegalStateException( ex );
+        }
+
+        // Convert digest bytes to hex string
+        return toHex( scratch.digestBytes, scratch.hex );
+    }
+
+    /**
+     * Encodes bytes as a lower case hex string, using the given buffer as scratch space.
+     * @param bytes the bytes to encode
+     * @param buffer the scratch buffer; must hold at least twice as many chars as there are bytes
+     * @return the hex string
+     */
+    public static String toHex( byte[] bytes, char[] buffer )
+    {
+        for( int i = 0, j = 0; i < bytes.length; ++i )
+        {
+            int b = bytes[i] & 0xFF;
+            buffer[j++] = HEX_DIGITS[b >>> 4];
+            buffer[j++] = HEX_DIGITS[b & 0x0F];
+        }
+
+        return new String( buffer, 0, bytes.length * 2 );
+    }
+
+    /**
+     * Sums the (signed) bytes of the UTF-8 encoding of the given data, without encoding it into a new array.
+     * @param data the data to sum
+     * @return the byte-sum of the encoded data
+     */
+    public static long byteSum( CharSequence data )
+    {
+        long sum = 0;
+        int length = data.length();
+        for( int i = 0; i < length; ++i )
+        {
+            char c = data.charAt( i );
+            if( c < 0x80 )
+            {
+                sum += c;
+            }
+            else if( c < 0x800 )
+            {
+                sum += (byte) ( 0xC0 | ( c >> 6 ) );
+                sum += (byte) ( 0x80 | ( c & 0x3F ) );
+            }
+            else if( Character.isHighSurrogate( c ) && i + 1 < length && Character.isLowSurrogate( data.charAt( i + 1 ) ) )
+            {
+                int cp = Character.toCodePoint( c, data.charAt( ++i ) );
+                sum += (byte) ( 0xF0 | ( cp >> 18 ) );
+                sum += (byte) ( 0x80 | ( ( cp >> 12 ) & 0x3F ) );
+                sum += (byte) ( 0x80 | ( ( cp >> 6 ) & 0x3F ) );
+                sum += (byte) ( 0x80 | ( cp & 0x3F ) );
+            }
+            else if( Character.isSurrogate( c ) )
+            {
+                sum += REPLACEMENT;
+            }
+            else
+            {
+                sum += (byte) ( 0xE0 | ( c >> 12 ) );
+                sum += (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                sum += (byte) ( 0x80 | ( c & 0x3F ) );
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     * Writes the decimal (ASCII) representation of the value right-aligned into the buffer.
+     * @param value the value to write
+     * @param buffer the buffer to write into; must hold at least 20 bytes
+     * @return the index of the first written byte
+     */
+    private static int writeDecimal( long value, byte[] buffer )
+    {
+        int pos = buffer.length;
+        boolean negative = value < 0;
+
+        // Work with the negated value so Long.MIN_VALUE does not overflow
+        long n = negative ? value : -value;
+        do
+        {
+            buffer[--pos] = (byte) ( '0' - ( n % 10 ) );
+            n /= 10;
+        }
+        while( n != 0 );
+
+        if( negative )
+        {
+            buffer[--pos] = '-';
+        }
+
+        return pos;
+    }
+
+    /**
+     * The per thread digest and scratch buffers.
+     */
+    private static final class Scratch
+    {
+        private final MessageDigest digest;
+        private final byte[]        sumDigits   = new byte[20];
+        private final byte[]        digestBytes = new byte[DIGEST_LENGTH];
+        private final char[]        hex         = new char[DIGEST_LENGTH * 2];
+
+        private Scratch()
+        {
+            try { digest = MessageDigest.getInstance( ALGORITHM ); }
+            catch( NoSuchAlgorithmException ex ) { throw new IllegalStateException( ex ); }
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package ca.uwo.owl.ezproxy.logic;
 
-import java.util.List;
-
+import ca.uwo.owl.ezproxy.logic.signer.Signer;
+import ca.uwo.owl.ezproxy.model.EZProxyConfig;
 import ca.uwo.owl.ezproxy.model.EZProxyEntry;
 
 /**
@@ -57,18 +57,56 @@ public interface SakaiProxy
     public boolean isCurrentUserConfigAuth();
 
     /**
-     * Set an EZProxy entry
+     * Set an EZProxy entry; a source URL is normalised and its valid flag updated along with it
      * @param entry the EZProxy entry to add/update in the database
      */
     public void setEZProxyEntry( EZProxyEntry entry );
 
     /**
-     * Get a list of EZProxy entries for the given siteID and pageID
+     * Save the whole configuration of an EZProxy link (tool title, page title and all EZProxy entries)
+     * with a single save of the site. The source URL is normalised and validated here, and the result is stored with it
+     * (ezproxy.sourceURL.valid), so readers don't have to validate it again.
      * @param siteID the ID of the site in question
      * @param pageID the ID of the page in question
-     * @return
+     * @param oldToolTitle the old title of the tool
+     * @param newToolTitle the new title of the tool to be set
+     * @param newPageTitle the new title of the page to be set
+     * @param config the EZProxy link configuration to save
+     * @return true if the configuration was saved
+     */
+    public boolean saveEZProxyConfiguration( String siteID, String pageID, String oldToolTitle, String newToolTitle,
+                                             String newPageTitle, EZProxyConfig config );
+
+    /**
+     * Determine if a source URL entered for an EZProxy link is a valid http(s) URL, once normalised as it would be saved
+     * (surrounding white space removed, scheme and host lower cased)
+     * @param sourceURL the URL as entered (may be null)
+     * @return true if the URL is valid
+     */
+    public boolean isValidSourceURL( String sourceURL );
+
+    /**
+     * Store the source URL validity flag (ezproxy.sourceURL.valid) for every EZProxy link saved before the flag existed,
+     * with one save per site. Only super users may run this.
+     * @return the number of links flagged
+     */
+    public int backfillSourceURLValidity();
+
+    /**
+     * Get the EZProxy link configuration for the given siteID and pageID
+     * @param siteID the ID of the site in question
+     * @param pageID the ID of the page in question
+     * @return the configuration; {@link EZProxyConfig#NOT_CONFIGURED} if the link has not been (fully) configured
+     */
+    public EZProxyConfig getEZProxyConfig( String siteID, String pageID );
+
+    /**
+     * Get the Sakai context of the current request. Its values are looked up at most once per request,
+     * and the getCurrent* / is* methods of this interface are answered from it. Outside of a request (e.g. on a
+     * background thread) a new context is returned on each call.
+     * @return the context of the current request
      */
-    public List<EZProxyEntry> getEZProxyEntry( String siteID, String pageID );
+    public EZProxyRequestContext getCurrentContext();
 
     /**
      * Get current siteid
@@ -112,6 +150,49 @@ public interface SakaiProxy
      */
     public boolean isSuperUser();
 
+    /**
+     * Get the signer for EZProxy launches, using the scheme (ezproxy.signer) and shared secret (ezproxy.secret)
+     * from sakai.properties. During a secret rotation this switches to the next secret (ezproxy.secret.next)
+     * at the configured cut-over time (ezproxy.secret.cutover).
+     * @return the signer, or null if no shared secret is configured or the configured scheme is not available
+     */
+    public Signer getSigner();
+
+    /**
+     * Get the EZProxy service URL (ezproxy.url) from the current configuration snapshot
+     * @return the EZProxy service URL
+     */
+    public String getServiceURL();
+
+    /**
+     * Generate the message authentication code (MAC) for the given user and site with the current {@link #getSigner()}
+     * @param userEid the EID of the user launching the link
+     * @param siteID the ID of the site containing the link
+     * @return the message authentication code, or an empty string if it could not be generated
+     */
+    public String generateMAC( String userEid, String siteID );
+
+    /**
+     * Sign a launch with the current {@link #getSigner()} and build the final EZProxy URL for it
+     * @param userEid the EID of the user launching the link
+     * @param siteID the ID of the site containing the link
+     * @param destinationURL the URL of the library resource
+     * @return the final URL, or null if the service URL or shared secret is not configured
+     */
+    public String generateLaunchURL( String userEid, String siteID, String destinationURL );
+
+    /**
+     * Get a generator for signing launch URLs for many users of a site at once, using the current {@link #getSigner()}
+     * @return the generator, or null if the service URL or shared secret is not configured
+     */
+    public BatchLaunchURLGenerator getBatchLaunchURLGenerator();
+
+    /**
+     * Re-read the EZProxy and skin properties from sakai.properties now, instead of waiting for the periodic reload
+     * (ezproxy.reloadSeconds)
+     */
+    public void reloadConfiguration();
+
     /**
      * Post an event to Sakai
      * 
@@ -122,7 +203,7 @@ public interface SakaiProxy
     public void postEvent( String event, String reference, boolean modify );
 
     /**
-     * Wrapper for ServerConfigurationService.getString("skin.repo")
+     * Get the skin repository URL (skin.repo) from the current configuration snapshot
      * @return
      */
     public String getSkinRepoProperty();
@@ -1,10 +1,10 @@
 package ca.uwo.owl.ezproxy.logic;
 
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 /**
  * Provides utilities for handling shared secret authentication using Message Authentication Code (MAC) with MD5 hash.
+ * The work is delegated to a {@link MACEngine}, which is reused for as long as the shared secret stays the same.
  * 
  * @author Brian Jones (bjones86@uwo.ca)
  * @author Paul Lukasewych (plukasew@uwo.ca)
@@ -12,6 +12,9 @@ import java.security.NoSuchAlgorithmException;
  */
 public class SharedSecretAuth
 {
+    // The engine for the most recently used shared secret
+    private static volatile MACEngine engine;
+
     /**
      * Generates a message authentication code (MAC) from a string of data and a key. Uses an MD5 hash.
      * @param data      the data that will be hashed to get the MAC
@@ -22,45 +25,26 @@ public class SharedSecretAuth
      */
     public static String generateMAC( String data, String secretKey ) throws NoSuchAlgorithmException, IndexOutOfBoundsException
     {
-        byte[] bytes = data.getBytes();
-
-        // Sum the bytes in the data
-        long sum = 0;
-        for( int i = 0; i < bytes.length; ++i )
-        {
-            sum += bytes[i];
-        }
+        return getEngine( secretKey ).generateMAC( data );
 
-        // Combine secret key with the sum to get our message
-        String message = Long.toString( sum ) + secretKey;
-        byte[] messageBytes = message.getBytes();
-
-        // Generate the message digest (MD5 hash)
-        MessageDigest digest = MessageDigest.getInstance( "MD5" ); // This will throw an exception if the MD5 algorithm is not supported
-        digest.update( messageBytes, 0, messageBytes.length );
-        byte[] digestBytes = digest.digest();
+    } // End generateMac()
 
-        // Convert digest bytes to hex string
-        StringBuilder builder = new StringBuilder();
-        for( int j = 0; j < digestBytes.length; ++j )
+    /**
+     * Get the MAC engine for the given shared secret, creating (and remembering) a new one if the secret has changed.
+     * @param secretKey the shared secret
+     * @return the MAC engine bound to the shared secret
+     * @throws NoSuchAlgorithmException
+     */
+    public static MACEngine getEngine( String secretKey ) throws NoSuchAlgorithmException
+    {
+        MACEngine current = engine;
+        if( current == null || !current.isKeyedWith( secretKey ) )
         {
-            int digestChar = digestBytes[j];
-            if( digestChar < 0 )
-            {
-                digestChar += 256;
-            }
-
-            String hexChar = Integer.toHexString( digestChar );  
-            if( hexChar.length() == 1 ) // Need to add leading zero
-            {
-                hexChar = "0" + hexChar;
-            }
-
-            builder.append( hexChar ); // This could throw IndexOutOfBoundsException
+            current = new MACEngine( secretKey );
+            engine = current;
         }
 
-        return builder.toString();
-
-    } // End generateMac()
+        return current;
+    }
 
-} // End class
\ No newline at end of file
+} // End class
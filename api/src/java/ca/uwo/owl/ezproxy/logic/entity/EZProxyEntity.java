@@ -14,9 +14,18 @@ public class EZProxyEntity implements Comparable<Object>
     private String toolTitle;
     private String sourceURL;
     private String title;
+    private String id;          // The cached canonical ID (siteID:pageID); reset whenever the site or page ID changes
 
     // Getters
-    public String   getId()         { return ( siteID != null && pageID != null ) ? siteID + EZProxyEntityProvider.ENTITY_SITE_ID_PAGE_ID_SEPERATOR + pageID : null; }
+    public String   getId()
+    {
+        if( id == null && siteID != null && pageID != null )
+        {
+            id = EZProxyEntityId.toString( siteID, pageID );
+        }
+
+        return id;
+    }
     public String   getSiteID()     { return this.siteID; }
     public String   getPageID()     { return this.pageID; }
     public String   getPageTitle()  { return this.pageTitle; }
@@ -25,8 +34,8 @@ public class EZProxyEntity implements Comparable<Object>
     public String   getTitle()      { return this.title; }
 
     // Setters
-    public void setSiteID( String siteID )          { this.siteID = siteID; }
-    public void setPageID( String pageID )          { this.pageID = pageID; }
+    public void setSiteID( String siteID )          { this.siteID = siteID; this.id = null; }
+    public void setPageID( String pageID )          { this.pageID = pageID; this.id = null; }
     public void setPageTitle( String pageTitle )    { this.pageTitle = pageTitle; }
     public void setToolTitle( String toolTitle )    { this.toolTitle = toolTitle; }
     public void setSourceURL( String sourceURL )    { this.sourceURL = sourceURL; }
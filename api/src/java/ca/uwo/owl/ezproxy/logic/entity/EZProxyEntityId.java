@@ -0,0 +1,104 @@
+package ca.uwo.owl.ezproxy.logic.entity;
+
+/**
+ * The (immutable) ID of an EZProxy entity: the site ID and page ID of the link, in the canonical form siteID:pageID.
+ *
+ * IDs are parsed by scanning for the separator rather than with String.split, and the canonical form is built
+ * once, so IDs are cheap to compare, hash and print.
+ */
+public final class EZProxyEntityId
+{
+    // Class members
+    private static final char   SEPARATOR           = EZProxyEntityProvider.ENTITY_SITE_ID_PAGE_ID_SEPERATOR.charAt( 0 );
+    private static final String REFERENCE_PREFIX    = "/" + EZProxyEntityProvider.ENTITY_PREFIX + "/";
+
+    // Instance members
+    private final String siteID;    // The ID of the site containing the link
+    private final String pageID;    // The ID of the page containing the link
+    private final String id;        // The canonical form (siteID:pageID)
+
+    /**
+     * Build the ID of a link
+     * @param siteID the ID of the site containing the link
+     * @param pageID the ID of the page containing the link
+     * @throws IllegalArgumentException if either ID is null or empty
+     */
+    public EZProxyEntityId( String siteID, String pageID )
+    {
+        if( siteID == null || siteID.isEmpty() || pageID == null || pageID.isEmpty() )
+        {
+            throw new IllegalArgumentException( "You must supply a site ID and a page ID" );
+        }
+
+        this.siteID = siteID;
+        this.pageID = pageID;
+        this.id     = siteID + SEPARATOR + pageID;
+    }
+
+    private EZProxyEntityId( String id, int separator )
+    {
+        this.siteID = id.substring( 0, separator );
+        this.pageID = id.substring( separator + 1 );
+        this.id     = id;
+    }
+
+    /**
+     * Parse an entity ID (siteID:pageID) or reference (/ezproxy/siteID:pageID)
+     * @param value the ID or reference
+     * @return the ID, or null if the value is not a valid ID (exactly one separator, with a non empty site ID and page ID)
+     */
+    public static EZProxyEntityId parse( String value )
+    {
+        if( value == null )
+        {
+            return null;
+        }
+
+        String id = value.startsWith( REFERENCE_PREFIX ) ? value.substring( REFERENCE_PREFIX.length() ) : value;
+        int separator = id.indexOf( SEPARATOR );
+        if( separator <= 0 || separator == id.length() - 1 || id.indexOf( SEPARATOR, separator + 1 ) >= 0 )
+        {
+            return null;
+        }
+
+        return new EZProxyEntityId( id, separator );
+    }
+
+    /**
+     * Build the canonical ID of a link without creating an EZProxyEntityId
+     * @param siteID the ID of the site containing the link
+     * @param pageID the ID of the page containing the link
+     * @return siteID:pageID
+     */
+    public static String toString( String siteID, String pageID )
+    {
+        return siteID + SEPARATOR + pageID;
+    }
+
+    // Getters
+    public String getSiteID()       { return siteID; }
+    public String getPageID()       { return pageID; }
+    public String getReference()    { return REFERENCE_PREFIX + id; }
+
+    @Override
+    public boolean equals( Object obj )
+    {
+        return obj == this || ( obj instanceof EZProxyEntityId && id.equals( ( (EZProxyEntityId) obj ).id ) );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return id.hashCode();
+    }
+
+    /**
+     * Returns the canonical form of the ID.
+     * @return siteID:pageID
+     */
+    @Override
+    public String toString()
+    {
+        return id;
+    }
+}
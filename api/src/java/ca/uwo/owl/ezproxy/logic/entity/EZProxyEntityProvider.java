@@ -22,7 +22,10 @@ public interface EZProxyEntityProvider extends EntityProvider
     public final static String ENTITY_PREFIX = "ezproxy";
 
     // Publicly available static string array defining the handled output formats
-    public final static String[] HANDLED_OUTPUT_FORMATS = new String[] { Formats.HTML };
+    public final static String[] HANDLED_OUTPUT_FORMATS = new String[] { Formats.HTML, Formats.JSON, Formats.XML };
+
+    // Publicly available static string array defining the handled input formats (for create/update)
+    public final static String[] HANDLED_INPUT_FORMATS = new String[] { Formats.HTML, Formats.JSON, Formats.XML };
 
     // Publicly available static string defining the character used to seperate the site and page IDs in the entity ID
     public final static String ENTITY_SITE_ID_PAGE_ID_SEPERATOR = ":";
@@ -0,0 +1,107 @@
+package ca.uwo.owl.ezproxy.logic.signer;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import ca.uwo.owl.ezproxy.logic.MACEngine;
+
+/**
+ * HMAC-SHA256 signing scheme. The signed message is the UTF-8 encoding of userEid, a newline, and siteID; the MAC is
+ * the lower case hex encoding of the HMAC. A pre-keyed {@link Mac} is kept per thread and reused for every launch.
+ */
+public class HmacSHA256Signer implements Signer
+{
+    // Class members
+    public  static final String VERSION     = "2";              // The version sent to EZProxy
+    private static final String ALGORITHM   = "HmacSHA256";     // The JCE algorithm name
+    private static final byte   SEPARATOR   = '\n';             // Separates the user EID from the site ID in the message
+
+    // Instance members
+    private final String                secretKey;  // The shared secret
+    private final SecretKeySpec         key;        // The HMAC key
+    private final ThreadLocal<Scratch>  scratch;    // The pre-keyed Mac and hex buffer for each thread
+
+    /**
+     * Create a signer bound to the given shared secret.
+     * @param secretKey the shared secret
+     * @throws NoSuchAlgorithmException if HMAC-SHA256 is not supported by the JVM
+     * @throws InvalidKeyException if the shared secret is empty
+     */
+    public HmacSHA256Signer( String secretKey ) throws NoSuchAlgorithmException, InvalidKeyException
+    {
+        if( secretKey == null || secretKey.isEmpty() )
+        {
+            throw new InvalidKeyException( "The shared secret must not be empty" );
+        }
+
+        this.secretKey  = secretKey;
+        this.key        = new SecretKeySpec( secretKey.getBytes( MACEngine.CHARSET ), ALGORITHM );
+        newMac(); // Fail fast if the algorithm or key is not supported
+        this.scratch    = new ThreadLocal<Scratch>()
+        {
+            @Override
+            protected Scratch initialValue()
+            {
+                try { return new Scratch( newMac() ); }
+                catch( NoSuchAlgorithmException | InvalidKeyException ex ) { throw new IllegalStateException( ex ); }
+            }
+        };
+    }
+
+    // Getters
+    @Override public String getName()       { return Signers.NAME_HMAC_SHA256; }
+    @Override public String getVersion()    { return VERSION; }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isKeyedWith( String secretKey )
+    {
+        return this.secretKey.equals( secretKey );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String sign( String userEid, String siteID )
+    {
+        Scratch s = scratch.get();
+        s.mac.update( userEid.getBytes( MACEngine.CHARSET ) );
+        s.mac.update( SEPARATOR );
+        s.mac.update( siteID.getBytes( MACEngine.CHARSET ) );
+        return MACEngine.toHex( s.mac.doFinal(), s.hex );
+    }
+
+    /**
+     * Create a new Mac initialized with this signer's key
+     * @return the keyed Mac
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeyException
+     */
+    private Mac newMac() throws NoSuchAlgorithmException, InvalidKeyException
+    {
+        Mac mac = Mac.getInstance( ALGORITHM );
+        mac.init( key );
+        return mac;
+    }
+
+    /**
+     * The per thread Mac and hex buffer.
+     */
+    private static final class Scratch
+    {
+        private final Mac       mac;
+        private final char[]    hex;
+
+        private Scratch( Mac mac )
+        {
+            this.mac = mac;
+            this.hex = new char[mac.getMacLength() * 2];
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ca.uwo.owl.ezproxy.logic.signer;
+
+import java.security.NoSuchAlgorithmException;
+
+import ca.uwo.owl.ezproxy.logic.MACCache;
+import ca.uwo.owl.ezproxy.logic.SharedSecretAuth;
+
+/**
+ * The original EZProxy signing scheme: the MD5 hash of the byte-sum of userEid + siteID followed by the shared secret.
+ * Produces exactly the same MACs as {@link SharedSecretAuth#generateMAC(String, String)}, served from a {@link MACCache}.
+ */
+public class LegacyMD5Signer implements Signer
+{
+    // Instance members
+    private final String    secretKey;  // The shared secret
+    private final MACCache  cache;      // The cache of generated MACs
+
+    // Constructors
+    public LegacyMD5Signer( String secretKey ) throws NoSuchAlgorithmException
+    {
+        this( secretKey, MACCache.DEFAULT_MAX_ENTRIES );
+    }
+    public LegacyMD5Signer( String secretKey, int maxCacheEntries ) throws NoSuchAlgorithmException
+    {
+        this.secretKey  = secretKey;
+        this.cache      = new MACCache( maxCacheEntries );
+        cache.generateMAC( "", secretKey ); // Bind the cache to the secret now, so MD5 support is verified up front
+    }
+
+    // Getters
+    @Override public String getName()       { return Signers.NAME_LEGACY_MD5; }
+    @Override public String getVersion()    { return LEGACY_VERSION; }
+    public MACCache         getCache()      { return cache; }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isKeyedWith( String secretKey )
+    {
+        return this.secretKey == null ? secretKey == null : this.secretKey.equals( secretKey );
+    }
+
+    /**
+     * Pre-compute the MACs for every byte-sum the given signer has cached, so switching from it to this signer
+     * does not start with a cold cache.
+     * @param previous the signer being replaced
+     */
+    public void warmFrom( LegacyMD5Signer previous )
+    {
+        try { cache.prime( previous.getCache().getCachedSums(), secretKey ); }
+        catch( NoSuchAlgorithmException ex ) { throw new IllegalStateException( ex ); } // Already verified in the constructor
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String sign( String userEid, String siteID )
+    {
+        try { return cache.generateMAC( userEid + siteID, secretKey ); }
+        catch( NoSuchAlgorithmException ex ) { throw new IllegalStateException( ex ); } // Already verified in the constructor
+    }
+}
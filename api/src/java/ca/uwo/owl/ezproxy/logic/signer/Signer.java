@@ -0,0 +1,42 @@
+package ca.uwo.owl.ezproxy.logic.signer;
+
+/**
+ * A scheme for signing EZProxy launches. A signer is bound to a single shared secret and must be safe to use from
+ * multiple threads concurrently. Implementations are created through {@link Signers} and selected in sakai.properties
+ * with the {@link Signers#SAK_PROP_SIGNER} property.
+ */
+public interface Signer
+{
+    // The version of the original MD5 byte-sum scheme; launches signed with it carry no version parameter
+    public static final String LEGACY_VERSION = "1";
+
+    // The name of the launch URL parameter carrying the signature version (for non legacy versions)
+    public static final String PARAM_VERSION = "macv";
+
+    /**
+     * Get the name of this scheme, as used in sakai.properties
+     * @return the scheme name, e.g. md5 or hmac-sha256
+     */
+    public String getName();
+
+    /**
+     * Get the version of this scheme, as sent to EZProxy
+     * @return the version; {@link #LEGACY_VERSION} for the original scheme, whose launches carry no version parameter
+     */
+    public String getVersion();
+
+    /**
+     * Determine if this signer is bound to the given shared secret
+     * @param secretKey the shared secret to check
+     * @return true if this signer signs with that secret, false otherwise
+     */
+    public boolean isKeyedWith( String secretKey );
+
+    /**
+     * Generate the message authentication code (MAC) for the given user and site
+     * @param userEid the EID of the user launching the link
+     * @param siteID the ID of the site containing the link
+     * @return the message authentication code
+     */
+    public String sign( String userEid, String siteID );
+}
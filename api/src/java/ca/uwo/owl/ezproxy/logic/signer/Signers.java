@@ -0,0 +1,44 @@
+package ca.uwo.owl.ezproxy.logic.signer;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Creates {@link Signer} instances by name.
+ */
+public class Signers
+{
+    // The name of the sakai property selecting the signing scheme
+    public static final String SAK_PROP_SIGNER = "ezproxy.signer";
+
+    // The names of the available signing schemes
+    public static final String NAME_LEGACY_MD5  = "md5";
+    public static final String NAME_HMAC_SHA256 = "hmac-sha256";
+
+    // The scheme used when none is configured
+    public static final String DEFAULT_NAME = NAME_LEGACY_MD5;
+
+    private Signers() {}
+
+    /**
+     * Create a signer for the named scheme, bound to the given shared secret
+     * @param name the name of the scheme (case insensitive); null or empty selects the default scheme
+     * @param secretKey the shared secret
+     * @return the new signer
+     * @throws IllegalArgumentException if the scheme is unknown
+     * @throws GeneralSecurityException if the scheme is not supported by the JVM, or the secret is not a valid key
+     */
+    public static Signer create( String name, String secretKey ) throws GeneralSecurityException
+    {
+        String scheme = ( name == null || name.trim().isEmpty() ) ? DEFAULT_NAME : name.trim();
+        if( NAME_LEGACY_MD5.equalsIgnoreCase( scheme ) )
+        {
+            return new LegacyMD5Signer( secretKey );
+        }
+        else if( NAME_HMAC_SHA256.equalsIgnoreCase( scheme ) )
+        {
+            return new HmacSHA256Signer( secretKey );
+        }
+
+        throw new IllegalArgumentException( "Unknown signing scheme: " + name );
+    }
+}
@@ -0,0 +1,64 @@
+package ca.uwo.owl.ezproxy.model;
+
+import java.io.Serializable;
+
+import ca.uwo.owl.ezproxy.utilities.EZProxyConstants;
+
+/**
+ * This class models the (immutable) configuration of a single EZProxy link, as stored in the page properties.
+ *
+ * An unconfigured link is represented by {@link #NOT_CONFIGURED} rather than null.
+ */
+public final class EZProxyConfig implements Serializable
+{
+    // Class members
+    private static final long serialVersionUID = 6126507815385405837L;
+
+    // The configuration of a link that has not been set up yet
+    public static final EZProxyConfig NOT_CONFIGURED = new EZProxyConfig( "", "", "", false, false );
+
+    // Instance members
+    private final String    sourceURL;          // The URL of the library resource
+    private final String    frameHeight;        // The selected frame height option
+    private final String    customHeight;       // The custom frame height (when the 'something else' option is selected)
+    private final boolean   newWindow;          // Was the link set to open in a new window/tab
+    private final boolean   configured;         // Has the link been configured
+    private final boolean   openInNewWindow;    // Does the link have to open in a new window/tab (set to, or not HTTPS)
+
+    // Constructors
+    public EZProxyConfig( String sourceURL, String frameHeight, String customHeight, boolean newWindow )
+    {
+        this( sourceURL, frameHeight, customHeight, newWindow, true );
+    }
+    private EZProxyConfig( String sourceURL, String frameHeight, String customHeight, boolean newWindow, boolean configured )
+    {
+        this.sourceURL          = ( sourceURL == null ) ? "" : sourceURL;
+        this.frameHeight        = ( frameHeight == null ) ? "" : frameHeight;
+        this.customHeight       = ( customHeight == null ) ? "" : customHeight;
+        this.newWindow          = newWindow;
+        this.configured         = configured;
+        this.openInNewWindow    = configured && ( newWindow || !this.sourceURL.regionMatches( true, 0, EZProxyConstants.URL_PROTOCOL_HTTPS, 0,
+                EZProxyConstants.URL_PROTOCOL_HTTPS.length() ) );
+    }
+
+    // Getters
+    public String   getSourceURL()      { return sourceURL; }
+    public String   getFrameHeight()    { return frameHeight; }
+    public String   getCustomHeight()   { return customHeight; }
+    public boolean  isNewWindow()       { return newWindow; }
+    public boolean  isConfigured()      { return configured; }
+    public boolean  isOpenInNewWindow() { return openInNewWindow; }
+
+    /**
+     * Returns a string representation of the EZProxy configuration object.
+     * @return the string representation of the EZProxy configuration
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append( "{ sourceURL=" ).append( sourceURL ).append( ", frameHeight=" ).append( frameHeight ).append( ", customHeight=" )
+            .append( customHeight ).append( ", newWindow=" ).append( newWindow ).append( ", configured=" ).append( configured ).append( " }" );
+        return b.toString();
+    }
+}
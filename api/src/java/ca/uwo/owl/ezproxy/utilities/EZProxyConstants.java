@@ -11,9 +11,18 @@ public class EZProxyConstants
     public static final String EZPROXY_PROP_CUSTOM_HEIGHT   = "ezproxy.customHeight";
     public static final String EZPROXY_PROP_SOURCE_URL      = "ezproxy.sourceURL";
     public static final String EZPROXY_PROP_NEW_WINDOW      = "ezproxy.newWindow";
+    public static final String EZPROXY_PROP_SOURCE_URL_VALID = "ezproxy.sourceURL.valid"; // Was the source URL valid when it was saved
+    public static final String EZPROXY_PROP_SOURCE_PAGE_ID  = "ezproxy.sourcePageID";    // The page ID of the link an imported link was created from
 
     public static final String EZPROXY_PROP_VALUE_NOT_APPLICABLE = "n/a";
 
     public static final String URL_PROTOCOL_HTTP = "http";
     public static final String URL_PROTOCOL_HTTPS = "https";
+
+    public static final String TOOL_REG_NAME    = "sakai.ezproxy";      // The name of the tool registration
+    public static final String TOOL_PERM_NAME   = "ezproxy.configure";  // The permission to configure EZProxy links in a site
+
+    public static final String EVENT_LAUNCH             = "ezproxy.launch";         // A user launched (or was shown) an EZProxy link
+    public static final String EVENT_CONFIG_UPDATE      = "ezproxy.config.update";  // An EZProxy link configuration was saved
+    public static final String EVENT_REFERENCE_PREFIX   = "/ezproxy/";              // The prefix of EZProxy event references (/ezproxy/siteID:pageID)
 }
@@ -0,0 +1,166 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+
+import org.junit.Test;
+
+import ca.uwo.owl.ezproxy.logic.signer.Signer;
+
+/**
+ * Checks the launch URLs built by {@link LaunchURLBuilder}, and that its parameter encoding matches
+ * URLEncoder (UTF-8) apart from the RFC 3986 differences (%20 for spaces, and ~ and * handling).
+ */
+public class LaunchURLBuilderTest
+{
+    private static final String[] VALUES =
+    {
+        "",
+        "jsmith",
+        "AZaz09-._~",
+        "a b+c",
+        "https://db.vendor.com/search?q=a&b=c#results",
+        "100% * !'();:@&=+$,/?#[]",
+        "josé",
+        "王小明",
+        "😀🏫",
+        "lone-\uD83D-high",
+        "lone-\uDE00-low",
+        "\u0000\u007F\u0080߿ࠀ￿",
+    };
+
+    @Test
+    public void testAppendEncodedMatchesURLEncoder() throws UnsupportedEncodingException
+    {
+        for( String value : VALUES )
+        {
+            StringBuilder sb = new StringBuilder();
+            LaunchURLBuilder.appendEncoded( sb, value );
+            assertEquals( "encoding of " + value, rfc3986( value ), sb.toString() );
+        }
+    }
+
+    @Test
+    public void testAppendEncodedRoundTrips() throws UnsupportedEncodingException
+    {
+        for( String value : VALUES )
+        {
+            if( !hasUnpairedSurrogate( value ) )
+            {
+                StringBuilder sb = new StringBuilder();
+                LaunchURLBuilder.appendEncoded( sb, value );
+                assertEquals( value, URLDecoder.decode( sb.toString(), "UTF-8" ) );
+            }
+        }
+    }
+
+    @Test
+    public void testAppendEncodedNull()
+    {
+        StringBuilder sb = new StringBuilder( "x" );
+        LaunchURLBuilder.appendEncoded( sb, null );
+        assertEquals( "x", sb.toString() );
+    }
+
+    @Test
+    public void testServiceURLJoining()
+    {
+        assertEquals( "https://ez.lib.ca/login?mac=m&pid=u&lcid=s&url=d", build( "https://ez.lib.ca/login" ) );
+        assertEquals( "https://ez.lib.ca/login?mac=m&pid=u&lcid=s&url=d", build( "  https://ez.lib.ca/login  " ) );
+        assertEquals( "https://ez.lib.ca/login?mac=m&pid=u&lcid=s&url=d", build( "https://ez.lib.ca/login?" ) );
+        assertEquals( "https://ez.lib.ca/login?a=1&mac=m&pid=u&lcid=s&url=d", build( "https://ez.lib.ca/login?a=1" ) );
+        assertEquals( "https://ez.lib.ca/login?a=1&mac=m&pid=u&lcid=s&url=d", build( "https://ez.lib.ca/login?a=1&" ) );
+        assertEquals( "https://ez.lib.ca/login?mac=m&pid=u&lcid=s&url=d", build( "https://ez.lib.ca/login#top" ) );
+    }
+
+    @Test
+    public void testBuildEncodesEveryParameter()
+    {
+        LaunchURLBuilder builder = new LaunchURLBuilder( "https://ez.lib.ca/login" );
+        assertEquals( "https://ez.lib.ca/login?mac=ab%2Bc&pid=jos%C3%A9&lcid=~user&url=https%3A%2F%2Fdb.com%2Fa%3Fb%3D1%26c%3D2%23d",
+                      builder.build( "ab+c", null, "josé", "~user", "https://db.com/a?b=1&c=2#d" ) );
+    }
+
+    @Test
+    public void testBuildWithSigner()
+    {
+        LaunchURLBuilder builder = new LaunchURLBuilder( "https://ez.lib.ca/login" );
+        assertEquals( "https://ez.lib.ca/login?mac=u%2Fs&pid=u&lcid=s&url=d", builder.build( new FixedSigner( Signer.LEGACY_VERSION ), "u", "s", "d" ) );
+        assertEquals( "https://ez.lib.ca/login?mac=u%2Fs&macv=2&pid=u&lcid=s&url=d", builder.build( new FixedSigner( "2" ), "u", "s", "d" ) );
+    }
+
+    @Test
+    public void testLongURLs()
+    {
+        // Longer than the retained buffer, then a short one on the same thread
+        StringBuilder destination = new StringBuilder( "https://db.com/?" );
+        for( int i = 0; i < 3000; ++i )
+        {
+            destination.append( "q=é&" );
+        }
+
+        LaunchURLBuilder builder = new LaunchURLBuilder( "https://ez.lib.ca/login" );
+        String url = builder.build( "m", null, "u", "s", destination.toString() );
+        assertEquals( "https://ez.lib.ca/login?mac=m&pid=u&lcid=s&url=" + rfc3986( destination.toString() ), url );
+        assertEquals( "https://ez.lib.ca/login?mac=m&pid=u&lcid=s&url=d", builder.build( "m", null, "u", "s", "d" ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testBlankServiceURL()
+    {
+        new LaunchURLBuilder( " " );
+    }
+
+    private static String build( String serviceURL )
+    {
+        return new LaunchURLBuilder( serviceURL ).build( "m", null, "u", "s", "d" );
+    }
+
+    /**
+     * URLEncoder's form encoding, converted to RFC 3986 percent-encoding
+     */
+    private static String rfc3986( String value )
+    {
+        try { return URLEncoder.encode( value, "UTF-8" ).replace( "+", "%20" ).replace( "*", "%2A" ).replace( "%7E", "~" ); }
+        catch( UnsupportedEncodingException ex ) { throw new IllegalStateException( ex ); }
+    }
+
+    private static boolean hasUnpairedSurrogate( String value )
+    {
+        for( int i = 0; i < value.length(); ++i )
+        {
+            char c = value.charAt( i );
+            if( Character.isHighSurrogate( c ) && i + 1 < value.length() && Character.isLowSurrogate( value.charAt( i + 1 ) ) )
+            {
+                ++i;
+            }
+            else if( Character.isSurrogate( c ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * A signer whose MAC is simply userEid/siteID
+     */
+    private static final class FixedSigner implements Signer
+    {
+        private final String version;
+
+        private FixedSigner( String version )
+        {
+            this.version = version;
+        }
+
+        @Override public String getName()                       { return "fixed"; }
+        @Override public String getVersion()                    { return version; }
+        @Override public boolean isKeyedWith( String secretKey ) { return true; }
+        @Override public String sign( String userEid, String siteID ) { return userEid + "/" + siteID; }
+    }
+}
@@ -0,0 +1,145 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link MACEngine} signs exactly like the original SharedSecretAuth.generateMAC algorithm, which summed
+ * the bytes of data.getBytes() in the platform charset (UTF-8 on every supported Sakai deployment).
+ */
+public class MACEngineTest
+{
+    private static final String SECRET = "s3cr3t-Ünïcødé";
+
+    // User EIDs and site IDs covering ASCII, accented (2 byte), CJK (3 byte), astral (4 byte) and unpaired surrogates
+    private static final String[] VALUES =
+    {
+        "",
+        "jsmith",
+        "ASCII site 123 ~!@#$%^&*()",
+        "~jsmith",
+        "josé.garcía",
+        "Ærøskøbing-Ünïversität",
+        "王小明",
+        "データベース-2021",
+        "emoji-😀-user",
+        "🏫📚",
+        "lone-high-\uD83D",
+        "lone-low-\uDE00-end",
+        "\uDE00\uD83D",
+        "mixed-é-王-😀-\uD800",
+        "\u0000\u007F\u0080߿ࠀ￿",
+    };
+
+    @Test
+    public void testByteSumMatchesEncodedBytes()
+    {
+        for( String value : VALUES )
+        {
+            assertEquals( "byte-sum of " + value, originalByteSum( value ), MACEngine.byteSum( value ) );
+        }
+    }
+
+    @Test
+    public void testGenerateMACMatchesOriginalAlgorithm() throws NoSuchAlgorithmException
+    {
+        MACEngine engine = new MACEngine( SECRET );
+        for( String eid : VALUES )
+        {
+            for( String siteID : VALUES )
+            {
+                String data = eid + siteID;
+                assertEquals( "MAC of " + data, originalMAC( data, SECRET ), engine.generateMAC( data ) );
+            }
+        }
+    }
+
+    @Test
+    public void testSharedSecretAuthMatchesOriginalAlgorithm() throws NoSuchAlgorithmException
+    {
+        for( String value : VALUES )
+        {
+            assertEquals( originalMAC( value, SECRET ), SharedSecretAuth.generateMAC( value, SECRET ) );
+            assertEquals( originalMAC( value, "other" ), SharedSecretAuth.generateMAC( value, "other" ) );
+        }
+    }
+
+    @Test
+    public void testNegativeSums() throws NoSuchAlgorithmException
+    {
+        // Multi-byte characters sum to negative values, which must be written with their sign
+        String data = "王王王王王王王王王王";
+        assertTrue( MACEngine.byteSum( data ) < 0 );
+        assertEquals( originalMAC( data, SECRET ), new MACEngine( SECRET ).generateMAC( data ) );
+        assertEquals( originalMAC( Long.MIN_VALUE, SECRET ), new MACEngine( SECRET ).generateMAC( Long.MIN_VALUE ) );
+    }
+
+    @Test
+    public void testIsKeyedWith() throws NoSuchAlgorithmException
+    {
+        MACEngine engine = new MACEngine( SECRET );
+        assertTrue( engine.isKeyedWith( SECRET ) );
+        assertFalse( engine.isKeyedWith( "other" ) );
+        assertFalse( engine.isKeyedWith( null ) );
+    }
+
+    /**
+     * The byte-sum of the original algorithm
+     */
+    private static long originalByteSum( String data )
+    {
+        byte[] bytes = data.getBytes( StandardCharsets.UTF_8 );
+        long sum = 0;
+        for( int i = 0; i < bytes.length; ++i )
+        {
+            sum += bytes[i];
+        }
+
+        return sum;
+    }
+
+    /**
+     * The original SharedSecretAuth.generateMAC, with the platform charset fixed to UTF-8
+     */
+    private static String originalMAC( String data, String secretKey ) throws NoSuchAlgorithmException
+    {
+        return originalMAC( originalByteSum( data ), secretKey );
+    }
+
+    private static String originalMAC( long sum, String secretKey ) throws NoSuchAlgorithmException
+    {
+        String message = Long.toString( sum ) + secretKey;
+        byte[] messageBytes = message.getBytes( StandardCharsets.UTF_8 );
+
+        MessageDigest digest = MessageDigest.getInstance( "MD5" );
+        digest.update( messageBytes, 0, messageBytes.length );
+        byte[] digestBytes = digest.digest();
+
+        StringBuilder builder = new StringBuilder();
+        for( int j = 0; j < digestBytes.length; ++j )
+        {
+            int digestChar = digestBytes[j];
+            if( digestChar < 0 )
+            {
+                digestChar += 256;
+            }
+
+            String hexChar = Integer.toHexString( digestChar );
+            if( hexChar.length() == 1 )
+            {
+                hexChar = "0" + hexChar;
+            }
+
+            builder.append( hexChar );
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package ca.uwo.owl.ezproxy.logic.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Checks the parsing and canonical forms of {@link EZProxyEntityId}.
+ */
+public class EZProxyEntityIdTest
+{
+    @Test
+    public void testParseID()
+    {
+        EZProxyEntityId id = EZProxyEntityId.parse( "site-1:page-2" );
+        assertEquals( "site-1", id.getSiteID() );
+        assertEquals( "page-2", id.getPageID() );
+        assertEquals( "site-1:page-2", id.toString() );
+        assertEquals( "/ezproxy/site-1:page-2", id.getReference() );
+    }
+
+    @Test
+    public void testParseReference()
+    {
+        EZProxyEntityId id = EZProxyEntityId.parse( "/ezproxy/~jsmith:page" );
+        assertEquals( "~jsmith", id.getSiteID() );
+        assertEquals( "page", id.getPageID() );
+        assertEquals( id, EZProxyEntityId.parse( "~jsmith:page" ) );
+    }
+
+    @Test
+    public void testParseInvalid()
+    {
+        String[] invalid = { null, "", ":", "site", "site:", ":page", "site:page:extra", "site::page", "/ezproxy/", "/ezproxy/site" };
+        for( String value : invalid )
+        {
+            assertNull( "parse of " + value, EZProxyEntityId.parse( value ) );
+        }
+    }
+
+    @Test
+    public void testParseKeepsOtherPrefixes()
+    {
+        // Only the ezproxy entity prefix is stripped
+        EZProxyEntityId id = EZProxyEntityId.parse( "/other/site:page" );
+        assertEquals( "/other/site", id.getSiteID() );
+        assertNull( EZProxyEntityId.parse( "/ezproxy/ezproxy/site:page:x" ) );
+    }
+
+    @Test
+    public void testConstructorMatchesParse()
+    {
+        EZProxyEntityId built = new EZProxyEntityId( "site", "page" );
+        EZProxyEntityId parsed = EZProxyEntityId.parse( "site:page" );
+        assertEquals( parsed, built );
+        assertEquals( parsed.hashCode(), built.hashCode() );
+        assertEquals( EZProxyEntityId.toString( "site", "page" ), built.toString() );
+        assertEquals( "/ezproxy/site:page", built.getReference() );
+        assertNotEquals( built, new EZProxyEntityId( "Site", "page" ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testConstructorRejectsEmptyPageID()
+    {
+        new EZProxyEntityId( "site", "" );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testConstructorRejectsNullSiteID()
+    {
+        new EZProxyEntityId( null, "page" );
+    }
+}
@@ -0,0 +1,99 @@
+package ca.uwo.owl.ezproxy.benchmark;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uwo.owl.ezproxy.logic.MACEngine;
+import ca.uwo.owl.ezproxy.logic.signer.Signer;
+import ca.uwo.owl.ezproxy.logic.signer.Signers;
+
+/**
+ * Compares the time taken to sign a launch with the legacy MD5 signer and the HMAC-SHA256 signer.
+ *
+ * legacyMD5 is the production path (served from the MAC cache once warm); legacyMD5Uncached hashes every launch,
+ * as a cold cache does. Each signer signs a rotating set of user EIDs, so the HMAC signer hashes distinct messages.
+ * Run it before switching EZProxy over to HMAC-SHA256, and compare hmacSHA256 with legacyMD5 against the launch
+ * latency budget; SampleTime reports the tail percentiles, and -t changes the number of contending threads.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( { Mode.AverageTime, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 2 )
+@Threads( 4 )
+public class SignerBenchmark
+{
+    // Class members
+    private static final String SECRET  = "benchmark-shared-secret";
+    private static final int    USERS   = 1024;     // The number of distinct user EIDs signed (a power of two)
+
+    // The site the launches are for; a longer, non ASCII ID exercises the multi-byte paths
+    @Param( { "abc123-def456-site", "Bibliothèque-王-データ-0001" } )
+    public String siteID;
+
+    private Signer      legacy;
+    private Signer      hmac;
+    private MACEngine   engine;
+    private String[]    userEids;
+
+    @Setup( Level.Trial )
+    public void setUp() throws GeneralSecurityException
+    {
+        legacy  = Signers.create( Signers.NAME_LEGACY_MD5, SECRET );
+        hmac    = Signers.create( Signers.NAME_HMAC_SHA256, SECRET );
+        engine  = new MACEngine( SECRET );
+
+        userEids = new String[USERS];
+        for( int i = 0; i < USERS; ++i )
+        {
+            userEids[i] = "student" + ( 250000 + i * 7 );
+        }
+    }
+
+    /**
+     * The per thread position in the user EIDs
+     */
+    @State( Scope.Thread )
+    public static class Cursor
+    {
+        private int next;
+
+        private int next()
+        {
+            return next++ & ( USERS - 1 );
+        }
+    }
+
+    @Benchmark
+    public String legacyMD5( Cursor cursor )
+    {
+        return legacy.sign( userEids[cursor.next()], siteID );
+    }
+
+    @Benchmark
+    public String legacyMD5Uncached( Cursor cursor )
+    {
+        return engine.generateMAC( userEids[cursor.next()] + siteID );
+    }
+
+    @Benchmark
+    public String hmacSHA256( Cursor cursor )
+    {
+        return hmac.sign( userEids[cursor.next()], siteID );
+    }
+}
@@ -0,0 +1,111 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import java.util.Collections;
+import java.util.Set;
+
+import ca.uwo.owl.ezproxy.logic.signer.Signer;
+
+/**
+ * An immutable snapshot of the EZProxy (ezproxy.*) and skin properties from sakai.properties, together with the
+ * values derived from them: the parsed service URL, the signers and the allowed view roles.
+ *
+ * Snapshots are built by {@link EZProxySettingsHolder} and replaced as a whole when the properties are reloaded,
+ * so every value read from one snapshot is consistent with the others.
+ */
+public final class EZProxySettings
+{
+    // Class members
+    private static final String NEO_SKIN_TEMPLATES = "neoskin";     // The portal templates that require the neo prefix
+
+    // The settings before anything has been loaded
+    public static final EZProxySettings EMPTY = new EZProxySettings( "", null, null, null, Long.MAX_VALUE, Collections.<String>emptySet(),
+                                                                     0, "", "", NEO_SKIN_TEMPLATES, "neo-", System.currentTimeMillis() );
+
+    // Instance members
+    private final String            serviceURL;         // The EZProxy service URL (ezproxy.url)
+    private final LaunchURLBuilder  launchURLBuilder;   // Builds launch URLs for the service URL; null if it is not configured
+    private final Signer            signer;             // The signer for the current shared secret; null if there is none
+    private final Signer            nextSigner;         // The signer for the next shared secret; null if no rotation is scheduled
+    private final long              cutover;            // When to switch to the next signer, in epoch millis
+    private final Set<String>       allowedRoles;       // The (lower case) user types allowed to view EZProxy links
+    private final long              decisionTTL;        // How long view authorization decisions are cached, in millis
+    private final String            skinRepo;           // The skin repository URL (skin.repo)
+    private final String            skinDefault;        // The default skin (skin.default)
+    private final String            portalTemplates;    // The portal templates (portal.templates)
+    private final String            neoPrefix;          // The neo skin prefix (portal.neoprefix)
+    private final String            skinKey;            // The four skin properties above in one string; equal keys resolve skins the same way
+    private final long              loadedAt;           // When the snapshot was taken
+
+    EZProxySettings( String serviceURL, LaunchURLBuilder launchURLBuilder, Signer signer, Signer nextSigner, long cutover, Set<String> allowedRoles,
+                     long decisionTTL, String skinRepo, String skinDefault, String portalTemplates, String neoPrefix, long loadedAt )
+    {
+        this.serviceURL         = serviceURL;
+        this.launchURLBuilder   = launchURLBuilder;
+        this.signer             = signer;
+        this.nextSigner         = nextSigner;
+        this.cutover            = cutover;
+        this.allowedRoles       = allowedRoles;
+        this.decisionTTL        = decisionTTL;
+        this.skinRepo           = skinRepo;
+        this.skinDefault        = skinDefault;
+        this.portalTemplates    = portalTemplates;
+        this.neoPrefix          = neoPrefix;
+        this.skinKey            = skinRepo + '\n' + skinDefault + '\n' + portalTemplates + '\n' + neoPrefix;
+        this.loadedAt           = loadedAt;
+    }
+
+    // Getters
+    public String           getServiceURL()         { return serviceURL; }
+    public LaunchURLBuilder getLaunchURLBuilder()   { return launchURLBuilder; }
+    public Signer           getCurrentSigner()      { return signer; }
+    public Signer           getNextSigner()         { return nextSigner; }
+    public long             getCutover()            { return cutover; }
+    public Set<String>      getAllowedRoles()       { return allowedRoles; }
+    public long             getDecisionTTL()        { return decisionTTL; }
+    public String           getSkinRepo()           { return skinRepo; }
+    public String           getSkinDefault()        { return skinDefault; }
+    public String           getPortalTemplates()    { return portalTemplates; }
+    public String           getNeoPrefix()          { return neoPrefix; }
+    public String           getSkinKey()            { return skinKey; }
+    public long             getLoadedAt()           { return loadedAt; }
+
+    /**
+     * Get the signer to use right now: the next signer once the cut-over time has passed, otherwise the current one
+     * @return the signer, or null if no usable shared secret is configured
+     */
+    public Signer getSigner()
+    {
+        return ( nextSigner != null && System.currentTimeMillis() >= cutover ) ? nextSigner : signer;
+    }
+
+    /**
+     * Resolve the name of the skin to use for a tool
+     * @param toolSkin the skin of the tool's site, or null to use the default skin
+     * @return the skin name, with the neo prefix prepended when the neo portal templates are in use (SAK-21890)
+     */
+    public String resolveSkin( String toolSkin )
+    {
+        String skin = ( toolSkin == null ) ? skinDefault : toolSkin;
+        if( NEO_SKIN_TEMPLATES.equals( portalTemplates ) && !skin.startsWith( neoPrefix ) )
+        {
+            skin = neoPrefix + skin;
+        }
+
+        return skin;
+    }
+
+    /**
+     * Returns a string representation of the settings (without the shared secrets).
+     * @return the string representation of the settings
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append( "{ serviceURL=" ).append( serviceURL ).append( ", signer=" ).append( signer == null ? null : signer.getName() )
+            .append( ", rotation=" ).append( nextSigner != null ).append( ", allowedRoles=" ).append( allowedRoles )
+            .append( ", skinRepo=" ).append( skinRepo ).append( ", skinDefault=" ).append( skinDefault ).append( ", portalTemplates=" )
+            .append( portalTemplates ).append( ", neoPrefix=" ).append( neoPrefix ).append( " }" );
+        return b.toString();
+    }
+}
@@ -0,0 +1,287 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.sakaiproject.component.api.ServerConfigurationService;
+
+import ca.uwo.owl.ezproxy.logic.signer.LegacyMD5Signer;
+import ca.uwo.owl.ezproxy.logic.signer.Signer;
+import ca.uwo.owl.ezproxy.logic.signer.Signers;
+
+/**
+ * Holds the current {@link EZProxySettings} snapshot, and periodically reloads it from sakai.properties so the
+ * EZProxy properties (including the shared secret) can be changed without a restart. Reading the snapshot is a
+ * single volatile read; a reload builds a complete new snapshot and swaps it in.
+ *
+ * Signers, their MAC caches and the launch URL builder are carried over from the previous snapshot whenever the
+ * properties they were created from are unchanged.
+ *
+ * To rotate the shared secret, set ezproxy.secret.next to the new secret and ezproxy.secret.cutover to the moment
+ * EZProxy starts accepting it (ISO-8601, e.g. 2026-01-05T06:00:00-05:00, or epoch milliseconds). The next signer is
+ * built and its MAC cache warmed as soon as the properties are picked up; at the cut-over time launches switch to it
+ * atomically. Afterwards ezproxy.secret can be set to the new secret and ezproxy.secret.next removed; the already
+ * warm signer is kept.
+ */
+public class EZProxySettingsHolder
+{
+    // Class members
+    private static final Logger LOG                         = Logger.getLogger( EZProxySettingsHolder.class ); // The logger
+    public  static final String SAK_PROP_SERVICE_URL        = "ezproxy.url";                    // The EZProxy service URL
+    public  static final String SAK_PROP_SHARED_SECRET      = "ezproxy.secret";                 // The current shared secret
+    public  static final String SAK_PROP_NEXT_SECRET        = "ezproxy.secret.next";            // The shared secret to switch to at the cut-over time
+    public  static final String SAK_PROP_CUTOVER            = "ezproxy.secret.cutover";         // The moment to switch to the next shared secret
+    public  static final String SAK_PROP_ALLOWED_ROLES      = "ezproxy.allow.view";             // The user types allowed to view EZProxy links
+    public  static final String SAK_PROP_DECISION_TTL       = "ezproxy.allow.view.cacheSeconds"; // How long a view authorization decision is cached
+    public  static final String SAK_PROP_RELOAD_INTERVAL    = "ezproxy.reloadSeconds";          // How often to re-read the properties
+    public  static final String SAK_PROP_SECRET_RELOAD      = "ezproxy.secret.reloadSeconds";   // A former name of ezproxy.reloadSeconds
+    public  static final String SAK_PROP_ROLES_RELOAD       = "ezproxy.allow.view.reloadSeconds"; // A former name of ezproxy.reloadSeconds
+    public  static final String SAK_PROP_SKIN_REPO          = "skin.repo";                      // The skin repository URL
+    public  static final String SAK_PROP_SKIN_DEFAULT       = "skin.default";                   // The default skin
+    public  static final String SAK_PROP_PORTAL_TEMPLATES   = "portal.templates";               // The portal templates
+    public  static final String SAK_PROP_NEO_PREFIX         = "portal.neoprefix";               // The neo skin prefix
+    private static final int    DEFAULT_RELOAD_INTERVAL     = 60;                               // The default reload interval, in seconds
+    private static final int    DEFAULT_DECISION_TTL        = 60;                               // The default decision TTL, in seconds
+
+    // Instance members
+    private final ServerConfigurationService    serverConfigurationService;                 // The Sakai configuration service
+    private volatile EZProxySettings            settings    = EZProxySettings.EMPTY;        // The current snapshot
+    private ScheduledExecutorService            scheduler;                                  // Runs the periodic reload
+
+    public EZProxySettingsHolder( ServerConfigurationService serverConfigurationService )
+    {
+        this.serverConfigurationService = serverConfigurationService;
+    }
+
+    /**
+     * Load the settings and start reloading them periodically
+     */
+    public void init()
+    {
+        reload();
+
+        // The secret and the allowed roles used to be reloaded separately; either of their intervals is still honoured
+        int interval = serverConfigurationService.getInt( SAK_PROP_RELOAD_INTERVAL,
+                serverConfigurationService.getInt( SAK_PROP_SECRET_RELOAD,
+                        serverConfigurationService.getInt( SAK_PROP_ROLES_RELOAD, DEFAULT_RELOAD_INTERVAL ) ) );
+        if( interval > 0 )
+        {
+            scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+            {
+                @Override
+                public Thread newThread( Runnable r )
+                {
+                    Thread t = new Thread( r, "ezproxy-settings-reload" );
+                    t.setDaemon( true );
+                    return t;
+                }
+            } );
+            scheduler.scheduleWithFixedDelay( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try { reload(); }
+                    catch( RuntimeException ex ) { LOG.error( "Unable to reload the EZProxy settings", ex ); }
+                }
+            }, interval, interval, TimeUnit.SECONDS );
+        }
+    }
+
+    /**
+     * Stop the periodic reload
+     */
+    public void destroy()
+    {
+        if( scheduler != null )
+        {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the current snapshot
+     * @return the settings
+     */
+    public EZProxySettings getSettings()
+    {
+        return settings;
+    }
+
+    /**
+     * Re-read the properties and swap in a new snapshot
+     * @return the new snapshot
+     */
+    public synchronized EZProxySettings reload()
+    {
+        EZProxySettings old = settings;
+
+        // Service URL
+        String serviceURL = getString( SAK_PROP_SERVICE_URL, "" ).trim();
+        LaunchURLBuilder builder = old.getLaunchURLBuilder();
+        if( serviceURL.isEmpty() )
+        {
+            builder = null;
+        }
+        else if( builder == null || !serviceURL.equals( builder.getServiceURL() ) )
+        {
+            builder = new LaunchURLBuilder( serviceURL );
+        }
+
+        // Signers
+        String scheme = getString( Signers.SAK_PROP_SIGNER, Signers.DEFAULT_NAME ).trim();
+        if( scheme.isEmpty() )
+        {
+            scheme = Signers.DEFAULT_NAME;
+        }
+        String secret = getString( SAK_PROP_SHARED_SECRET, "" );
+        String nextSecret = getString( SAK_PROP_NEXT_SECRET, "" );
+        long cutover = parseCutover( getString( SAK_PROP_CUTOVER, "" ) );
+
+        Signer current = obtainSigner( old, scheme, secret );
+        Signer next = null;
+        if( !nextSecret.isEmpty() && !nextSecret.equals( secret ) )
+        {
+            next = obtainSigner( old, scheme, nextSecret );
+            if( next != null && next != old.getNextSigner() && current instanceof LegacyMD5Signer && next instanceof LegacyMD5Signer )
+            {
+                ( (LegacyMD5Signer) next ).warmFrom( (LegacyMD5Signer) current );
+            }
+        }
+
+        // View roles; the previous set is kept (by identity) if it hasn't changed
+        Set<String> roles = loadAllowedRoles();
+        if( roles.equals( old.getAllowedRoles() ) )
+        {
+            roles = old.getAllowedRoles();
+        }
+        long decisionTTL = TimeUnit.SECONDS.toMillis( serverConfigurationService.getInt( SAK_PROP_DECISION_TTL, DEFAULT_DECISION_TTL ) );
+
+        // Skin
+        String skinRepo = getString( SAK_PROP_SKIN_REPO, "" );
+        String skinDefault = getString( SAK_PROP_SKIN_DEFAULT, "" );
+        String templates = getString( SAK_PROP_PORTAL_TEMPLATES, "neoskin" );
+        String neoPrefix = getString( SAK_PROP_NEO_PREFIX, "neo-" );
+
+        EZProxySettings loaded = new EZProxySettings( serviceURL, builder, current, next, cutover, roles, decisionTTL,
+                                                      skinRepo, skinDefault, templates, neoPrefix, System.currentTimeMillis() );
+        settings = loaded;
+
+        if( next != null && next != old.getNextSigner() )
+        {
+            LOG.info( "EZProxy shared secret rotation scheduled for " + ( cutover == Long.MAX_VALUE ? "(no cut-over time set)" : Instant.ofEpochMilli( cutover ) ) );
+        }
+        if( roles != old.getAllowedRoles() )
+        {
+            LOG.info( "EZProxy view roles: " + roles );
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Get a string property, treating null as the default
+     * @param name the name of the property
+     * @param dflt the default value
+     * @return the property value
+     */
+    private String getString( String name, String dflt )
+    {
+        String value = serverConfigurationService.getString( name, dflt );
+        return ( value == null ) ? dflt : value;
+    }
+
+    /**
+     * Read the allowed view roles
+     * @return the (lower case) roles
+     */
+    private Set<String> loadAllowedRoles()
+    {
+        Set<String> roles = new HashSet<>();
+        String[] configured = serverConfigurationService.getStrings( SAK_PROP_ALLOWED_ROLES );
+        if( configured == null )
+        {
+            LOG.error( "sakai.property not found: " + SAK_PROP_ALLOWED_ROLES );
+        }
+        else
+        {
+            for( String role : configured )
+            {
+                if( role != null && !role.trim().isEmpty() )
+                {
+                    roles.add( role.trim().toLowerCase( Locale.ROOT ) );
+                }
+            }
+        }
+
+        return Collections.unmodifiableSet( roles );
+    }
+
+    /**
+     * Get a signer for the scheme and secret, reusing one of the existing signers if it matches
+     * @param old the previous snapshot
+     * @param scheme the name of the signing scheme
+     * @param secret the shared secret
+     * @return the signer, or null if the secret is empty or the signer could not be created
+     */
+    private Signer obtainSigner( EZProxySettings old, String scheme, String secret )
+    {
+        if( secret.isEmpty() )
+        {
+            return null;
+        }
+
+        for( Signer candidate : new Signer[] { old.getCurrentSigner(), old.getNextSigner() } )
+        {
+            if( candidate != null && candidate.getName().equalsIgnoreCase( scheme ) && candidate.isKeyedWith( secret ) )
+            {
+                return candidate;
+            }
+        }
+
+        try { return Signers.create( scheme, secret ); }
+        catch( GeneralSecurityException | IllegalArgumentException ex )
+        {
+            LOG.error( "Unable to create EZProxy signer (" + Signers.SAK_PROP_SIGNER + "=" + scheme + "): " + ex.getMessage() );
+            return null;
+        }
+    }
+
+    /**
+     * Parse the cut-over time
+     * @param value an ISO-8601 date-time with offset, an ISO-8601 instant, or epoch milliseconds
+     * @return the cut-over time in epoch milliseconds, or Long.MAX_VALUE if it is not set or invalid
+     */
+    private static long parseCutover( String value )
+    {
+        String trimmed = value.trim();
+        if( trimmed.isEmpty() )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        try { return Long.parseLong( trimmed ); }
+        catch( NumberFormatException ex ) { /* not epoch millis */ }
+
+        try { return OffsetDateTime.parse( trimmed ).toInstant().toEpochMilli(); }
+        catch( DateTimeParseException ex ) { /* not an offset date-time */ }
+
+        try { return Instant.parse( trimmed ).toEpochMilli(); }
+        catch( DateTimeParseException ex )
+        {
+            LOG.error( "Invalid " + SAK_PROP_CUTOVER + " (" + value + "); the next shared secret will not be used" );
+            return Long.MAX_VALUE;
+        }
+    }
+}
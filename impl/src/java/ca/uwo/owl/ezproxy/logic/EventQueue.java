@@ -0,0 +1,273 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.user.api.User;
+
+/**
+ * Posts Sakai events from a background thread, so recording an event never holds up the request that caused it.
+ *
+ * Events (and the user they belong to) are created on the caller's thread, while its session is still current, and
+ * put on a bounded queue. A single daemon thread takes them off the queue (up to a batch at a time, to save on
+ * wake-ups) and posts them one by one; the event tracking service has no batch post, so this offloads the posting
+ * rather than batching it. The bounded queue caps the memory used when events arrive faster than they are posted;
+ * when it is full the overflow policy decides what happens:
+ * <ul>
+ * <li>drop-newest (default) - the new event is dropped</li>
+ * <li>drop-oldest - the oldest queued event is dropped to make room</li>
+ * <li>caller-posts - the caller posts the event itself, synchronously</li>
+ * </ul>
+ */
+public class EventQueue
+{
+    // Class members
+    private static final Logger LOG                         = Logger.getLogger( EventQueue.class );     // The logger
+    public  static final String SAK_PROP_QUEUE_SIZE         = "ezproxy.events.queueSize";   // The capacity of the queue
+    public  static final String SAK_PROP_BATCH_SIZE         = "ezproxy.events.batchSize";   // The maximum number of events taken off the queue at once
+    public  static final String SAK_PROP_OVERFLOW           = "ezproxy.events.overflow";    // The overflow policy
+    public  static final int    DEFAULT_QUEUE_SIZE          = 10000;                        // The default capacity of the queue
+    public  static final int    DEFAULT_BATCH_SIZE          = 100;                          // The default batch size
+    private static final long   POLL_TIMEOUT                = 1;                            // How long the drainer waits for an event, in seconds
+
+    /**
+     * What to do with an event when the queue is full
+     */
+    public enum OverflowPolicy
+    {
+        DROP_NEWEST, DROP_OLDEST, CALLER_POSTS;
+
+        /**
+         * Parse a policy name (e.g. drop-oldest)
+         * @param name the name of the policy
+         * @return the policy, or DROP_NEWEST if the name is not recognised
+         */
+        public static OverflowPolicy parse( String name )
+        {
+            if( name != null )
+            {
+                String normalized = name.trim().toUpperCase( Locale.ROOT ).replace( '-', '_' );
+                for( OverflowPolicy policy : values() )
+                {
+                    if( policy.name().equals( normalized ) )
+                    {
+                        return policy;
+                    }
+                }
+            }
+
+            return DROP_NEWEST;
+        }
+    }
+
+    // Instance members
+    private final EventTrackingService          eventTrackingService;               // Posts the events
+    private final BlockingQueue<QueuedEvent>    queue;                              // The events waiting to be posted
+    private final int                           batchSize;                          // The maximum number of events taken off the queue at once
+    private final OverflowPolicy                overflowPolicy;                     // What to do when the queue is full
+    private final AtomicLong                    posted      = new AtomicLong();     // The number of events posted
+    private final AtomicLong                    dropped     = new AtomicLong();     // The number of events dropped
+    private final AtomicLong                    failed      = new AtomicLong();     // The number of events that could not be posted
+    private volatile boolean                    running;                            // Is the drainer running
+    private Thread                              drainer;                            // Posts the queued events
+
+    public EventQueue( EventTrackingService eventTrackingService, int capacity, int batchSize, OverflowPolicy overflowPolicy )
+    {
+        if( eventTrackingService == null || overflowPolicy == null )
+        {
+            throw new IllegalArgumentException( "You must supply an event tracking service and an overflow policy" );
+        }
+
+        this.eventTrackingService   = eventTrackingService;
+        this.queue                  = new ArrayBlockingQueue<>( Math.max( 1, capacity ) );
+        this.batchSize              = Math.max( 1, batchSize );
+        this.overflowPolicy         = overflowPolicy;
+    }
+
+    /**
+     * Start the drainer thread
+     */
+    public synchronized void start()
+    {
+        if( running )
+        {
+            return;
+        }
+
+        running = true;
+        drainer = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        }, "ezproxy-event-poster" );
+        drainer.setDaemon( true );
+        drainer.start();
+    }
+
+    /**
+     * Stop the drainer thread, and post whatever is still queued on the calling thread
+     */
+    public synchronized void stop()
+    {
+        running = false;
+        if( drainer != null )
+        {
+            drainer.interrupt();
+            try { drainer.join( TimeUnit.SECONDS.toMillis( POLL_TIMEOUT * 5 ) ); }
+            catch( InterruptedException ex ) { Thread.currentThread().interrupt(); }
+            drainer = null;
+        }
+
+        List<QueuedEvent> remaining = new ArrayList<>();
+        queue.drainTo( remaining );
+        for( QueuedEvent event : remaining )
+        {
+            post( event );
+        }
+    }
+
+    /**
+     * Queue an event to be posted. Never blocks, unless the overflow policy is caller-posts and the queue is full.
+     * @param event the event, created on the caller's thread
+     * @param user the user the event belongs to (the current user of the caller's thread)
+     */
+    public void enqueue( Event event, User user )
+    {
+        QueuedEvent queued = new QueuedEvent( event, user );
+        if( !running )
+        {
+            post( queued );
+            return;
+        }
+
+        if( queue.offer( queued ) )
+        {
+            return;
+        }
+
+        switch( overflowPolicy )
+        {
+            case CALLER_POSTS:
+                post( queued );
+                break;
+            case DROP_OLDEST:
+                while( !queue.offer( queued ) )
+                {
+                    if( queue.poll() != null )
+                    {
+                        dropped.incrementAndGet();
+                    }
+                }
+                break;
+            default:
+                dropped.incrementAndGet();
+        }
+    }
+
+    // Getters
+    public int              getDepth()          { return queue.size(); }
+    public long             getPosted()         { return posted.get(); }
+    public long             getDropped()        { return dropped.get(); }
+    public long             getFailed()         { return failed.get(); }
+    public OverflowPolicy   getOverflowPolicy() { return overflowPolicy; }
+
+    /**
+     * Returns a string representation of the queue statistics.
+     * @return the string representation of the queue
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append( "{ depth=" ).append( getDepth() ).append( ", posted=" ).append( getPosted() ).append( ", dropped=" ).append( getDropped() )
+            .append( ", failed=" ).append( getFailed() ).append( ", overflow=" ).append( overflowPolicy ).append( " }" );
+        return b.toString();
+    }
+
+    /**
+     * The drainer loop: wait for an event, take it off the queue together with up to a batch of the events queued
+     * behind it, and post them one at a time
+     */
+    private void drain()
+    {
+        List<QueuedEvent> batch = new ArrayList<>( batchSize );
+        while( running )
+        {
+            try
+            {
+                QueuedEvent first = queue.poll( POLL_TIMEOUT, TimeUnit.SECONDS );
+                if( first == null )
+                {
+                    continue;
+                }
+
+                batch.add( first );
+                queue.drainTo( batch, batchSize - 1 );
+                for( QueuedEvent event : batch )
+                {
+                    post( event );
+                }
+            }
+            catch( InterruptedException ex )
+            {
+                // Stopping; whatever is left is posted by stop()
+                break;
+            }
+            finally
+            {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Post a single event, counting (rather than propagating) failures
+     * @param event the event to post
+     */
+    private void post( QueuedEvent event )
+    {
+        try
+        {
+            if( event.user != null )
+            {
+                eventTrackingService.post( event.event, event.user );
+            }
+            else
+            {
+                eventTrackingService.post( event.event );
+            }
+            posted.incrementAndGet();
+        }
+        catch( RuntimeException ex )
+        {
+            failed.incrementAndGet();
+            LOG.warn( "Unable to post event " + event.event.getEvent() + " (" + event.event.getResource() + "): " + ex.getMessage() );
+        }
+    }
+
+    /**
+     * An event and the user it belongs to
+     */
+    private static final class QueuedEvent
+    {
+        private final Event event;
+        private final User  user;
+
+        private QueuedEvent( Event event, User user )
+        {
+            this.event  = event;
+            this.user   = user;
+        }
+    }
+}
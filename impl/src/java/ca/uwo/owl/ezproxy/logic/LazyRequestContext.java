@@ -0,0 +1,121 @@
+package ca.uwo.owl.ezproxy.logic;
+
+/**
+ * Request-scoped {@link EZProxyRequestContext} that looks each value up through {@link SakaiProxyImpl} the first
+ * time it is asked for, and remembers it for the rest of the request. Only ever used by the request's own thread.
+ */
+class LazyRequestContext implements EZProxyRequestContext
+{
+    // Instance members
+    private final SakaiProxyImpl proxy; // Performs the actual lookups
+
+    private String  siteId;
+    private String  pageId;
+    private String  userId;
+    private String  userEid;
+    private String  userType;
+    private Boolean superUser;
+    private Boolean configAuth;
+    private Boolean viewAuth;
+
+    // The lookups that have been done (the values themselves may legitimately be null)
+    private boolean siteIdLoaded, pageIdLoaded, userIdLoaded, userEidLoaded, userTypeLoaded;
+
+    LazyRequestContext( SakaiProxyImpl proxy )
+    {
+        this.proxy = proxy;
+    }
+
+    @Override
+    public String getSiteId()
+    {
+        if( !siteIdLoaded )
+        {
+            siteId = proxy.lookupCurrentSiteId();
+            siteIdLoaded = true;
+        }
+
+        return siteId;
+    }
+
+    @Override
+    public String getPageId()
+    {
+        if( !pageIdLoaded )
+        {
+            pageId = proxy.lookupCurrentPageId();
+            pageIdLoaded = true;
+        }
+
+        return pageId;
+    }
+
+    @Override
+    public String getUserId()
+    {
+        if( !userIdLoaded )
+        {
+            userId = proxy.lookupCurrentUserId();
+            userIdLoaded = true;
+        }
+
+        return userId;
+    }
+
+    @Override
+    public String getUserEid()
+    {
+        if( !userEidLoaded )
+        {
+            userEid = proxy.lookupCurrentUserEid();
+            userEidLoaded = true;
+        }
+
+        return userEid;
+    }
+
+    @Override
+    public String getUserType()
+    {
+        if( !userTypeLoaded )
+        {
+            userType = proxy.lookupCurrentUserType();
+            userTypeLoaded = true;
+        }
+
+        return userType;
+    }
+
+    @Override
+    public boolean isSuperUser()
+    {
+        if( superUser == null )
+        {
+            superUser = proxy.lookupSuperUser();
+        }
+
+        return superUser;
+    }
+
+    @Override
+    public boolean isConfigAuth()
+    {
+        if( configAuth == null )
+        {
+            configAuth = proxy.lookupConfigAuth( getUserId(), getSiteId() );
+        }
+
+        return configAuth;
+    }
+
+    @Override
+    public boolean isViewAuth()
+    {
+        if( viewAuth == null )
+        {
+            viewAuth = proxy.lookupViewAuth( this );
+        }
+
+        return viewAuth;
+    }
+}
@@ -1,7 +1,5 @@
 package ca.uwo.owl.ezproxy.logic;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import lombok.Getter;
@@ -18,10 +16,15 @@ import org.sakaiproject.site.api.Site;
 import org.sakaiproject.site.api.SitePage;
 import org.sakaiproject.site.api.SiteService;
 import org.sakaiproject.site.api.ToolConfiguration;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
 import org.sakaiproject.tool.api.SessionManager;
 import org.sakaiproject.tool.api.ToolManager;
 import org.sakaiproject.user.api.UserDirectoryService;
+import org.sakaiproject.util.RequestFilter;
 
+import ca.uwo.owl.ezproxy.logic.entity.EZProxyEntityId;
+import ca.uwo.owl.ezproxy.logic.signer.Signer;
+import ca.uwo.owl.ezproxy.model.EZProxyConfig;
 import ca.uwo.owl.ezproxy.model.EZProxyEntry;
 import ca.uwo.owl.ezproxy.utilities.EZProxyConstants;
 import org.sakaiproject.exception.IdUnusedException;
@@ -37,9 +40,14 @@ public class SakaiProxyImpl implements SakaiProxy
 {
     // Class members
     private static final Logger     LOG                             = Logger.getLogger( SakaiProxyImpl.class );	// The logger
-    private static final String     TOOL_PERM_NAME                  = "ezproxy.configure";	// The name of the permission used to determine access to EZProxy link configuration page
-    private static final String     SAKAI_PROP_ALLOWED_VIEW_ROLES   = "ezproxy.allow.view";	// The name of the sakai property holding the allowed view roles
-    private static List<String>     allowedRoles                    = new ArrayList<>();
+    private static final String     REQUEST_CONTEXT_KEY             = SakaiProxyImpl.class.getName() + ".context"; // The thread local key of the request context
+
+    // Instance members
+    private EZProxySettingsHolder   settingsHolder;                                         // Holds the current snapshot of the EZProxy and skin properties
+    private ViewAuthorizer          viewAuthorizer;                                         // Decides (and caches) who may view EZProxy links
+    @Getter private final SitePageIndex pageIndex                   = new SitePageIndex();  // Resolves page IDs of fetched sites without scanning their pages
+    @Getter private EventQueue          eventQueue;                                         // Posts events in the background
+    @Getter private final SkinCSSCache  skinCSSCache                = new SkinCSSCache();   // Caches the tool stylesheet URL of each placement
 
     /**
     * {@inheritDoc}
@@ -51,17 +59,7 @@ public class SakaiProxyImpl implements SakaiProxy
         {
             // Get the page from the site
             Site site = siteService.getSite( siteID );
-            SitePage page = null;
-            if( site != null )
-            {
-                for( SitePage p : site.getPages() )
-                {
-                    if( p.getId().equalsIgnoreCase( pageID ) )
-                    {
-                        page = p;
-                    }
-                }
-            }
+            SitePage page = pageIndex.getPage( site, pageID );
 
             // Get the tool
             if( page != null )
@@ -72,6 +70,7 @@ public class SakaiProxyImpl implements SakaiProxy
                     if( oldToolTitle.equalsIgnoreCase( t.getTitle() ) )
                     {
                         tool = t;
+                        break;
                     }
                 }
 
@@ -110,17 +109,7 @@ public class SakaiProxyImpl implements SakaiProxy
         {
             // Get the page from the site
             Site site = siteService.getSite( siteID );
-            SitePage page = null;
-            if( site != null )
-            {
-                for( SitePage p : site.getPages() )
-                {
-                    if( p.getId().equalsIgnoreCase( pageID ) )
-                    {
-                        page = p;
-                    }
-                }
-            }
+            SitePage page = pageIndex.getPage( site, pageID );
 
             // Set the page title
             if( page != null )
@@ -148,17 +137,7 @@ public class SakaiProxyImpl implements SakaiProxy
         {
             // Get the page from the site
             Site site = siteService.getSite( siteID );
-            SitePage page = null;
-            if( site != null )
-            {
-                for( SitePage p : site.getPages() )
-                {
-                    if( p.getId().equalsIgnoreCase( pageID ) )
-                    {
-                        page = p;
-                    }
-                }
-            }
+            SitePage page = pageIndex.getPage( site, pageID );
 
             // Get the page title
             if( page != null )
@@ -189,17 +168,7 @@ public class SakaiProxyImpl implements SakaiProxy
         {
             // Get the page from the site
             Site site = siteService.getSite( entry.getSiteID() );
-            SitePage page = null;
-            if( site != null )
-            {
-                for( SitePage p : site.getPages() )
-                {
-                    if( p.getId().equalsIgnoreCase( entry.getPageID() ) )
-                    {
-                        page = p;
-                    }
-                }
-            }
+            SitePage page = pageIndex.getPage( site, entry.getPageID() );
 
             // Add/update the EZProxy 'property' (entry)
             if( page != null )
@@ -213,9 +182,16 @@ public class SakaiProxyImpl implements SakaiProxy
                     }
                 }
 
-                // Save/update
+                // Save/update; a new source URL is normalised and its valid flag recomputed, as when saving the whole configuration
                 ResourcePropertiesEdit props = page.getPropertiesEdit();
-                props.addProperty( entry.getName(), entry.getValue() );
+                if( EZProxyConstants.EZPROXY_PROP_SOURCE_URL.equalsIgnoreCase( entry.getName() ) )
+                {
+                    setSourceURL( props, entry.getValue() );
+                }
+                else
+                {
+                    props.addProperty( entry.getName(), entry.getValue() );
+                }
                 siteService.save( site );
             }
         }
@@ -231,134 +207,171 @@ public class SakaiProxyImpl implements SakaiProxy
     * {@inheritDoc}
     */
     @Override
-    public List<EZProxyEntry> getEZProxyEntry( String siteID, String pageID )
+    public boolean saveEZProxyConfiguration( String siteID, String pageID, String oldToolTitle, String newToolTitle,
+                                             String newPageTitle, EZProxyConfig config )
     {
         try
         {
             // Get the page from the site
             Site site = siteService.getSite( siteID );
-            SitePage page = null;
-            if( site != null )
+            SitePage page = pageIndex.getPage( site, pageID );
+            if( page == null )
             {
-                for( SitePage p : site.getPages() )
-                {
-                    if( p.getId().equalsIgnoreCase( pageID ) )
-                    {
-                        page = p;
-                    }
-                }
+                LOG.error( "SakaiProxyImpl.saveEZProxyConfiguration( siteID=" + siteID + ", pageID=" + pageID + " ): page not found" );
+                return false;
             }
 
-            // Get the values
-            boolean configured = true;
-            String frameHeight = "";
-            String customHeight = "";
-            String sourceURL = "";
-            String newWindow = "";
-            if( page != null )
+            // Update the tool title
+            for( ToolConfiguration t : page.getTools() )
             {
-                ResourceProperties props 	= page.getProperties();
-                if( props != null )
+                if( oldToolTitle != null && oldToolTitle.equalsIgnoreCase( t.getTitle() ) )
                 {
-                    frameHeight     = props.getProperty( EZProxyConstants.EZPROXY_PROP_FRAME_HEIGHT );
-                    customHeight    = props.getProperty( EZProxyConstants.EZPROXY_PROP_CUSTOM_HEIGHT );
-                    sourceURL       = props.getProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL );
-                    newWindow       = props.getProperty( EZProxyConstants.EZPROXY_PROP_NEW_WINDOW );
-
-                    // Null checks
-                    if( frameHeight == null )
-                    {
-                        frameHeight = "";
-                    }
-                    if( customHeight == null )
-                    {
-                        customHeight = "";
-                    }
-                    if( sourceURL == null )
-                    {
-                        sourceURL = "";
-                    }
-                    if( newWindow == null )
-                    {
-                        newWindow = "";
-                    }
+                    t.setTitle( newToolTitle );
+                    break;
                 }
             }
 
-            // Make sure all values are present
-            if( frameHeight.isEmpty() || customHeight.isEmpty() || sourceURL.isEmpty() || newWindow.isEmpty() )
+            // Update the page title
+            page.setTitleCustom( true );
+            page.setTitle( newPageTitle );
+
+            // Add/update the EZProxy 'properties'; put in some dummy data for an empty customHeight field (won't save an empty string)
+            ResourcePropertiesEdit props = page.getPropertiesEdit();
+            props.addProperty( EZProxyConstants.EZPROXY_PROP_FRAME_HEIGHT, config.getFrameHeight() );
+            props.addProperty( EZProxyConstants.EZPROXY_PROP_CUSTOM_HEIGHT, config.getCustomHeight().isEmpty()
+                    ? EZProxyConstants.EZPROXY_PROP_VALUE_NOT_APPLICABLE
+                    : config.getCustomHeight() );
+            setSourceURL( props, config.getSourceURL() );
+            props.addProperty( EZProxyConstants.EZPROXY_PROP_NEW_WINDOW, Boolean.toString( config.isNewWindow() ) );
+
+            // Save everything at once
+            siteService.save( site );
+            postEvent( EZProxyConstants.EVENT_CONFIG_UPDATE, EZProxyConstants.EVENT_REFERENCE_PREFIX + EZProxyEntityId.toString( siteID, pageID ), true );
+            return true;
+        }
+        catch( IdUnusedException | PermissionException ex )
+        {
+            // Error log
+            LOG.error( "Error: " + ex.getClass() + ":" + ex.getMessage() );
+            LOG.error( "SakaiProxyImpl.saveEZProxyConfiguration( siteID=" + siteID + ", pageID=" + pageID + ", newToolTitle=" + newToolTitle
+                    + ", newPageTitle=" + newPageTitle + ", config=" + config + " )" );
+            return false;
+        }
+    }
+
+    /**
+     * Set the (normalised) source URL of a link, along with whether it is valid
+     * @param props the properties of the link's page
+     * @param sourceURL the source URL
+     */
+    private static void setSourceURL( ResourcePropertiesEdit props, String sourceURL )
+    {
+        String normalized = SourceURLValidator.normalize( sourceURL );
+        props.addProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL, normalized );
+        props.addProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL_VALID, Boolean.toString( SourceURLValidator.isValid( normalized ) ) );
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    @Override
+    public boolean isValidSourceURL( String sourceURL )
+    {
+        return SourceURLValidator.isValid( SourceURLValidator.normalize( sourceURL ) );
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    @Override
+    public int backfillSourceURLValidity()
+    {
+        if( !isSuperUser() )
+        {
+            throw new SecurityException( "Only super users may backfill the source URL validity flags" );
+        }
+
+        return new SourceURLBackfill( siteService ).run();
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    @Override
+    public EZProxyConfig getEZProxyConfig( String siteID, String pageID )
+    {
+        try
+        {
+            // Get the page from the site
+            Site site = siteService.getSite( siteID );
+            SitePage page = pageIndex.getPage( site, pageID );
+            ResourceProperties props = ( page != null ) ? page.getProperties() : null;
+            if( props == null )
             {
-                configured = false;
+                return EZProxyConfig.NOT_CONFIGURED;
             }
 
-            // If all values present, return the List<EZProxyEntry>
-            List<EZProxyEntry> entries = null;
-            if( configured )
+            // Get the values; all of them have to be present for the link to be configured
+            String frameHeight  = props.getProperty( EZProxyConstants.EZPROXY_PROP_FRAME_HEIGHT );
+            String customHeight = props.getProperty( EZProxyConstants.EZPROXY_PROP_CUSTOM_HEIGHT );
+            String sourceURL    = props.getProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL );
+            String newWindow    = props.getProperty( EZProxyConstants.EZPROXY_PROP_NEW_WINDOW );
+            if( isEmpty( frameHeight ) || isEmpty( customHeight ) || isEmpty( sourceURL ) || isEmpty( newWindow ) )
             {
-                // Frame height
-                entries = new ArrayList<>();
-                EZProxyEntry e = new EZProxyEntry();
-                e.setSiteID( siteID );
-                e.setPageID( pageID );
-                e.setName( EZProxyConstants.EZPROXY_PROP_FRAME_HEIGHT );
-                e.setValue( frameHeight );
-                entries.add( e );
-
-                // Custom height
-                e = new EZProxyEntry();
-                e.setSiteID( siteID );
-                e.setPageID( pageID );
-                e.setName( EZProxyConstants.EZPROXY_PROP_CUSTOM_HEIGHT );
-                e.setValue( customHeight );
-                entries.add( e );
-
-                // Source URL
-                e = new EZProxyEntry();
-                e.setSiteID( siteID );
-                e.setPageID( pageID );
-                e.setName( EZProxyConstants.EZPROXY_PROP_SOURCE_URL );
-                e.setValue( sourceURL );
-                entries.add( e );
-
-                // New window
-                e = new EZProxyEntry();
-                e.setSiteID( siteID );
-                e.setPageID( pageID );
-                e.setName( EZProxyConstants.EZPROXY_PROP_NEW_WINDOW );
-                e.setValue( newWindow );
-                entries.add( e );
+                return EZProxyConfig.NOT_CONFIGURED;
             }
 
-            // Return the entries
-            return entries;
+            return new EZProxyConfig( sourceURL, frameHeight, customHeight, "true".equalsIgnoreCase( newWindow ) );
         }
         catch( Exception ex )
         {
             // Error log
             LOG.error( "Error: " + ex.getClass() + ":" + ex.getMessage() );
-            LOG.error( "SakaiProxyImpl.getEZProxyEntry( siteID=" + siteID + ", pageID=" + pageID + " )" );
-            return null;
+            LOG.error( "SakaiProxyImpl.getEZProxyConfig( siteID=" + siteID + ", pageID=" + pageID + " )" );
+            return EZProxyConfig.NOT_CONFIGURED;
         }
     }
 
+    /**
+     * Null safe empty string check
+     * @param value the string to check
+     * @return true if the string is null or empty
+     */
+    private static boolean isEmpty( String value )
+    {
+        return value == null || value.isEmpty();
+    }
+
     /**
     * {@inheritDoc}
     */
     @Override
-    public boolean isCurrentUserViewAuth()
+    public EZProxyRequestContext getCurrentContext()
     {
-        boolean retVal = false ;
-        String type = getCurrentUserType().toLowerCase();
+        // Threads without a request (background jobs, the event queue) never have their thread locals cleared,
+        // so they get a fresh context each time rather than one that would outlive its user and placement
+        if( threadLocalManager.get( RequestFilter.CURRENT_HTTP_REQUEST ) == null )
+        {
+            return new LazyRequestContext( this );
+        }
 
-        if( type != null )
+        EZProxyRequestContext context = (EZProxyRequestContext) threadLocalManager.get( REQUEST_CONTEXT_KEY );
+        if( context == null )
         {
-            if( allowedRoles.contains( type ) || securityService.isSuperUser() )
-            {
-                retVal = true;
-            }
+            context = new LazyRequestContext( this );
+            threadLocalManager.set( REQUEST_CONTEXT_KEY, context );
         }
 
-        return retVal;
+        return context;
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    @Override
+    public boolean isCurrentUserViewAuth()
+    {
+        return getCurrentContext().isViewAuth();
     }
 
     /**
@@ -367,7 +380,7 @@ public class SakaiProxyImpl implements SakaiProxy
     @Override
     public boolean isCurrentUserConfigAuth()
     {
-        return securityService.unlock( getCurrentUserId(), TOOL_PERM_NAME, siteService.siteReference( getCurrentSiteId() ) );
+        return getCurrentContext().isConfigAuth();
     }
 
     /**
@@ -376,7 +389,7 @@ public class SakaiProxyImpl implements SakaiProxy
     @Override
     public String getCurrentSiteId()
     {
-        return toolManager.getCurrentPlacement().getContext();
+        return getCurrentContext().getSiteId();
     }
 
     /**
@@ -385,7 +398,7 @@ public class SakaiProxyImpl implements SakaiProxy
     @Override
     public String getCurrentPageId()
     {
-        return siteService.findTool( sessionManager.getCurrentToolSession().getPlacementId() ).getPageId();
+        return getCurrentContext().getPageId();
     }
 
     /**
@@ -394,7 +407,7 @@ public class SakaiProxyImpl implements SakaiProxy
     @Override
     public String getCurrentUserType()
     {
-        return userDirectoryService.getCurrentUser().getType();
+        return getCurrentContext().getUserType();
     }
 
     /**
@@ -403,7 +416,7 @@ public class SakaiProxyImpl implements SakaiProxy
     @Override
     public String getCurrentUserEid()
     {
-        return sessionManager.getCurrentSession().getUserEid();
+        return getCurrentContext().getUserEid();
     }
 
     /**
@@ -412,7 +425,25 @@ public class SakaiProxyImpl implements SakaiProxy
     @Override
     public String getCurrentUserId()
     {
-        return sessionManager.getCurrentSessionUserId();
+        return getCurrentContext().getUserId();
+    }
+
+    // Uncached lookups of the request context values, used by LazyRequestContext
+    String  lookupCurrentSiteId()   { return toolManager.getCurrentPlacement().getContext(); }
+    String  lookupCurrentPageId()   { return siteService.findTool( sessionManager.getCurrentToolSession().getPlacementId() ).getPageId(); }
+    String  lookupCurrentUserType() { return userDirectoryService.getCurrentUser().getType(); }
+    String  lookupCurrentUserEid()  { return sessionManager.getCurrentSession().getUserEid(); }
+    String  lookupCurrentUserId()   { return sessionManager.getCurrentSessionUserId(); }
+    boolean lookupSuperUser()       { return securityService.isSuperUser(); }
+
+    boolean lookupConfigAuth( String userId, String siteId )
+    {
+        return securityService.unlock( userId, EZProxyConstants.TOOL_PERM_NAME, siteService.siteReference( siteId ) );
+    }
+
+    boolean lookupViewAuth( EZProxyRequestContext context )
+    {
+        return viewAuthorizer.isViewAuth( context );
     }
 
     /**
@@ -430,7 +461,69 @@ public class SakaiProxyImpl implements SakaiProxy
     @Override
     public boolean isSuperUser()
     {
-        return securityService.isSuperUser();
+        return getCurrentContext().isSuperUser();
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    @Override
+    public Signer getSigner()
+    {
+        return settingsHolder.getSettings().getSigner();
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    @Override
+    public String getServiceURL()
+    {
+        return settingsHolder.getSettings().getServiceURL();
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    @Override
+    public String generateMAC( String userEid, String siteID )
+    {
+        Signer signer = getSigner();
+        return signer != null ? signer.sign( userEid, siteID ) : "";
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    @Override
+    public String generateLaunchURL( String userEid, String siteID, String destinationURL )
+    {
+        EZProxySettings settings = settingsHolder.getSettings();
+        Signer signer = settings.getSigner();
+        LaunchURLBuilder builder = settings.getLaunchURLBuilder();
+        return ( signer != null && builder != null ) ? builder.build( signer, userEid, siteID, destinationURL ) : null;
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    @Override
+    public BatchLaunchURLGenerator getBatchLaunchURLGenerator()
+    {
+        EZProxySettings settings = settingsHolder.getSettings();
+        Signer signer = settings.getSigner();
+        LaunchURLBuilder builder = settings.getLaunchURLBuilder();
+        return ( signer != null && builder != null ) ? new BatchLaunchURLGenerator( signer, builder ) : null;
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    @Override
+    public void reloadConfiguration()
+    {
+        LOG.info( "Reloaded EZProxy settings: " + settingsHolder.reload() );
+        LOG.info( "Page index: " + pageIndex + ", skin CSS cache: " + skinCSSCache + ", event queue: " + eventQueue );
     }
 
     /**
@@ -439,7 +532,8 @@ public class SakaiProxyImpl implements SakaiProxy
     @Override
     public void postEvent( String event, String reference, boolean modify )
     {
-        eventTrackingService.post( eventTrackingService.newEvent( event, reference, modify ) );
+        // Create the event here, while the caller's session is current; it is posted in the background
+        eventQueue.enqueue( eventTrackingService.newEvent( event, reference, modify ), userDirectoryService.getCurrentUser() );
     }
 
     /**
@@ -448,7 +542,7 @@ public class SakaiProxyImpl implements SakaiProxy
     @Override
     public String getSkinRepoProperty()
     {
-        return serverConfigurationService.getString( "skin.repo" );
+        return settingsHolder.getSettings().getSkinRepo();
     }
 
     /**
@@ -457,22 +551,21 @@ public class SakaiProxyImpl implements SakaiProxy
     @Override
     public String getToolSkinCSS( String skinRepo )
     {
-        String skin = siteService.findTool( sessionManager.getCurrentToolSession().getPlacementId() ).getSkin();			
-
-        if( skin == null )
+        String placementID = sessionManager.getCurrentToolSession().getPlacementId();
+        EZProxySettings settings = settingsHolder.getSettings();
+        String url = skinCSSCache.get( placementID, skinRepo, settings.getSkinKey() );
+        if( url == null )
         {
-            skin = serverConfigurationService.getString( "skin.default" );
-        }
+            ToolConfiguration tool = siteService.findTool( placementID );
 
-        // bjones86 - SAK-21890 - prepend 'neo'
-        String templates = serverConfigurationService.getString( "portal.templates", "neoskin" );
-        String prefix = serverConfigurationService.getString( "portal.neoprefix", "neo-" );
-        if( "neoskin".equals( templates ) && !skin.startsWith( prefix ) )
-        {
-            skin = prefix + skin;
+            // bjones86 - SAK-21890 - prepend 'neo' (see EZProxySettings.resolveSkin)
+            String skin = settings.resolveSkin( tool.getSkin() );
+
+            url = skinRepo + "/" + skin + "/tool.css";
+            skinCSSCache.put( placementID, tool.getSiteId(), skinRepo, settings.getSkinKey(), url );
         }
 
-        return skinRepo + "/" + skin + "/tool.css";
+        return url;
     }
 
     /**
@@ -502,17 +595,46 @@ public class SakaiProxyImpl implements SakaiProxy
 
         // Register the EZProxy configuration permission (if it hasn't been already)
         List<String> registeredPermissions = functionManager.getRegisteredFunctions( "ezproxy" );
-        if( !registeredPermissions.contains( TOOL_PERM_NAME ) )
+        if( !registeredPermissions.contains( EZProxyConstants.TOOL_PERM_NAME ) )
         {
-            functionManager.registerFunction( TOOL_PERM_NAME );
+            functionManager.registerFunction( EZProxyConstants.TOOL_PERM_NAME );
         }
 
-        // Get the list of allowed system roles to view an ezproxy link
-        try { allowedRoles = Arrays.asList( serverConfigurationService.getStrings( SAKAI_PROP_ALLOWED_VIEW_ROLES ) ); }
-        catch( Exception ex ) 
-        { 
-            LOG.error( "sakai.property not found: ezproxy.allow.view - " + ex.getMessage() );
-            allowedRoles = new ArrayList<>(); 
+        // Load the EZProxy settings (service URL, signers, allowed view roles, skin) and keep them up to date
+        settingsHolder = new EZProxySettingsHolder( serverConfigurationService );
+        settingsHolder.init();
+        viewAuthorizer = new ViewAuthorizer( settingsHolder );
+
+        // Start posting events in the background
+        eventQueue = new EventQueue( eventTrackingService,
+                serverConfigurationService.getInt( EventQueue.SAK_PROP_QUEUE_SIZE, EventQueue.DEFAULT_QUEUE_SIZE ),
+                serverConfigurationService.getInt( EventQueue.SAK_PROP_BATCH_SIZE, EventQueue.DEFAULT_BATCH_SIZE ),
+                EventQueue.OverflowPolicy.parse( serverConfigurationService.getString( EventQueue.SAK_PROP_OVERFLOW, "drop-newest" ) ) );
+        eventQueue.start();
+
+        // Keep the page index and skin cache in step with site updates
+        eventTrackingService.addObserver( pageIndex );
+        eventTrackingService.addObserver( skinCSSCache );
+    }
+
+    /**
+     * destroy - perform any actions required here for when this bean shuts down
+     */
+    public void destroy()
+    {
+        LOG.info( "destroy" );
+
+        eventTrackingService.deleteObserver( pageIndex );
+        eventTrackingService.deleteObserver( skinCSSCache );
+        LOG.info( "Page index: " + pageIndex + ", skin CSS cache: " + skinCSSCache );
+        if( settingsHolder != null )
+        {
+            settingsHolder.destroy();
+        }
+        if( eventQueue != null )
+        {
+            eventQueue.stop();
+            LOG.info( "Event queue: " + eventQueue );
         }
     }
 
@@ -539,4 +661,7 @@ public class SakaiProxyImpl implements SakaiProxy
 
     @Getter @Setter
     private FunctionManager functionManager;
+
+    @Getter @Setter
+    private ThreadLocalManager threadLocalManager;
 }
@@ -0,0 +1,196 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SitePage;
+import org.sakaiproject.site.api.SiteService;
+
+/**
+ * Site-scoped index from page ID to the page's position in {@link Site#getPages()}, so resolving a page of an
+ * already fetched site is a constant-time lookup instead of a scan over all of its pages.
+ *
+ * Every hit is verified against the site's page list, so a stale entry can never return the wrong page; it just
+ * causes the site to be indexed again. A page missing from the index is never taken as missing from the site: the
+ * site is indexed again first, since pages can be added and removed in one save without changing the page count.
+ * Entries are also dropped when an event changing a site (see {@link #getSiteIdOfSiteChange(Object)}) is observed;
+ * events that don't change the site, like the site.visit posted on every visit, leave the index alone.
+ */
+public class SitePageIndex implements Observer
+{
+    // Class members
+    public  static final int       DEFAULT_MAX_SITES   = 2048;                                 // The default maximum number of indexed sites
+    private static final String    SITE_REF_PREFIX     = SiteService.REFERENCE_ROOT + "/";     // The prefix of site references (/site/)
+    private static final String    EVENT_SITE_PREFIX   = "site.";                              // The prefix of site events
+
+    // Instance members
+    private final int                                   maxSites;                                   // The maximum number of indexed sites
+    private final ConcurrentMap<String, PageIndex>      sites       = new ConcurrentHashMap<>();    // The page index of each site
+    private final AtomicLong                            hits        = new AtomicLong();             // The number of lookups answered by the index
+    private final AtomicLong                            misses      = new AtomicLong();             // The number of lookups that had to index the site
+
+    // Constructors
+    public SitePageIndex() { this( DEFAULT_MAX_SITES ); }
+    public SitePageIndex( int maxSites )
+    {
+        this.maxSites = Math.max( 1, maxSites );
+    }
+
+    /**
+     * Get the page with the given ID (case insensitive) from the site
+     * @param site the site containing the page
+     * @param pageID the ID of the page
+     * @return the page, or null if the site has no such page
+     */
+    public SitePage getPage( Site site, String pageID )
+    {
+        if( site == null || pageID == null )
+        {
+            return null;
+        }
+
+        String key = pageID.toLowerCase( Locale.ROOT );
+        List<SitePage> pages = site.getPages();
+        PageIndex index = sites.get( site.getId() );
+        if( index != null && index.size == pages.size() )
+        {
+            Integer position = index.positions.get( key );
+            SitePage page = ( position != null ) ? pages.get( position ) : null;
+            if( page != null && page.getId().equalsIgnoreCase( pageID ) )
+            {
+                hits.incrementAndGet();
+                return page;
+            }
+        }
+
+        // Not indexed yet, not in the index (possibly a page added since), or the page list has changed underneath
+        // us; index the site again
+        misses.incrementAndGet();
+        index = new PageIndex( pages );
+        if( sites.size() >= maxSites )
+        {
+            sites.clear();
+        }
+        sites.put( site.getId(), index );
+
+        Integer position = index.positions.get( key );
+        return position == null ? null : pages.get( position );
+    }
+
+    /**
+     * Drop the index of the given site
+     * @param siteID the ID of the site
+     */
+    public void invalidate( String siteID )
+    {
+        if( siteID != null )
+        {
+            sites.remove( siteID );
+        }
+    }
+
+    /**
+     * Drop the index of every site
+     */
+    public void invalidateAll()
+    {
+        sites.clear();
+    }
+
+    /**
+     * Drops the index of a site whenever an event changing it (update, removal, ...) is posted for it.
+     * Register with EventTrackingService.addObserver().
+     */
+    @Override
+    public void update( Observable observable, Object arg )
+    {
+        invalidate( getSiteIdOfSiteChange( arg ) );
+    }
+
+    /**
+     * Get the ID of the site an event changing a site (site.add*, site.upd* or site.del*, posted as a modify event)
+     * was posted for; shared by the observers that keep per site state
+     * @param arg the object passed to Observer.update() by EventTrackingService
+     * @return the site ID, or null if the object is not an event changing a site (e.g. a site.visit)
+     */
+    public static String getSiteIdOfSiteChange( Object arg )
+    {
+        if( !( arg instanceof Event ) || !( (Event) arg ).getModify() )
+        {
+            return null;
+        }
+
+        Event event = (Event) arg;
+        String name = event.getEvent();
+        if( name == null || !( name.startsWith( SiteService.SECURE_ADD_SITE ) || name.startsWith( SiteService.SECURE_UPDATE_SITE )
+                || name.startsWith( SiteService.SECURE_REMOVE_SITE ) ) )
+        {
+            return null;
+        }
+
+        return getSiteIdOfSiteEvent( event );
+    }
+
+    /**
+     * Get the ID of the site a site event (update, removal, ...) was posted for
+     * @param event the event
+     * @return the site ID, or null if it is not a site event
+     */
+    private static String getSiteIdOfSiteEvent( Event event )
+    {
+        String resource = event.getResource();
+        if( event.getEvent() != null && event.getEvent().startsWith( EVENT_SITE_PREFIX ) && resource != null && resource.startsWith( SITE_REF_PREFIX ) )
+        {
+            int end = resource.indexOf( '/', SITE_REF_PREFIX.length() );
+            return end < 0 ? resource.substring( SITE_REF_PREFIX.length() ) : resource.substring( SITE_REF_PREFIX.length(), end );
+        }
+
+        return null;
+    }
+
+    // Getters
+    public long getHits()   { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public int  getSize()   { return sites.size(); }
+
+    /**
+     * Returns a string representation of the index statistics.
+     * @return the string representation of the index
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append( "{ sites=" ).append( getSize() ).append( ", maxSites=" ).append( maxSites ).append( ", hits=" )
+            .append( getHits() ).append( ", misses=" ).append( getMisses() ).append( " }" );
+        return b.toString();
+    }
+
+    /**
+     * The positions of the pages of one site, keyed by lower case page ID
+     */
+    private static final class PageIndex
+    {
+        private final int                   size;
+        private final Map<String, Integer>  positions;
+
+        private PageIndex( List<SitePage> pages )
+        {
+            this.size       = pages.size();
+            this.positions  = new HashMap<>( (int) ( size / 0.75f ) + 1 );
+            for( int i = 0; i < size; ++i )
+            {
+                positions.putIfAbsent( pages.get( i ).getId().toLowerCase( Locale.ROOT ), i );
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the resolved tool stylesheet URL (skinRepo/skin/tool.css) per (placement, skin repo), so rendering a tool
+ * page does not have to look the placement up and resolve its site's skin every time.
+ *
+ * An entry is only used while the skin properties of the current {@link EZProxySettings} (skin.repo, skin.default,
+ * portal.templates, portal.neoprefix) are the same as when it was built; entries only keep the skin key of those
+ * properties, never the settings snapshot itself (with its signers). Entries of a site are dropped when an event
+ * changing it (e.g. a skin change) is observed, without scanning the entries of the other sites; events that don't
+ * change the site, like the site.visit posted on every visit, leave them alone.
+ */
+public class SkinCSSCache implements Observer
+{
+    // Class members
+    public  static final int    DEFAULT_MAX_ENTRIES = 4096;     // The default maximum number of cached URLs
+
+    // Instance members
+    private final int                                   maxEntries;                                 // The maximum number of cached URLs
+    private final ConcurrentMap<String, Entry>          entries     = new ConcurrentHashMap<>();    // The cached URL for each placement and skin repo
+    private final ConcurrentMap<String, Set<String>>    siteKeys    = new ConcurrentHashMap<>();    // The keys of the cached URLs of each site
+    private final AtomicLong                            hits        = new AtomicLong();             // The number of lookups answered by the cache
+    private final AtomicLong                            misses      = new AtomicLong();             // The number of lookups that had to resolve the URL
+
+    // Constructors
+    public SkinCSSCache() { this( DEFAULT_MAX_ENTRIES ); }
+    public SkinCSSCache( int maxEntries )
+    {
+        this.maxEntries = Math.max( 1, maxEntries );
+    }
+
+    /**
+     * Get the cached stylesheet URL for a placement
+     * @param placementID the ID of the tool placement
+     * @param skinRepo the skin repo the URL was built for
+     * @param skinKey the skin key of the current settings ({@link EZProxySettings#getSkinKey()})
+     * @return the URL, or null if it is not cached (or no longer valid)
+     */
+    public String get( String placementID, String skinRepo, String skinKey )
+    {
+        Entry entry = ( placementID == null ) ? null : entries.get( key( placementID, skinRepo ) );
+        if( entry != null && entry.skinKey.equals( skinKey ) )
+        {
+            hits.incrementAndGet();
+            return entry.url;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Cache the stylesheet URL for a placement
+     * @param placementID the ID of the tool placement
+     * @param siteID the ID of the site containing the placement
+     * @param skinRepo the skin repo the URL was built for
+     * @param skinKey the skin key of the settings the URL was resolved with
+     * @param url the stylesheet URL
+     */
+    public void put( String placementID, String siteID, String skinRepo, String skinKey, String url )
+    {
+        if( placementID == null )
+        {
+            return;
+        }
+
+        if( entries.size() >= maxEntries )
+        {
+            invalidateAll();
+        }
+
+        String key = key( placementID, skinRepo );
+        entries.put( key, new Entry( skinKey, url ) );
+        if( siteID != null )
+        {
+            siteKeys.computeIfAbsent( siteID, k -> ConcurrentHashMap.newKeySet() ).add( key );
+        }
+    }
+
+    /**
+     * Drop the cached URLs of every placement in the given site
+     * @param siteID the ID of the site
+     */
+    public void invalidateSite( String siteID )
+    {
+        Set<String> keys = ( siteID != null ) ? siteKeys.remove( siteID ) : null;
+        if( keys != null )
+        {
+            for( String key : keys )
+            {
+                entries.remove( key );
+            }
+        }
+    }
+
+    /**
+     * Drop every cached URL
+     */
+    public void invalidateAll()
+    {
+        entries.clear();
+        siteKeys.clear();
+    }
+
+    /**
+     * Drops the cached URLs of a site whenever an event changing it (update, removal, ...) is posted for it.
+     * Register with EventTrackingService.addObserver().
+     */
+    @Override
+    public void update( Observable observable, Object arg )
+    {
+        invalidateSite( SitePageIndex.getSiteIdOfSiteChange( arg ) );
+    }
+
+    // Getters
+    public long getHits()   { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public int  getSize()   { return entries.size(); }
+
+    /**
+     * Get the proportion of lookups answered by the cache
+     * @return the hit rate (0 - 1), or 0 if there have been no lookups
+     */
+    public double getHitRate()
+    {
+        long h = hits.get();
+        long total = h + misses.get();
+        return ( total == 0 ) ? 0 : (double) h / total;
+    }
+
+    /**
+     * Returns a string representation of the cache statistics.
+     * @return the string representation of the cache
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append( "{ entries=" ).append( getSize() ).append( ", maxEntries=" ).append( maxEntries ).append( ", hits=" ).append( getHits() )
+            .append( ", misses=" ).append( getMisses() ).append( ", hitRate=" ).append( String.format( "%.3f", getHitRate() ) ).append( " }" );
+        return b.toString();
+    }
+
+    /**
+     * Build the cache key of a placement and skin repo
+     */
+    private static String key( String placementID, String skinRepo )
+    {
+        return placementID + '\n' + skinRepo;
+    }
+
+    /**
+     * A cached URL and the skin key of the settings it was resolved with
+     */
+    private static final class Entry
+    {
+        private final String    skinKey;
+        private final String    url;
+
+        private Entry( String skinKey, String url )
+        {
+            this.skinKey    = skinKey;
+            this.url        = url;
+        }
+    }
+}
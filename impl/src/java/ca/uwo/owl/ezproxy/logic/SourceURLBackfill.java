@@ -0,0 +1,144 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.sakaiproject.entity.api.ResourceProperties;
+import org.sakaiproject.entity.api.ResourcePropertiesEdit;
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.exception.PermissionException;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SitePage;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.site.api.ToolConfiguration;
+
+import ca.uwo.owl.ezproxy.logic.entity.EZProxyToolIterator;
+import ca.uwo.owl.ezproxy.utilities.EZProxyConstants;
+
+/**
+ * One-time job that stores the source URL validity flag (ezproxy.sourceURL.valid) for the EZProxy links saved before
+ * the flag existed, normalising their URLs on the way.
+ *
+ * Every site is walked one site at a time; a site is only re-fetched and saved (once, for all of its links)
+ * if it has links without the flag, so running the job again only touches the links saved by older versions.
+ */
+public class SourceURLBackfill
+{
+    // Class members
+    private static final Logger LOG = Logger.getLogger( SourceURLBackfill.class );  // The logger
+
+    // Instance members
+    private final SiteService   siteService;    // Fetches and saves the sites
+    private int                 sitesSaved;     // The number of sites saved
+    private int                 pagesFlagged;   // The number of links given a validity flag
+    private int                 pagesInvalid;   // The number of those links with an invalid source URL
+    private int                 failures;       // The number of sites that could not be saved
+
+    public SourceURLBackfill( SiteService siteService )
+    {
+        this.siteService = siteService;
+    }
+
+    /**
+     * Walk every site and flag the links without a validity flag
+     * @return the number of links flagged
+     */
+    public int run()
+    {
+        long start = System.currentTimeMillis();
+        EZProxyToolIterator tools = new EZProxyToolIterator( siteService );
+        String siteID = null;
+        List<String> pageIDs = new ArrayList<>();
+        while( tools.hasNext() )
+        {
+            ToolConfiguration config = tools.next();
+            String currentSiteID = tools.getCurrentSite().getId();
+            if( !currentSiteID.equals( siteID ) )
+            {
+                flagPages( siteID, pageIDs );
+                siteID = currentSiteID;
+                pageIDs.clear();
+            }
+
+            SitePage page = config.getContainingPage();
+            ResourceProperties props = ( page != null ) ? page.getProperties() : null;
+            if( props != null && props.getProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL ) != null
+                    && props.getProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL_VALID ) == null )
+            {
+                pageIDs.add( page.getId() );
+            }
+        }
+        flagPages( siteID, pageIDs );
+
+        LOG.info( "Source URL validity backfill finished in " + ( System.currentTimeMillis() - start ) + "ms: " + this );
+        return pagesFlagged;
+    }
+
+    /**
+     * Flag the given pages of a site, with a single save of the site
+     * @param siteID the ID of the site (null for none)
+     * @param pageIDs the IDs of the pages without a flag
+     */
+    private void flagPages( String siteID, List<String> pageIDs )
+    {
+        if( siteID == null || pageIDs.isEmpty() )
+        {
+            return;
+        }
+
+        try
+        {
+            // Fetch the site again before changing it, as the walked one may have changed since
+            Site site = siteService.getSite( siteID );
+            int flagged = 0;
+            int invalid = 0;
+            for( String pageID : pageIDs )
+            {
+                SitePage page = site.getPage( pageID );
+                if( page == null )
+                {
+                    continue;
+                }
+
+                ResourcePropertiesEdit props = page.getPropertiesEdit();
+                String sourceURL = SourceURLValidator.normalize( props.getProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL ) );
+                boolean valid = SourceURLValidator.isValid( sourceURL );
+                props.addProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL, sourceURL );
+                props.addProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL_VALID, Boolean.toString( valid ) );
+                ++flagged;
+                if( !valid )
+                {
+                    ++invalid;
+                }
+            }
+
+            if( flagged > 0 )
+            {
+                siteService.save( site );
+                ++sitesSaved;
+                pagesFlagged += flagged;
+                pagesInvalid += invalid;
+            }
+        }
+        catch( IdUnusedException | PermissionException ex )
+        {
+            ++failures;
+            LOG.error( "Error: " + ex.getClass() + ":" + ex.getMessage() );
+            LOG.error( "SourceURLBackfill.flagPages( siteID=" + siteID + ", pageIDs=" + pageIDs + " )" );
+        }
+    }
+
+    /**
+     * Returns a string representation of the job's progress.
+     * @return the string representation of the job
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append( "{ sitesSaved=" ).append( sitesSaved ).append( ", pagesFlagged=" ).append( pagesFlagged ).append( ", pagesInvalid=" )
+            .append( pagesInvalid ).append( ", failures=" ).append( failures ).append( " }" );
+        return b.toString();
+    }
+}
@@ -0,0 +1,118 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import java.util.Locale;
+
+import org.apache.commons.validator.routines.UrlValidator;
+
+import ca.uwo.owl.ezproxy.utilities.EZProxyConstants;
+
+/**
+ * Normalises and validates the source URLs of EZProxy links.
+ *
+ * A link's URL is normalised and validated once, when its configuration is saved, and the result is stored next to
+ * the URL (ezproxy.sourceURL.valid), so the readers don't have to validate it again. The (thread safe) validator is
+ * shared.
+ */
+public final class SourceURLValidator
+{
+    // Class members
+    private static final String[]       SCHEMES         = { EZProxyConstants.URL_PROTOCOL_HTTP, EZProxyConstants.URL_PROTOCOL_HTTPS }; // The list of valid protocols
+    private static final UrlValidator   URL_VALIDATOR   = new UrlValidator( SCHEMES );  // The URL validator object (thread safe)
+
+    private SourceURLValidator() {}
+
+    /**
+     * Normalise a source URL: surrounding white space is removed and the scheme and host are lower cased
+     * (the path, query and fragment are case sensitive, so they are left alone)
+     * @param url the URL as entered (may be null)
+     * @return the normalised URL, or an empty string for null
+     */
+    public static String normalize( String url )
+    {
+        if( url == null )
+        {
+            return "";
+        }
+
+        String trimmed = url.trim();
+        int schemeEnd = trimmed.indexOf( "://" );
+        if( schemeEnd <= 0 )
+        {
+            return trimmed;
+        }
+
+        // The authority ends at the first '/', '?' or '#' after the scheme
+        int authorityStart = schemeEnd + 3;
+        int authorityEnd = trimmed.length();
+        for( int i = authorityStart; i < trimmed.length(); ++i )
+        {
+            char c = trimmed.charAt( i );
+            if( c == '/' || c == '?' || c == '#' )
+            {
+                authorityEnd = i;
+                break;
+            }
+        }
+
+        // Leave any user info alone; only the host (and port) are lower cased
+        int hostStart = trimmed.lastIndexOf( '@', authorityEnd - 1 ) + 1;
+        if( hostStart < authorityStart )
+        {
+            hostStart = authorityStart;
+        }
+
+        StringBuilder b = new StringBuilder( trimmed.length() );
+        b.append( trimmed.substring( 0, schemeEnd ).toLowerCase( Locale.ROOT ) ).append( trimmed, schemeEnd, hostStart )
+            .append( trimmed.substring( hostStart, authorityEnd ).toLowerCase( Locale.ROOT ) ).append( trimmed, authorityEnd, trimmed.length() );
+        return b.toString();
+    }
+
+    /**
+     * Determine if a (normalised) source URL is a valid http(s) URL. URLs that can't be valid (no http:// or https://
+     * prefix, or nothing after it) are rejected without running the validator.
+     * @param url the URL (may be null)
+     * @return true if the URL is valid
+     */
+    public static boolean isValid( String url )
+    {
+        return url != null && hasHost( url ) && URL_VALIDATOR.isValid( url );
+    }
+
+    /**
+     * Determine if a stored source URL is valid, trusting the validity flag saved with it
+     * @param url the stored URL (may be null)
+     * @param storedFlag the stored ezproxy.sourceURL.valid value; null for links saved before the flag existed
+     * @return true if the URL is valid
+     */
+    public static boolean isValid( String url, String storedFlag )
+    {
+        if( storedFlag == null )
+        {
+            return isValid( url );
+        }
+
+        return url != null && Boolean.parseBoolean( storedFlag );
+    }
+
+    /**
+     * Cheap check for an http:// or https:// prefix followed by something
+     */
+    private static boolean hasHost( String url )
+    {
+        int prefix;
+        if( url.regionMatches( true, 0, EZProxyConstants.URL_PROTOCOL_HTTPS + "://", 0, 8 ) )
+        {
+            prefix = 8;
+        }
+        else if( url.regionMatches( true, 0, EZProxyConstants.URL_PROTOCOL_HTTP + "://", 0, 7 ) )
+        {
+            prefix = 7;
+        }
+        else
+        {
+            return false;
+        }
+
+        return url.length() > prefix;
+    }
+}
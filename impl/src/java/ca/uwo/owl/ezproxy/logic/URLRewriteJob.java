@@ -0,0 +1,414 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.sakaiproject.authz.api.SecurityAdvisor;
+import org.sakaiproject.authz.api.SecurityService;
+import org.sakaiproject.entity.api.ResourceProperties;
+import org.sakaiproject.entity.api.ResourcePropertiesEdit;
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.exception.PermissionException;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SitePage;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.site.api.ToolConfiguration;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.api.SessionManager;
+
+import ca.uwo.owl.ezproxy.logic.entity.EZProxyEntityId;
+import ca.uwo.owl.ezproxy.logic.entity.EZProxyToolIterator;
+import ca.uwo.owl.ezproxy.utilities.EZProxyConstants;
+
+/**
+ * Background job that rewrites the source URLs of EZProxy links matching a {@link URLRewriteRule}, across every site.
+ *
+ * A single coordinator thread walks the sites (one at a time, in site ID order) and picks out the links whose URL
+ * matches the rule; the walk itself is not parallel. The matching sites are handed, a wave at a time, to a bounded pool
+ * of worker threads, which fetch each site again, rewrite its links and save it once, so only the site updates run in
+ * parallel. Saves can be throttled to a maximum rate. In a dry run nothing is saved, and the planned changes are kept
+ * (up to a limit) for review.
+ *
+ * After each wave the job records a checkpoint: the ID of the last site fully processed. A cancelled or failed job can
+ * be started again from its checkpoint; the walk then resumes with the sites whose IDs sort after it, so sites created
+ * or removed in the meantime don't cause any site to be skipped (links already rewritten no longer match, so they are
+ * not changed twice).
+ *
+ * The worker threads have no request, so they run as the user who started the job, with a security advisor allowing
+ * the site updates.
+ */
+public class URLRewriteJob implements Runnable
+{
+    // Class members
+    private static final Logger LOG                     = Logger.getLogger( URLRewriteJob.class );  // The logger
+    public  static final int    DEFAULT_THREADS         = 4;        // The default number of worker threads
+    public  static final int    MAX_THREADS             = 16;       // The maximum number of worker threads
+    private static final int    SITES_PER_THREAD        = 8;        // The number of sites per worker thread in a wave
+    private static final int    MAX_PLANNED_CHANGES     = 1000;     // The maximum number of planned changes kept for review
+
+    /**
+     * The state of the job
+     */
+    public enum State { PENDING, RUNNING, FINISHED, CANCELLED, FAILED }
+
+    // Instance members
+    private final URLRewriteRule    rule;               // The rewrite rule
+    private final boolean           dryRun;             // Only report the changes, without saving them
+    private final int               threads;            // The number of worker threads
+    private final long              saveInterval;       // The minimum time between site saves, in nanos (0 for no throttling)
+    private final String            resumeFrom;         // The checkpoint (site ID) to resume after (null to start at the beginning)
+    private final SiteService       siteService;        // Walks, fetches and saves the sites
+    private final SecurityService   securityService;    // Allows the site updates on the worker threads
+    private final SessionManager    sessionManager;     // Sets up the worker threads' sessions
+    private final SakaiProxy        sakaiProxy;         // Posts the configuration update events
+    private final String            userID;             // The ID of the user who started the job
+    private final String            userEid;            // The EID of the user who started the job
+
+    private volatile State          state               = State.PENDING;
+    private volatile boolean        cancelled;          // Has the job been asked to stop
+    private volatile String         checkpoint;         // The ID of the last site fully processed (to resume after)
+    private volatile long           startedAt;          // When the job started
+    private volatile long           finishedAt;         // When the job stopped
+    private volatile String         error;              // Why the job failed
+    private long                    nextSaveAt;         // The earliest time of the next site save, in nanos (guarded by this)
+    private final AtomicInteger     sitesScanned        = new AtomicInteger();  // The number of sites with EZProxy links walked
+    private final AtomicInteger     linksMatched        = new AtomicInteger();  // The number of links matching the rule
+    private final AtomicInteger     linksRewritten      = new AtomicInteger();  // The number of links rewritten (or to be, in a dry run)
+    private final AtomicInteger     linksInvalid        = new AtomicInteger();  // The number of links whose rewritten URL would be invalid
+    private final AtomicInteger     sitesSaved          = new AtomicInteger();  // The number of sites saved
+    private final AtomicInteger     failures            = new AtomicInteger();  // The number of sites that could not be processed
+    private final List<String>      plannedChanges      = Collections.synchronizedList( new ArrayList<>() );    // siteID:pageID old -> new
+
+    /**
+     * @param rule the rewrite rule
+     * @param dryRun true to only report the changes
+     * @param threads the number of worker threads
+     * @param savesPerSecond the maximum number of site saves per second (0 for no limit)
+     * @param resumeFrom the checkpoint (site ID) of an earlier run to resume after (null to start at the beginning)
+     * @param siteService the site service
+     * @param securityService the security service
+     * @param sessionManager the session manager
+     * @param sakaiProxy the Sakai proxy
+     */
+    public URLRewriteJob( URLRewriteRule rule, boolean dryRun, int threads, int savesPerSecond, String resumeFrom, SiteService siteService,
+                          SecurityService securityService, SessionManager sessionManager, SakaiProxy sakaiProxy )
+    {
+        this.rule               = rule;
+        this.dryRun             = dryRun;
+        this.threads            = Math.min( MAX_THREADS, Math.max( 1, threads ) );
+        this.saveInterval       = ( savesPerSecond > 0 ) ? TimeUnit.SECONDS.toNanos( 1 ) / savesPerSecond : 0;
+        this.resumeFrom         = resumeFrom;
+        this.checkpoint         = this.resumeFrom;
+        this.siteService        = siteService;
+        this.securityService    = securityService;
+        this.sessionManager     = sessionManager;
+        this.sakaiProxy         = sakaiProxy;
+
+        Session session = sessionManager.getCurrentSession();
+        this.userID             = ( session != null ) ? session.getUserId() : null;
+        this.userEid            = ( session != null ) ? session.getUserEid() : null;
+    }
+
+    /**
+     * Start the job on a background (daemon) thread
+     */
+    public void start()
+    {
+        Thread thread = new Thread( this, "ezproxy-url-rewrite" );
+        thread.setDaemon( true );
+        state = State.RUNNING;
+        startedAt = System.currentTimeMillis();
+        thread.start();
+    }
+
+    /**
+     * Ask the job to stop; it stops once the current wave of sites is done, so its checkpoint can be resumed from
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    /**
+     * Determine if the job is still running
+     * @return true until the job has finished, been cancelled or failed
+     */
+    public boolean isRunning()
+    {
+        return state == State.PENDING || state == State.RUNNING;
+    }
+
+    @Override
+    public void run()
+    {
+        LOG.info( "URL rewrite job started: rule=" + rule + ", dryRun=" + dryRun + ", threads=" + threads + ", resumeFrom=" + resumeFrom );
+        ExecutorService workers = Executors.newFixedThreadPool( threads, r ->
+        {
+            Thread t = new Thread( r, "ezproxy-url-rewrite-worker" );
+            t.setDaemon( true );
+            return t;
+        } );
+
+        try
+        {
+            EZProxyToolIterator tools = new EZProxyToolIterator( siteService, resumeFrom, null );
+            Map<String, List<String>> wave = new LinkedHashMap<>();
+            int waveSize = threads * SITES_PER_THREAD;
+            String siteID = null;
+            while( !cancelled && tools.hasNext() )
+            {
+                ToolConfiguration config = tools.next();
+                Site site = tools.getCurrentSite();
+                if( !site.getId().equals( siteID ) )
+                {
+                    // A new site; run the wave first if it's full (every site before this one is then done)
+                    if( wave.size() >= waveSize )
+                    {
+                        runWave( workers, wave );
+                    }
+                    if( wave.isEmpty() && siteID != null )
+                    {
+                        checkpoint = siteID;
+                    }
+                    siteID = site.getId();
+                    sitesScanned.incrementAndGet();
+                }
+
+                SitePage page = config.getContainingPage();
+                ResourceProperties props = ( page != null ) ? page.getProperties() : null;
+                if( props != null && rule.rewrite( props.getProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL ) ) != null )
+                {
+                    wave.computeIfAbsent( siteID, k -> new ArrayList<>() ).add( page.getId() );
+                }
+            }
+
+            if( !cancelled )
+            {
+                runWave( workers, wave );
+                if( siteID != null )
+                {
+                    checkpoint = siteID;
+                }
+            }
+            state = cancelled ? State.CANCELLED : State.FINISHED;
+        }
+        catch( InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+            state = State.CANCELLED;
+        }
+        catch( RuntimeException | ExecutionException ex )
+        {
+            error = ex.getMessage();
+            state = State.FAILED;
+            LOG.error( "URL rewrite job failed: " + this, ex );
+        }
+        finally
+        {
+            workers.shutdownNow();
+            finishedAt = System.currentTimeMillis();
+        }
+
+        LOG.info( "URL rewrite job " + state + ": " + this );
+    }
+
+    /**
+     * Process a wave of sites on the worker threads, and wait for all of them
+     * @param workers the worker threads
+     * @param wave the IDs of the matching pages of each site; cleared once processed
+     */
+    private void runWave( ExecutorService workers, Map<String, List<String>> wave ) throws InterruptedException, ExecutionException
+    {
+        List<Future<?>> futures = new ArrayList<>( wave.size() );
+        for( Map.Entry<String, List<String>> entry : wave.entrySet() )
+        {
+            String siteID = entry.getKey();
+            List<String> pageIDs = entry.getValue();
+            futures.add( workers.submit( () -> processSite( siteID, pageIDs ) ) );
+        }
+        for( Future<?> future : futures )
+        {
+            future.get();
+        }
+        wave.clear();
+    }
+
+    /**
+     * Rewrite the matching links of a site, with a single save (runs on a worker thread)
+     * @param siteID the ID of the site
+     * @param pageIDs the IDs of the pages whose links matched when the site was walked
+     */
+    private void processSite( String siteID, List<String> pageIDs )
+    {
+        String siteRef = siteService.siteReference( siteID );
+        SecurityAdvisor advisor = ( user, function, reference ) -> SiteService.SECURE_UPDATE_SITE.equals( function ) && siteRef.equals( reference )
+                ? SecurityAdvisor.SecurityAdvice.ALLOWED
+                : SecurityAdvisor.SecurityAdvice.PASS;
+
+        Session session = sessionManager.getCurrentSession();
+        session.setUserId( userID );
+        session.setUserEid( userEid );
+        securityService.pushAdvisor( advisor );
+        try
+        {
+            // The site may have changed since it was walked, so fetch it again before changing it
+            Site site = siteService.getSite( siteID );
+            List<String> rewritten = new ArrayList<>( pageIDs.size() );
+            for( String pageID : pageIDs )
+            {
+                SitePage page = site.getPage( pageID );
+                if( page == null )
+                {
+                    continue;
+                }
+
+                ResourcePropertiesEdit props = page.getPropertiesEdit();
+                String oldURL = props.getProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL );
+                String newURL = rule.rewrite( oldURL );
+                if( newURL == null )
+                {
+                    continue;
+                }
+
+                linksMatched.incrementAndGet();
+                newURL = SourceURLValidator.normalize( newURL );
+                String id = EZProxyEntityId.toString( siteID, pageID );
+                if( !SourceURLValidator.isValid( newURL ) )
+                {
+                    linksInvalid.incrementAndGet();
+                    plan( id + " " + oldURL + " -> " + newURL + " (invalid, not rewritten)" );
+                    continue;
+                }
+
+                plan( id + " " + oldURL + " -> " + newURL );
+                if( !dryRun )
+                {
+                    props.addProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL, newURL );
+                    props.addProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL_VALID, Boolean.TRUE.toString() );
+                }
+                rewritten.add( pageID );
+            }
+
+            if( !rewritten.isEmpty() && !dryRun )
+            {
+                throttle();
+                siteService.save( site );
+                sitesSaved.incrementAndGet();
+                for( String pageID : rewritten )
+                {
+                    sakaiProxy.postEvent( EZProxyConstants.EVENT_CONFIG_UPDATE, EZProxyConstants.EVENT_REFERENCE_PREFIX
+                            + EZProxyEntityId.toString( siteID, pageID ), true );
+                }
+            }
+            linksRewritten.addAndGet( rewritten.size() );
+        }
+        catch( IdUnusedException | PermissionException | RuntimeException ex )
+        {
+            failures.incrementAndGet();
+            LOG.error( "Error: " + ex.getClass() + ":" + ex.getMessage() );
+            LOG.error( "URLRewriteJob.processSite( siteID=" + siteID + ", pageIDs=" + pageIDs + " )" );
+        }
+        catch( InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            securityService.popAdvisor( advisor );
+        }
+    }
+
+    /**
+     * Wait until the next site save is allowed by the throttle
+     */
+    private void throttle() throws InterruptedException
+    {
+        if( saveInterval == 0 )
+        {
+            return;
+        }
+
+        long wait;
+        synchronized( this )
+        {
+            long now = System.nanoTime();
+            long slot = Math.max( now, nextSaveAt );
+            nextSaveAt = slot + saveInterval;
+            wait = slot - now;
+        }
+        if( wait > 0 )
+        {
+            TimeUnit.NANOSECONDS.sleep( wait );
+        }
+    }
+
+    /**
+     * Remember a planned change for review (up to a limit)
+     */
+    private void plan( String change )
+    {
+        if( plannedChanges.size() < MAX_PLANNED_CHANGES )
+        {
+            plannedChanges.add( change );
+        }
+        if( dryRun && LOG.isDebugEnabled() )
+        {
+            LOG.debug( "Dry run: " + change );
+        }
+    }
+
+    /**
+     * Get the progress of the job
+     * @return the job's settings and counters, by name
+     */
+    public Map<String, Object> getStatus()
+    {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put( "state", state.name() );
+        status.put( "mode", rule.getMode().name() );
+        status.put( "match", rule.getMatch() );
+        status.put( "replacement", rule.getReplacement() );
+        status.put( "dryRun", dryRun );
+        status.put( "threads", threads );
+        status.put( "resumeFrom", resumeFrom );
+        status.put( "checkpoint", checkpoint );
+        status.put( "sitesScanned", sitesScanned.get() );
+        status.put( "linksMatched", linksMatched.get() );
+        status.put( "linksRewritten", linksRewritten.get() );
+        status.put( "linksInvalid", linksInvalid.get() );
+        status.put( "sitesSaved", sitesSaved.get() );
+        status.put( "failures", failures.get() );
+        status.put( "elapsedMillis", ( startedAt == 0 ) ? 0 : ( ( finishedAt != 0 ) ? finishedAt : System.currentTimeMillis() ) - startedAt );
+        status.put( "error", error );
+        synchronized( plannedChanges )
+        {
+            status.put( "plannedChanges", new ArrayList<>( plannedChanges ) );
+        }
+        return status;
+    }
+
+    /**
+     * Returns a string representation of the job's progress.
+     * @return the string representation of the job
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append( "{ state=" ).append( state ).append( ", rule=" ).append( rule ).append( ", dryRun=" ).append( dryRun )
+            .append( ", checkpoint=" ).append( checkpoint ).append( ", sitesScanned=" ).append( sitesScanned ).append( ", linksMatched=" )
+            .append( linksMatched ).append( ", linksRewritten=" ).append( linksRewritten ).append( ", linksInvalid=" ).append( linksInvalid )
+            .append( ", sitesSaved=" ).append( sitesSaved ).append( ", failures=" ).append( failures ).append( " }" );
+        return b.toString();
+    }
+}
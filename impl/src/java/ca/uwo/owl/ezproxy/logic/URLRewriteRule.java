@@ -0,0 +1,159 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A rule for rewriting the source URLs of EZProxy links (see {@link URLRewriteJob}), e.g. when a database vendor
+ * changes host names. A rule matches in one of three ways:
+ * <ul>
+ * <li>host - the host of the URL equals the match (case insensitively); only the host is replaced</li>
+ * <li>prefix - the URL starts with the match; the prefix is replaced</li>
+ * <li>regex - the regular expression is found in the URL; every occurrence is replaced (with $n group references)</li>
+ * </ul>
+ */
+public final class URLRewriteRule
+{
+    /**
+     * How the rule matches a URL
+     */
+    public enum Mode
+    {
+        HOST, PREFIX, REGEX;
+
+        /**
+         * Parse a mode name (case insensitive)
+         * @param name the name of the mode
+         * @return the mode
+         * @throws IllegalArgumentException if the name is not a mode
+         */
+        public static Mode parse( String name )
+        {
+            if( name == null )
+            {
+                throw new IllegalArgumentException( "You must supply a match mode (host, prefix or regex)" );
+            }
+
+            try { return valueOf( name.trim().toUpperCase( Locale.ROOT ) ); }
+            catch( IllegalArgumentException ex ) { throw new IllegalArgumentException( "Unknown match mode: " + name ); }
+        }
+    }
+
+    // Instance members
+    private final Mode      mode;           // How the rule matches
+    private final String    match;          // The host, prefix or regular expression to match
+    private final String    replacement;    // What replaces the matched host, prefix or expression
+    private final Pattern   pattern;        // The compiled regular expression (regex mode only)
+
+    /**
+     * @param mode how the rule matches
+     * @param match the host, prefix or regular expression to match
+     * @param replacement what replaces the matched host, prefix or expression
+     * @throws IllegalArgumentException if the match or replacement is missing, or the regular expression is invalid
+     */
+    public URLRewriteRule( Mode mode, String match, String replacement )
+    {
+        if( mode == null || match == null || match.isEmpty() || replacement == null )
+        {
+            throw new IllegalArgumentException( "You must supply a match mode, a match and a replacement" );
+        }
+
+        this.mode           = mode;
+        this.match          = ( mode == Mode.HOST ) ? match.trim().toLowerCase( Locale.ROOT ) : match;
+        this.replacement    = ( mode == Mode.HOST ) ? replacement.trim().toLowerCase( Locale.ROOT ) : replacement;
+        try { this.pattern  = ( mode == Mode.REGEX ) ? Pattern.compile( match ) : null; }
+        catch( PatternSyntaxException ex ) { throw new IllegalArgumentException( "Invalid regular expression: " + ex.getMessage() ); }
+    }
+
+    /**
+     * Rewrite a URL
+     * @param url the URL (may be null)
+     * @return the rewritten URL, or null if the rule doesn't match the URL (or doesn't change it)
+     */
+    public String rewrite( String url )
+    {
+        if( url == null )
+        {
+            return null;
+        }
+
+        String rewritten;
+        switch( mode )
+        {
+            case HOST:
+                int[] host = findHost( url );
+                rewritten = ( host != null && url.substring( host[0], host[1] ).equalsIgnoreCase( match ) )
+                        ? url.substring( 0, host[0] ) + replacement + url.substring( host[1] )
+                        : null;
+                break;
+
+            case PREFIX:
+                rewritten = url.startsWith( match ) ? replacement + url.substring( match.length() ) : null;
+                break;
+
+            default:
+                Matcher m = pattern.matcher( url );
+                rewritten = m.find() ? m.replaceAll( replacement ) : null;
+        }
+
+        return url.equals( rewritten ) ? null : rewritten;
+    }
+
+    /**
+     * Find the host of a URL
+     * @return the start and end of the host, or null if the URL has no scheme://
+     */
+    private static int[] findHost( String url )
+    {
+        int schemeEnd = url.indexOf( "://" );
+        if( schemeEnd <= 0 )
+        {
+            return null;
+        }
+
+        int start = schemeEnd + 3;
+        int end = url.length();
+        for( int i = start; i < url.length(); ++i )
+        {
+            char c = url.charAt( i );
+            if( c == '/' || c == '?' || c == '#' )
+            {
+                end = i;
+                break;
+            }
+        }
+
+        // Skip any user info, and stop before any port
+        int at = url.lastIndexOf( '@', end - 1 );
+        if( at >= start )
+        {
+            start = at + 1;
+        }
+        int colon = url.indexOf( ':', start );
+        if( colon >= 0 && colon < end )
+        {
+            end = colon;
+        }
+
+        return new int[] { start, end };
+    }
+
+    // Getters
+    public Mode     getMode()           { return mode; }
+    public String   getMatch()          { return match; }
+    public String   getReplacement()    { return replacement; }
+
+    /**
+     * Returns a string representation of the rule.
+     * @return the string representation of the rule
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append( "{ mode=" ).append( mode ).append( ", match=" ).append( match ).append( ", replacement=" ).append( replacement ).append( " }" );
+        return b.toString();
+    }
+}
@@ -0,0 +1,96 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether users may view EZProxy links: only users whose type is one of the allowed roles
+ * (ezproxy.allow.view in sakai.properties), and super users, may view them.
+ *
+ * Decisions are cached per user for a short time (ezproxy.allow.view.cacheSeconds), so repeated launches do not go
+ * back to the user directory. The allowed roles come from the current {@link EZProxySettings} snapshot; a decision
+ * is only reused while the snapshot still holds the role set it was made with, so a role change takes effect on the
+ * next reload.
+ */
+public class ViewAuthorizer
+{
+    // Class members
+    private static final int    MAX_DECISIONS   = 10000;    // The maximum number of cached decisions
+
+    // Instance members
+    private final EZProxySettingsHolder             settingsHolder;                             // Holds the allowed roles
+    private final ConcurrentMap<String, Decision>   decisions   = new ConcurrentHashMap<>();    // The cached decision for each user ID
+    private final AtomicLong                        hits        = new AtomicLong();             // The number of cached decisions used
+    private final AtomicLong                        misses      = new AtomicLong();             // The number of decisions made
+
+    public ViewAuthorizer( EZProxySettingsHolder settingsHolder )
+    {
+        this.settingsHolder = settingsHolder;
+    }
+
+    /**
+     * Determine if the user of the given request context may view EZProxy links
+     * @param context the request context of the user in question
+     * @return true if the user's type is one of the allowed roles, or they're a super user
+     */
+    public boolean isViewAuth( EZProxyRequestContext context )
+    {
+        long now = System.currentTimeMillis();
+        EZProxySettings settings = settingsHolder.getSettings();
+        Set<String> allowedRoles = settings.getAllowedRoles();
+
+        String userId = context.getUserId();
+        Decision decision = ( userId != null ) ? decisions.get( userId ) : null;
+        if( decision != null && decision.expires > now && decision.roles == allowedRoles )
+        {
+            hits.incrementAndGet();
+            return decision.allowed;
+        }
+
+        misses.incrementAndGet();
+        String type = context.getUserType();
+        boolean allowed = ( type != null && allowedRoles.contains( type.toLowerCase( Locale.ROOT ) ) ) || context.isSuperUser();
+        if( userId != null && settings.getDecisionTTL() > 0 )
+        {
+            if( decisions.size() >= MAX_DECISIONS )
+            {
+                decisions.clear();
+            }
+            decisions.put( userId, new Decision( allowed, allowedRoles, now + settings.getDecisionTTL() ) );
+        }
+
+        return allowed;
+    }
+
+    /**
+     * Discard every cached decision
+     */
+    public void invalidateAll()
+    {
+        decisions.clear();
+    }
+
+    // Getters
+    public long getHits()   { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+
+    /**
+     * A cached decision, the role set it was made with and when it expires
+     */
+    private static final class Decision
+    {
+        private final boolean       allowed;
+        private final Set<String>   roles;
+        private final long          expires;
+
+        private Decision( boolean allowed, Set<String> roles, long expires )
+        {
+            this.allowed    = allowed;
+            this.roles      = roles;
+            this.expires    = expires;
+        }
+    }
+}
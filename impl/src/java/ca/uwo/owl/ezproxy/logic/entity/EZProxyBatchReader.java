@@ -0,0 +1,418 @@
+package ca.uwo.owl.ezproxy.logic.entity;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sakaiproject.entitybroker.entityprovider.extension.Formats;
+
+/**
+ * Reads a batch of EZProxy link records ({@link EZProxyBatchRecord}) one record at a time, from either
+ * <ul>
+ * <li>JSON - an array of flat objects, or a sequence of objects (e.g. one per line, as newline delimited JSON); or</li>
+ * <li>CSV - a heading row naming the fields, then one row per record (RFC 4180 quoting).</li>
+ * </ul>
+ * Field names are those of the EZProxyBatchRecord FIELD_* constants; unknown fields are ignored. Only the record
+ * being read is held in memory, so large batches can be read as a stream.
+ */
+public class EZProxyBatchReader
+{
+    // Class members
+    public static final String CSV      = "csv";    // The CSV format name
+    public static final String NDJSON   = "ndjson"; // The newline delimited JSON format name (read as JSON)
+
+    // Instance members
+    private final Reader    in;         // The reader to read from
+    private final boolean   json;       // Is the input JSON (or CSV)
+    private List<String>    headings;   // The CSV field names
+    private int             peeked      = -2;   // The character read ahead; -2 for none
+    private int             line        = 1;    // The current line, for error messages
+    private int             count;      // The number of records read
+    private boolean         inArray;    // Is the JSON input an array
+    private boolean         finished;   // Has the end of the input been reached
+
+    /**
+     * @param in the reader to read from (buffer it for large input)
+     * @param format json, ndjson or csv
+     * @throws IllegalArgumentException if the format is not handled
+     */
+    public EZProxyBatchReader( Reader in, String format )
+    {
+        if( !isHandled( format ) )
+        {
+            throw new IllegalArgumentException( "Unsupported batch format: " + format );
+        }
+
+        this.in     = in;
+        this.json   = !CSV.equalsIgnoreCase( format );
+    }
+
+    /**
+     * Determine if the given format can be read by this class
+     * @param format the format (extension)
+     * @return true for json, ndjson and csv
+     */
+    public static boolean isHandled( String format )
+    {
+        return Formats.JSON.equalsIgnoreCase( format ) || NDJSON.equalsIgnoreCase( format ) || CSV.equalsIgnoreCase( format );
+    }
+
+    /**
+     * Read all the remaining records
+     * @return the records
+     * @throws IOException if the reader fails
+     * @throws IllegalArgumentException if the input is malformed
+     */
+    public List<EZProxyBatchRecord> readAll() throws IOException
+    {
+        List<EZProxyBatchRecord> records = new ArrayList<>();
+        for( EZProxyBatchRecord record = next(); record != null; record = next() )
+        {
+            records.add( record );
+        }
+
+        return records;
+    }
+
+    /**
+     * Read the next record
+     * @return the record, or null at the end of the input
+     * @throws IOException if the reader fails
+     * @throws IllegalArgumentException if the input is malformed
+     */
+    public EZProxyBatchRecord next() throws IOException
+    {
+        if( finished )
+        {
+            return null;
+        }
+
+        EZProxyBatchRecord record = json ? nextJSON() : nextCSV();
+        if( record == null )
+        {
+            finished = true;
+        }
+
+        return record;
+    }
+
+    /**
+     * Get the number of records read so far
+     * @return the number of records
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    // *************************************************************
+    // ***************************** JSON **************************
+    // *************************************************************
+
+    /**
+     * Read the next JSON object
+     */
+    private EZProxyBatchRecord nextJSON() throws IOException
+    {
+        int c = skipWhitespace();
+        if( count == 0 && !inArray && c == '[' )
+        {
+            read();
+            inArray = true;
+            c = skipWhitespace();
+            if( c == ']' )
+            {
+                read();
+                return endJSON();
+            }
+        }
+        else if( inArray && count > 0 )
+        {
+            if( c == ']' )
+            {
+                read();
+                return endJSON();
+            }
+            expect( ',' );
+            c = skipWhitespace();
+        }
+
+        if( c == -1 )
+        {
+            if( inArray )
+            {
+                throw error( "Unterminated array" );
+            }
+            return null;
+        }
+
+        expect( '{' );
+        EZProxyBatchRecord record = new EZProxyBatchRecord( count++ );
+        if( skipWhitespace() == '}' )
+        {
+            read();
+            return record;
+        }
+
+        while( true )
+        {
+            skipWhitespace();
+            String name = readJSONString();
+            skipWhitespace();
+            expect( ':' );
+            skipWhitespace();
+            record.setField( name, readJSONValue() );
+
+            c = skipWhitespace();
+            read();
+            if( c == '}' )
+            {
+                return record;
+            }
+            if( c != ',' )
+            {
+                throw error( "Expected ',' or '}'" );
+            }
+        }
+    }
+
+    /**
+     * Make sure nothing but white space follows the JSON array
+     */
+    private EZProxyBatchRecord endJSON() throws IOException
+    {
+        if( skipWhitespace() != -1 )
+        {
+            throw error( "Unexpected content after the array" );
+        }
+        return null;
+    }
+
+    /**
+     * Read a JSON string, number, boolean or null as a string
+     */
+    private String readJSONValue() throws IOException
+    {
+        int c = peek();
+        if( c == '"' )
+        {
+            return readJSONString();
+        }
+        if( c == '{' || c == '[' )
+        {
+            throw error( "Nested objects and arrays are not supported" );
+        }
+
+        StringBuilder b = new StringBuilder();
+        while( ( c = peek() ) != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace( c ) )
+        {
+            b.append( (char) read() );
+        }
+
+        String literal = b.toString();
+        if( literal.isEmpty() )
+        {
+            throw error( "Expected a value" );
+        }
+        return "null".equals( literal ) ? null : literal;
+    }
+
+    /**
+     * Read a quoted JSON string
+     */
+    private String readJSONString() throws IOException
+    {
+        expect( '"' );
+        StringBuilder b = new StringBuilder();
+        while( true )
+        {
+            int c = read();
+            switch( c )
+            {
+                case -1:    throw error( "Unterminated string" );
+                case '"':   return b.toString();
+                case '\\':
+                    int e = read();
+                    switch( e )
+                    {
+                        case '"': case '\\': case '/': b.append( (char) e ); break;
+                        case 'b':   b.append( '\b' ); break;
+                        case 'f':   b.append( '\f' ); break;
+                        case 'n':   b.append( '\n' ); break;
+                        case 'r':   b.append( '\r' ); break;
+                        case 't':   b.append( '\t' ); break;
+                        case 'u':
+                            int code = 0;
+                            for( int i = 0; i < 4; ++i )
+                            {
+                                int digit = Character.digit( read(), 16 );
+                                if( digit < 0 )
+                                {
+                                    throw error( "Invalid unicode escape" );
+                                }
+                                code = code * 16 + digit;
+                            }
+                            b.append( (char) code );
+                            break;
+                        default:    throw error( "Invalid escape" );
+                    }
+                    break;
+                default:    b.append( (char) c );
+            }
+        }
+    }
+
+    // *************************************************************
+    // ***************************** CSV ***************************
+    // *************************************************************
+
+    /**
+     * Read the next CSV row as a record (the heading row is read first)
+     */
+    private EZProxyBatchRecord nextCSV() throws IOException
+    {
+        if( headings == null )
+        {
+            headings = readCSVRow();
+            if( headings == null )
+            {
+                return null;
+            }
+            for( int i = 0; i < headings.size(); ++i )
+            {
+                headings.set( i, headings.get( i ).trim() );
+            }
+        }
+
+        List<String> row;
+        do
+        {
+            row = readCSVRow();
+            if( row == null )
+            {
+                return null;
+            }
+        }
+        while( row.size() == 1 && row.get( 0 ).isEmpty() );   // Skip blank lines
+
+        EZProxyBatchRecord record = new EZProxyBatchRecord( count++ );
+        for( int i = 0; i < row.size() && i < headings.size(); ++i )
+        {
+            record.setField( headings.get( i ), row.get( i ) );
+        }
+
+        return record;
+    }
+
+    /**
+     * Read a CSV row
+     * @return the values, or null at the end of the input
+     */
+    private List<String> readCSVRow() throws IOException
+    {
+        if( peek() == -1 )
+        {
+            return null;
+        }
+
+        List<String> values = new ArrayList<>();
+        StringBuilder b = new StringBuilder();
+        boolean quoted = false;
+        while( true )
+        {
+            int c = read();
+            if( quoted )
+            {
+                if( c == -1 )
+                {
+                    throw error( "Unterminated quoted value" );
+                }
+                if( c == '"' )
+                {
+                    if( peek() == '"' )
+                    {
+                        b.append( (char) read() );
+                    }
+                    else
+                    {
+                        quoted = false;
+                    }
+                }
+                else
+                {
+                    b.append( (char) c );
+                }
+            }
+            else if( c == '"' && b.length() == 0 )
+            {
+                quoted = true;
+            }
+            else if( c == ',' )
+            {
+                values.add( b.toString() );
+                b.setLength( 0 );
+            }
+            else if( c == '\n' || c == '\r' || c == -1 )
+            {
+                if( c == '\r' && peek() == '\n' )
+                {
+                    read();
+                }
+                values.add( b.toString() );
+                return values;
+            }
+            else
+            {
+                b.append( (char) c );
+            }
+        }
+    }
+
+    // *************************************************************
+    // ************************** Scanning *************************
+    // *************************************************************
+
+    private int peek() throws IOException
+    {
+        if( peeked == -2 )
+        {
+            peeked = in.read();
+        }
+        return peeked;
+    }
+
+    private int read() throws IOException
+    {
+        int c = peek();
+        peeked = -2;
+        if( c == '\n' )
+        {
+            ++line;
+        }
+        return c;
+    }
+
+    private int skipWhitespace() throws IOException
+    {
+        int c;
+        while( ( c = peek() ) != -1 && Character.isWhitespace( c ) )
+        {
+            read();
+        }
+        return c;
+    }
+
+    private void expect( char expected ) throws IOException
+    {
+        if( read() != expected )
+        {
+            throw error( "Expected '" + expected + "'" );
+        }
+    }
+
+    private IllegalArgumentException error( String message )
+    {
+        return new IllegalArgumentException( message + " at line " + line + " of the batch" );
+    }
+}
@@ -0,0 +1,187 @@
+package ca.uwo.owl.ezproxy.logic.entity;
+
+import java.util.Locale;
+
+/**
+ * A single record of a batch of EZProxy link changes (see {@link EZProxyBatchUpdater}), with the outcome of applying it.
+ *
+ * Fields that are not given (null) are left as they are when updating a link. The frame height and custom height are
+ * stored exactly as given, so they have to use the values of the tool's options page (e.g. "600 pixels", or
+ * "Something else" with a custom height).
+ */
+public class EZProxyBatchRecord
+{
+    /**
+     * What to do with a link
+     */
+    public enum Action
+    {
+        CREATE,     // Add a new EZProxy page to the site
+        UPDATE,     // Change the configuration of an existing link
+        DELETE;     // Remove the page of an existing link
+
+        /**
+         * Parse an action name (case insensitive)
+         * @param value the action name
+         * @return the action, or null if the value is null or empty
+         * @throws IllegalArgumentException if the value is not an action name
+         */
+        public static Action parse( String value )
+        {
+            if( value == null || value.trim().isEmpty() )
+            {
+                return null;
+            }
+
+            return valueOf( value.trim().toUpperCase( Locale.ROOT ) );
+        }
+    }
+
+    /**
+     * The outcome of applying a record
+     */
+    public enum Status
+    {
+        PENDING,    // Not applied yet
+        OK,         // Applied and saved
+        FAILED      // Not applied; see the message
+    }
+
+    // The names of the record fields (JSON names and CSV headings)
+    public static final String FIELD_ACTION         = "action";
+    public static final String FIELD_SITE_ID        = "siteID";
+    public static final String FIELD_PAGE_ID        = "pageID";
+    public static final String FIELD_SOURCE_URL     = "sourceURL";
+    public static final String FIELD_FRAME_HEIGHT   = "frameHeight";
+    public static final String FIELD_CUSTOM_HEIGHT  = "customHeight";
+    public static final String FIELD_NEW_WINDOW     = "newWindow";
+    public static final String FIELD_TITLE          = "title";
+
+    // Instance members
+    private final int   index;          // The position of the record in the batch (0 based)
+    private Action      action;         // What to do; defaults to UPDATE when a page ID is given, CREATE otherwise
+    private String      siteID;         // The ID of the site
+    private String      pageID;         // The ID of the page (for CREATE, the page the link was created for, if any)
+    private String      sourceURL;      // The URL of the library resource
+    private String      frameHeight;    // The selected frame height option
+    private String      customHeight;   // The custom frame height
+    private Boolean     newWindow;      // Should the link open in a new window/tab
+    private String      title;          // The page and tool title
+    private Status      status          = Status.PENDING;
+    private String      message;        // Why the record failed
+
+    public EZProxyBatchRecord( int index )
+    {
+        this.index = index;
+    }
+
+    /**
+     * Set a field by name (as read from JSON or CSV); unknown fields are ignored, and an unknown action or a newWindow
+     * other than true or false fails the record
+     * @param name the name of the field
+     * @param value the value of the field (empty strings are treated as null)
+     */
+    public void setField( String name, String value )
+    {
+        String v = ( value == null || value.isEmpty() ) ? null : value;
+        switch( name )
+        {
+            case FIELD_ACTION:
+                try { action = Action.parse( v ); }
+                catch( IllegalArgumentException ex ) { failed( "Unknown action: " + v ); }
+                break;
+            case FIELD_SITE_ID:         siteID          = v; break;
+            case FIELD_PAGE_ID:         pageID          = v; break;
+            case FIELD_SOURCE_URL:      sourceURL       = v; break;
+            case FIELD_FRAME_HEIGHT:    frameHeight     = v; break;
+            case FIELD_CUSTOM_HEIGHT:   customHeight    = v; break;
+            case FIELD_NEW_WINDOW:
+                newWindow = parseBoolean( v );
+                if( v != null && newWindow == null )
+                {
+                    failed( "Invalid " + FIELD_NEW_WINDOW + " (must be true or false): " + v );
+                }
+                break;
+            case FIELD_TITLE:           title           = v; break;
+            default: break;
+        }
+    }
+
+    /**
+     * Parse a boolean field strictly, so values like yes or 1 are not silently taken as false
+     * @param value the value (may be null)
+     * @return the boolean, or null if the value is null or is not true or false (ignoring case and white space)
+     */
+    private static Boolean parseBoolean( String value )
+    {
+        String v = ( value != null ) ? value.trim() : null;
+        if( "true".equalsIgnoreCase( v ) )
+        {
+            return Boolean.TRUE;
+        }
+        if( "false".equalsIgnoreCase( v ) )
+        {
+            return Boolean.FALSE;
+        }
+
+        return null;
+    }
+
+    /**
+     * Mark the record as applied
+     * @param pageID the ID of the page of the link (the new page, for CREATE)
+     */
+    public void succeeded( String pageID )
+    {
+        this.action     = getAction();
+        this.pageID     = pageID;
+        this.status     = Status.OK;
+        this.message    = null;
+    }
+
+    /**
+     * Mark the record as failed
+     * @param message why the record failed
+     */
+    public void failed( String message )
+    {
+        this.status     = Status.FAILED;
+        this.message    = message;
+    }
+
+    // Getters
+    public int      getIndex()          { return index; }
+    public Action   getAction()         { return ( action != null ) ? action : ( pageID != null ? Action.UPDATE : Action.CREATE ); }
+    public String   getSiteID()         { return siteID; }
+    public String   getPageID()         { return pageID; }
+    public String   getSourceURL()      { return sourceURL; }
+    public String   getFrameHeight()    { return frameHeight; }
+    public String   getCustomHeight()   { return customHeight; }
+    public Boolean  getNewWindow()      { return newWindow; }
+    public String   getTitle()          { return title; }
+    public Status   getStatus()         { return status; }
+    public String   getMessage()        { return message; }
+
+    /**
+     * Get the entity ID of the link
+     * @return siteID:pageID, or null if the site or page ID is not known
+     */
+    public String getId()
+    {
+        return ( siteID != null && pageID != null ) ? EZProxyEntityId.toString( siteID, pageID ) : null;
+    }
+
+    /**
+     * Returns a string representation of the record.
+     * @return the string representation of the record
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append( "{ index=" ).append( index ).append( ", action=" ).append( getAction() ).append( ", siteID=" ).append( siteID )
+            .append( ", pageID=" ).append( pageID ).append( ", sourceURL=" ).append( sourceURL ).append( ", status=" ).append( status )
+            .append( ", message=" ).append( message ).append( " }" );
+        return b.toString();
+    }
+}
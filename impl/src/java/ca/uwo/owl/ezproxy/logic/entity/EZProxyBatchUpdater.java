@@ -0,0 +1,339 @@
+package ca.uwo.owl.ezproxy.logic.entity;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.authz.api.SecurityService;
+import org.sakaiproject.entity.api.ResourceProperties;
+import org.sakaiproject.entity.api.ResourcePropertiesEdit;
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.exception.PermissionException;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SitePage;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.site.api.ToolConfiguration;
+
+import ca.uwo.owl.ezproxy.logic.SakaiProxy;
+import ca.uwo.owl.ezproxy.logic.SourceURLValidator;
+import ca.uwo.owl.ezproxy.utilities.EZProxyConstants;
+
+/**
+ * Applies a batch of EZProxy link changes ({@link EZProxyBatchRecord}s) to their sites.
+ *
+ * The records are grouped by site, so each site is loaded, changed and saved once no matter how many of its links
+ * are in the batch. Each record is checked before its site is changed, so a bad record fails on its own; if a site
+ * can't be saved, all of its records fail. The outcome of every record is left on the record.
+ *
+ * Links created for updates of missing links (see {@link #setCreateMissing(boolean)}) remember the page ID they were
+ * created for, and later updates of that page ID change the created link, so an import can be run again (or resumed)
+ * without duplicating links.
+ */
+public class EZProxyBatchUpdater
+{
+    // Class members
+    private static final Log    LOG             = LogFactory.getLog( EZProxyBatchUpdater.class );  // The logger
+
+    // Instance members
+    private final SiteService       siteService;        // Loads and saves the sites
+    private final SecurityService   securityService;    // Checks the current user's permission for each site
+    private final SakaiProxy        sakaiProxy;         // Posts the configuration update events
+    private boolean                 createMissing;      // Should updates of missing links create them (e.g. when importing into another instance)
+    private int                     sitesSaved;         // The number of sites saved
+    private int                     succeeded;          // The number of records applied
+    private int                     failed;             // The number of records that failed
+
+    public EZProxyBatchUpdater( SiteService siteService, SecurityService securityService, SakaiProxy sakaiProxy )
+    {
+        this.siteService        = siteService;
+        this.securityService    = securityService;
+        this.sakaiProxy         = sakaiProxy;
+    }
+
+    /**
+     * Apply the records, one save per site
+     * @param records the records; their status and message are set
+     */
+    public void apply( List<EZProxyBatchRecord> records )
+    {
+        // Group the records by site, keeping the order in which the sites first appear
+        Map<String, List<EZProxyBatchRecord>> bySite = new LinkedHashMap<>();
+        for( EZProxyBatchRecord record : records )
+        {
+            if( record.getStatus() == EZProxyBatchRecord.Status.FAILED )
+            {
+                ++failed;
+            }
+            else if( record.getSiteID() == null )
+            {
+                fail( record, "You must supply a site ID" );
+            }
+            else
+            {
+                bySite.computeIfAbsent( record.getSiteID(), k -> new ArrayList<>() ).add( record );
+            }
+        }
+
+        for( Map.Entry<String, List<EZProxyBatchRecord>> entry : bySite.entrySet() )
+        {
+            applySite( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    /**
+     * Apply the records of a single site, with one save
+     */
+    private void applySite( String siteID, List<EZProxyBatchRecord> records )
+    {
+        if( !securityService.unlock( EZProxyConstants.TOOL_PERM_NAME, siteService.siteReference( siteID ) ) )
+        {
+            failAll( records, "You do not have permission (" + EZProxyConstants.TOOL_PERM_NAME + ") for site: " + siteID );
+            return;
+        }
+
+        Site site;
+        try { site = siteService.getSite( siteID ); }
+        catch( IdUnusedException ex )
+        {
+            failAll( records, "No site found for site ID: " + siteID );
+            return;
+        }
+
+        // Change the site in memory; the records that could be applied are remembered with their page IDs
+        List<EZProxyBatchRecord> applied = new ArrayList<>( records.size() );
+        List<String> pageIDs = new ArrayList<>( records.size() );
+        for( EZProxyBatchRecord record : records )
+        {
+            String error = check( site, record );
+            if( error != null )
+            {
+                fail( record, error );
+                continue;
+            }
+
+            pageIDs.add( applyRecord( site, record ) );
+            applied.add( record );
+        }
+
+        if( applied.isEmpty() )
+        {
+            return;
+        }
+
+        // Save the site once; only then are the records (and new page IDs) final
+        try
+        {
+            siteService.save( site );
+            ++sitesSaved;
+        }
+        catch( IdUnusedException | PermissionException ex )
+        {
+            LOG.error( "Unable to save site " + siteID + " for a batch of EZProxy links: " + ex.getMessage() );
+            failAll( applied, "Unable to save site " + siteID + ": " + ex.getMessage() );
+            return;
+        }
+
+        for( int i = 0; i < applied.size(); ++i )
+        {
+            EZProxyBatchRecord record = applied.get( i );
+            String pageID = pageIDs.get( i );
+            record.succeeded( pageID );
+            ++succeeded;
+            sakaiProxy.postEvent( EZProxyConstants.EVENT_CONFIG_UPDATE, EZProxyConstants.EVENT_REFERENCE_PREFIX
+                    + EZProxyEntityId.toString( siteID, pageID ), true );
+        }
+    }
+
+    /**
+     * Check that a record can be applied to its site, without changing anything
+     * @return why the record can't be applied, or null if it can
+     */
+    private String check( Site site, EZProxyBatchRecord record )
+    {
+        EZProxyBatchRecord.Action action = record.getAction();
+        if( action == EZProxyBatchRecord.Action.CREATE )
+        {
+            if( record.getTitle() == null || record.getSourceURL() == null || record.getFrameHeight() == null )
+            {
+                return "You must supply a title, source URL and frame height to create an EZProxy link";
+            }
+        }
+        else if( findEZProxyPage( site, record.getPageID() ) == null )
+        {
+            if( createMissing && action == EZProxyBatchRecord.Action.UPDATE )
+            {
+                // Update the link an earlier import created for this page ID, if there is one; otherwise create it
+                SitePage imported = ( record.getPageID() != null ) ? findImportedPage( site, record.getPageID() ) : null;
+                if( imported != null )
+                {
+                    record.setField( EZProxyBatchRecord.FIELD_PAGE_ID, imported.getId() );
+                }
+                else
+                {
+                    record.setField( EZProxyBatchRecord.FIELD_ACTION, EZProxyBatchRecord.Action.CREATE.name() );
+                }
+                return check( site, record );
+            }
+
+            return "No EZProxy link found for ID: " + record.getSiteID() + EZProxyEntityProvider.ENTITY_SITE_ID_PAGE_ID_SEPERATOR
+                    + record.getPageID();
+        }
+
+        if( action != EZProxyBatchRecord.Action.DELETE && record.getSourceURL() != null
+                && !SourceURLValidator.isValid( SourceURLValidator.normalize( record.getSourceURL() ) ) )
+        {
+            return "Invalid source URL: " + record.getSourceURL();
+        }
+
+        return null;
+    }
+
+    /**
+     * Apply a (checked) record to the site in memory
+     * @return the ID of the page of the link
+     */
+    private static String applyRecord( Site site, EZProxyBatchRecord record )
+    {
+        SitePage page;
+        switch( record.getAction() )
+        {
+            case DELETE:
+                page = findEZProxyPage( site, record.getPageID() );
+                site.removePage( page );
+                return page.getId();
+
+            case CREATE:
+                page = site.addPage();
+                page.addTool( EZProxyConstants.TOOL_REG_NAME );
+                if( record.getPageID() != null )
+                {
+                    page.getPropertiesEdit().addProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_PAGE_ID, record.getPageID() );
+                }
+                break;
+
+            default:
+                page = findEZProxyPage( site, record.getPageID() );
+        }
+
+        if( record.getTitle() != null )
+        {
+            page.setTitleCustom( true );
+            page.setTitle( record.getTitle() );
+            for( ToolConfiguration tool : page.getTools() )
+            {
+                tool.setTitle( record.getTitle() );
+            }
+        }
+
+        // Store the source URL as saving the options page would (normalised, with its validity flag), and put in
+        // some dummy data for an empty customHeight field (won't save an empty string)
+        ResourcePropertiesEdit props = page.getPropertiesEdit();
+        if( record.getSourceURL() != null )
+        {
+            props.addProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL, SourceURLValidator.normalize( record.getSourceURL() ) );
+            props.addProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL_VALID, Boolean.TRUE.toString() );
+        }
+        if( record.getFrameHeight() != null )
+        {
+            props.addProperty( EZProxyConstants.EZPROXY_PROP_FRAME_HEIGHT, record.getFrameHeight() );
+        }
+        if( record.getCustomHeight() != null || props.getProperty( EZProxyConstants.EZPROXY_PROP_CUSTOM_HEIGHT ) == null )
+        {
+            props.addProperty( EZProxyConstants.EZPROXY_PROP_CUSTOM_HEIGHT, ( record.getCustomHeight() != null )
+                    ? record.getCustomHeight()
+                    : EZProxyConstants.EZPROXY_PROP_VALUE_NOT_APPLICABLE );
+        }
+        if( record.getNewWindow() != null || props.getProperty( EZProxyConstants.EZPROXY_PROP_NEW_WINDOW ) == null )
+        {
+            props.addProperty( EZProxyConstants.EZPROXY_PROP_NEW_WINDOW, Boolean.toString( Boolean.TRUE.equals( record.getNewWindow() ) ) );
+        }
+
+        return page.getId();
+    }
+
+    /**
+     * Find a page of the site that holds an EZProxy link
+     * @return the page, or null if the site has no such page, or it has no EZProxy link
+     */
+    private static SitePage findEZProxyPage( Site site, String pageID )
+    {
+        SitePage page = ( pageID != null ) ? site.getPage( pageID ) : null;
+        if( page != null )
+        {
+            for( ToolConfiguration tool : page.getTools() )
+            {
+                if( EZProxyConstants.TOOL_REG_NAME.equals( tool.getToolId() ) )
+                {
+                    return page;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Find the EZProxy page of the site that was created for a link with the given page ID (by an earlier import, or
+     * an earlier record of this batch)
+     * @return the page, or null if there is none
+     */
+    private static SitePage findImportedPage( Site site, String sourcePageID )
+    {
+        for( ToolConfiguration tool : site.getTools( EZProxyConstants.TOOL_REG_NAME ) )
+        {
+            SitePage page = tool.getContainingPage();
+            ResourceProperties props = ( page != null ) ? page.getProperties() : null;
+            if( props != null && sourcePageID.equals( props.getProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_PAGE_ID ) ) )
+            {
+                return page;
+            }
+        }
+
+        return null;
+    }
+
+    private void fail( EZProxyBatchRecord record, String message )
+    {
+        record.failed( message );
+        ++failed;
+    }
+
+    private void failAll( List<EZProxyBatchRecord> records, String message )
+    {
+        for( EZProxyBatchRecord record : records )
+        {
+            fail( record, message );
+        }
+    }
+
+    /**
+     * Make updates of links that don't exist create a new link in the site instead (with a new page ID), e.g. when
+     * importing links exported from another instance; later updates of the same missing link change the created one
+     * @param createMissing true to create missing links
+     */
+    public void setCreateMissing( boolean createMissing )
+    {
+        this.createMissing = createMissing;
+    }
+
+    // Getters
+    public int getSitesSaved()  { return sitesSaved; }
+    public int getSucceeded()   { return succeeded; }
+    public int getFailed()      { return failed; }
+
+    /**
+     * Returns a string representation of the batch outcome.
+     * @return the string representation of the outcome
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append( "{ sitesSaved=" ).append( sitesSaved ).append( ", succeeded=" ).append( succeeded ).append( ", failed=" )
+            .append( failed ).append( " }" );
+        return b.toString();
+    }
+}
@@ -1,22 +1,31 @@
 package ca.uwo.owl.ezproxy.logic.entity;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import lombok.Getter;
 import lombok.Setter;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.commons.validator.routines.UrlValidator;
 import org.sakaiproject.authz.api.SecurityService;
-import org.sakaiproject.component.cover.ServerConfigurationService;
 import org.sakaiproject.entity.api.ResourceProperties;
 import org.sakaiproject.entitybroker.EntityReference;
 import org.sakaiproject.entitybroker.EntityView;
@@ -25,6 +34,7 @@ import org.sakaiproject.entitybroker.entityprovider.annotations.EntityCustomActi
 import org.sakaiproject.entitybroker.entityprovider.annotations.EntityURLRedirect;
 import org.sakaiproject.entitybroker.entityprovider.capabilities.ActionsExecutable;
 import org.sakaiproject.entitybroker.entityprovider.capabilities.AutoRegisterEntityProvider;
+import org.sakaiproject.entitybroker.entityprovider.capabilities.OutputFormattable;
 import org.sakaiproject.entitybroker.entityprovider.capabilities.Outputable;
 import org.sakaiproject.entitybroker.entityprovider.capabilities.PropertyProvideable;
 import org.sakaiproject.entitybroker.entityprovider.capabilities.RESTful;
@@ -32,9 +42,14 @@ import org.sakaiproject.entitybroker.entityprovider.capabilities.Redirectable;
 import org.sakaiproject.entitybroker.entityprovider.capabilities.RequestAware;
 import org.sakaiproject.entitybroker.entityprovider.capabilities.Resolvable;
 import org.sakaiproject.entitybroker.entityprovider.extension.ActionReturn;
+import org.sakaiproject.entitybroker.entityprovider.extension.EntityData;
 import org.sakaiproject.entitybroker.entityprovider.extension.Formats;
 import org.sakaiproject.entitybroker.entityprovider.extension.RequestGetter;
+import org.sakaiproject.entitybroker.entityprovider.search.Restriction;
 import org.sakaiproject.entitybroker.entityprovider.search.Search;
+import org.sakaiproject.entitybroker.exception.EntityNotFoundException;
+import org.sakaiproject.entitybroker.exception.FormatUnsupportedException;
+import org.sakaiproject.event.api.EventTrackingService;
 import org.sakaiproject.exception.IdUnusedException;
 import org.sakaiproject.site.api.Site;
 import org.sakaiproject.site.api.SitePage;
@@ -42,9 +57,14 @@ import org.sakaiproject.site.api.SiteService;
 import org.sakaiproject.site.api.ToolConfiguration;
 import org.sakaiproject.tool.api.SessionManager;
 import org.sakaiproject.user.api.UserDirectoryService;
+import org.sakaiproject.user.api.UserNotDefinedException;
 import org.sakaiproject.util.ResourceLoader;
 
-import ca.uwo.owl.ezproxy.logic.SharedSecretAuth;
+import ca.uwo.owl.ezproxy.logic.BatchLaunchURLGenerator;
+import ca.uwo.owl.ezproxy.logic.SakaiProxy;
+import ca.uwo.owl.ezproxy.logic.SourceURLValidator;
+import ca.uwo.owl.ezproxy.logic.URLRewriteJob;
+import ca.uwo.owl.ezproxy.logic.URLRewriteRule;
 import ca.uwo.owl.ezproxy.utilities.EZProxyConstants;
 
 /**
@@ -53,22 +73,21 @@ import ca.uwo.owl.ezproxy.utilities.EZProxyConstants;
  * @author Brian Jones (bjones86@uwo.ca)
  */
 public class EZProxyEntityProviderImpl implements EZProxyEntityProvider, CoreEntityProvider, AutoRegisterEntityProvider, RequestAware, 
-                                    PropertyProvideable, Resolvable, Outputable, RESTful, Redirectable, ActionsExecutable
+                                    PropertyProvideable, Resolvable, Outputable, OutputFormattable, RESTful, Redirectable, ActionsExecutable
 {
     // Class members
     private static final Log            LOG             = LogFactory.getLog( EZProxyEntityProviderImpl.class );     // The logger
-    private static final String         TOOL_PERM_NAME  = "ezproxy.configure";                                      // EZProxy configuration permission name
-    private static final String         TOOL_REG_NAME   = "sakai.ezproxy";                                          // The name of the tool registration
-    private static final String         SERVICE_URL     = ServerConfigurationService.getString( "ezproxy.url" );    // The EZProxy service URL
-    private static final String         SHARED_SECRET   = ServerConfigurationService.getString( "ezproxy.secret" ); // The EZProxy shared secret
-    private static final String[]       SCHEMES         = { EZProxyConstants.URL_PROTOCOL_HTTP, EZProxyConstants.URL_PROTOCOL_HTTPS }; // The list of valid protocols for URL validation
-    private static final UrlValidator   URL_VALIDATOR   = new UrlValidator( SCHEMES );                              // The URL validator object
-    private static List<String>         allowedRoles    = new ArrayList<>();                                  // The list of allowed roles from sakai.properties
+    private static final String         CURSOR_HEADER   = "X-EZProxy-Cursor";                                       // The response header giving the cursor of the next page of a listing
+    private static final int            DEFAULT_IMPORT_BATCH_SIZE   = 500;                                          // The default number of records applied at a time by an import
+    private static final int            MAX_IMPORT_BATCH_SIZE       = 5000;                                         // The maximum number of records applied at a time by an import
 
-    private static final String SAK_PROP_ALLOWED_ROLES = "ezproxy.allow.view";
+    // The compiled viewHTML templates of each locale
+    private static final ConcurrentMap<Locale, HTMLTemplates> HTML_TEMPLATES = new ConcurrentHashMap<>();
 
     // Instance members
-    private final ResourceLoader resourceLoader = new ResourceLoader( "messages" );
+    private final ResourceLoader        resourceLoader  = new ResourceLoader( "messages" );     // The message bundle
+    private final NegativeLookupCache   missingIDs      = new NegativeLookupCache();            // Recently looked up site and entity IDs that don't exist
+    private volatile URLRewriteJob      rewriteJob;                                             // The current (or last) URL rewrite job
 
     /**
      * {@inheritDoc}
@@ -101,60 +120,197 @@ public class EZProxyEntityProviderImpl implements EZProxyEntityProvider, CoreEnt
             // If the siteID and userID are NOT null...
             if( siteID != null && userID != null )
             {
-                try
+                // If the siteID and userID are the same, it's really trying to access the user's My Workspace, so we need to prepend '~' to the siteID
+                if( siteID.equals( userID ) )
+                {
+                    siteID = "~" + siteID;
+                }
+
+                // Get the site, verify it exists (unknown sites are remembered for a while, and are not an error)
+                Site site = findSite( siteID );
+                if( site != null )
                 {
-                    // If the siteID and userID are the same, it's really trying to access the user's My Workspace, so we need to prepend '~' to the siteID
-                    if( siteID.equals( userID ) )
+                    // Check to make sure the current user has 'ezproxy.configure" permission for the site
+                    if( !securityService.unlock( userID, EZProxyConstants.TOOL_PERM_NAME, siteService.siteReference( siteID ) ) )
                     {
-                        siteID = "~" + siteID;
+                        // Log the message that this user doesn't have the permision for the site, return an empty list
+                        LOG.error( "User (" + userID + ") does not have permission (" + EZProxyConstants.TOOL_PERM_NAME + ") for site: " + siteID );
+                        return retVal;
                     }
 
-                    // Get the site, verify it exists
-                    Site site = siteService.getSite( siteID );
-                    if( site != null )
+                    // Loop through a list of EZProxy instances in this site, reading each page's properties from the site we already have
+                    Collection<ToolConfiguration> ezproxyLinks = site.getTools( EZProxyConstants.TOOL_REG_NAME );
+                    for( ToolConfiguration config : ezproxyLinks )
                     {
-                        // Check to make sure the current user has 'ezproxy.configure" permission for the site
-                        if( !securityService.unlock( userID, TOOL_PERM_NAME, siteService.siteReference( siteID ) ) )
+                        // Get the page that contains this EZProxy instance
+                        SitePage page = config.getContainingPage();
+                        if( page != null )
                         {
-                            // Log the message that this user doesn't have the permision for the site, return an empty list
-                            LOG.error( "User (" + userID + ") does not have permission (" + TOOL_PERM_NAME + ") for site: " + siteID );
-                            return retVal;
-                        }
-
-                        // Loop through a list of EZProxy instances in this site
-                        Collection<ToolConfiguration> ezproxyLinks = site.getTools( TOOL_REG_NAME );
-                        for( ToolConfiguration config : ezproxyLinks )
-                        {
-                            // Get the page that contains this EZProxy instance
-                            SitePage page = config.getContainingPage();
-                            if( page != null )
+                            // Get the properties for this EZProxy instance
+                            ResourceProperties props = page.getProperties();
+                            if( props != null )
                             {
-                                // Get the properties for this EZProxy instance
-                                ResourceProperties props = page.getProperties();
-                                if( props != null )
+                                // If the sourceURL for this EZProxy instance is NOT null, NOT 'n/a', NOT 'https://' AND NOT 'http://',
+                                // this instance has been initialized with a valid URL, so add it to the list of entity refs to return
+                                if( isValidSourceURL( props ) )
                                 {
-                                    // Create the ref string
-                                    String refString = "/" + ENTITY_PREFIX + "/" + siteID + EZProxyEntityProvider.ENTITY_SITE_ID_PAGE_ID_SEPERATOR + page.getId();
-
-                                    // If the sourceURL for this EZProxy instance is NOT null, NOT 'n/a', NOT 'https://' AND NOT 'http://',
-                                    // this instance has been initialized with a valid URL, so add it to the list of entity refs to return
-                                    String sourceURL = getPropertyValue( refString, EZPROXY_ENTITY_URL );
-                                    if( sourceURL != null && URL_VALIDATOR.isValid( sourceURL ) )
-                                    {
-                                        retVal.add( refString );
-                                    }
+                                    retVal.add( new EZProxyEntityId( siteID, page.getId() ).getReference() );
                                 }
                             }
                         }
                     }
                 }
-                catch( IdUnusedException ex ) { throw new IllegalArgumentException( "No site found for site ID: " + siteID + " : " + ex.getMessage() ); }
             }
         }
 
         return retVal;
     }
 
+    /**
+     * Lists EZProxy links, honouring these search restrictions:
+     * <ul>
+     * <li>site (or context) - only the links in this site; without it every site is walked, which only super users may do</li>
+     * <li>user (or userId) - the user whose 'ezproxy.configure' permission for the site is checked (the current user by default);
+     *     only super users may name another user</li>
+     * <li>url (or urlPrefix) - only links whose source URL starts with this prefix</li>
+     * <li>cursor - when every site is walked, where to carry on from: the cursor returned with the previous page</li>
+     * </ul>
+     * plus the search limit and start (offset). Only links with a valid source URL are listed, as in findEntityRefs.
+     * Links are read one site at a time, and the walk stops as soon as the requested page is full.
+     * 
+     * When every site is walked, links are listed in site ID order, then page ID order. If there are more links, the
+     * cursor of the next page (the ID of the last link returned) is returned in the X-EZProxy-Cursor response header.
+     * Passing it back resumes the walk right after that link, so pulling a large listing a page at a time costs one
+     * walk over the sites in total, where start (offset) has to walk past every earlier link again. As the cursor is
+     * a link rather than a position, sites created or removed between pages don't cause links to be skipped or
+     * repeated (sites created before the cursor are not listed).
+     * 
+     * @param ref the entity reference (prefix only)
+     * @param search the search restrictions, limit and start
+     * @return the requested page of EZProxyEntity objects
+     */
+    @Override
+    public List<?> getEntities( EntityReference ref, Search search )
+    {
+        LOG.debug( "getEntities()" );
+
+        String siteID = getRestrictionValue( search, "site", "context" );
+        String userID = getRestrictionValue( search, "user", "userId" );
+        String urlPrefix = getRestrictionValue( search, "url", "urlPrefix" );
+        long offset = ( search != null ) ? Math.max( 0, search.getStart() ) : 0;
+        long limit = ( search != null && search.getLimit() > 0 ) ? search.getLimit() : Long.MAX_VALUE;
+        String cursor = getRestrictionValue( search, "cursor" );
+        EZProxyEntityId after = ( cursor != null ) ? EZProxyEntityId.parse( cursor ) : null;
+        if( cursor != null && after == null )
+        {
+            throw new IllegalArgumentException( "Invalid cursor: " + cursor );
+        }
+
+        String currentUserID = sessionManager.getCurrentSessionUserId();
+        boolean superUser = securityService.isSuperUser();
+        if( userID == null )
+        {
+            userID = currentUserID;
+        }
+        else if( !superUser && !userID.equals( currentUserID ) )
+        {
+            throw new SecurityException( "Only super users may list EZProxy links for another user" );
+        }
+
+        EZProxyToolIterator tools;
+        if( siteID != null )
+        {
+            // If the siteID and userID are the same, it's really trying to access the user's My Workspace
+            if( siteID.equals( userID ) )
+            {
+                siteID = "~" + siteID;
+            }
+
+            if( !securityService.unlock( userID, EZProxyConstants.TOOL_PERM_NAME, siteService.siteReference( siteID ) ) )
+            {
+                throw new SecurityException( "User (" + userID + ") does not have permission (" + EZProxyConstants.TOOL_PERM_NAME + ") for site: " + siteID );
+            }
+
+            try { tools = new EZProxyToolIterator( siteService, siteID ); }
+            catch( IdUnusedException ex ) { throw new IllegalArgumentException( "No site found for site ID: " + siteID + " : " + ex.getMessage() ); }
+        }
+        else if( superUser )
+        {
+            tools = ( after != null ) ? new EZProxyToolIterator( siteService, after.getSiteID(), after.getPageID() ) : new EZProxyToolIterator( siteService );
+        }
+        else
+        {
+            throw new SecurityException( "Only super users may list the EZProxy links of every site" );
+        }
+
+        // Walk the links (after the cursor), skipping up to the offset, and stopping at the first link that doesn't
+        // fit on the page
+        List<EZProxyEntity> retVal = new ArrayList<>( (int) Math.min( limit, 1000 ) );
+        long skipped = 0;
+        boolean more = false;
+        while( tools.hasNext() )
+        {
+            ToolConfiguration config = tools.next();
+            SitePage page = config.getContainingPage();
+            ResourceProperties props = ( page != null ) ? page.getProperties() : null;
+            if( props == null )
+            {
+                continue;
+            }
+
+            String sourceURL = props.getProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL );
+            if( !isValidSourceURL( props ) || ( urlPrefix != null && !sourceURL.startsWith( urlPrefix ) ) )
+            {
+                continue;
+            }
+
+            if( skipped < offset )
+            {
+                ++skipped;
+                continue;
+            }
+
+            if( retVal.size() >= limit )
+            {
+                more = true;
+                break;
+            }
+
+            retVal.add( getEZProxyEntity( tools.getCurrentSite(), page, config ) );
+        }
+
+        if( siteID == null && more && requestGetter != null && requestGetter.getResponse() != null )
+        {
+            requestGetter.getResponse().setHeader( CURSOR_HEADER, retVal.get( retVal.size() - 1 ).getId() );
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Get the value of the first of the named search restrictions that is present
+     * 
+     * @param search the search (may be null)
+     * @param names the names of the restriction, in order of preference
+     * @return the restriction value, or null if none of them are present
+     */
+    private static String getRestrictionValue( Search search, String... names )
+    {
+        if( search != null )
+        {
+            for( String name : names )
+            {
+                Restriction restriction = search.getRestrictionByProperty( name );
+                if( restriction != null && restriction.getStringValue() != null && !restriction.getStringValue().isEmpty() )
+                {
+                    return restriction.getStringValue();
+                }
+            }
+        }
+
+        return null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -176,8 +332,8 @@ public class EZProxyEntityProviderImpl implements EZProxyEntityProvider, CoreEnt
         else
         {
             // Get the ID and the entity
-            String id = reference.replaceAll("/" + ENTITY_PREFIX + "/", "" );
-            EZProxyEntity entity = getEZProxyEntity( id );
+            EZProxyEntityId id = EZProxyEntityId.parse( reference );
+            EZProxyEntity entity = ( id != null ) ? getEZProxyEntity( id ) : null;
 
             // If the entity is not null, get the properties
             if( entity != null )
@@ -230,14 +386,49 @@ public class EZProxyEntityProviderImpl implements EZProxyEntityProvider, CoreEnt
                 throw new IllegalArgumentException( "You must supply a valid EntityReference" );
             }
 
-            // Otherwise get the entity
-            else if( isCurrentUserViewAuth() )
+            // Data formats (json, xml) get the entity itself, written by formatOutput(), for users who may configure
+            // the EZProxy links of its site (as for getEntities)
+            else if( EZProxyEntityWriter.isHandled( getRequestedFormat() ) )
+            {
+                EZProxyEntityId id = EZProxyEntityId.parse( ref.getId() );
+                if( id == null )
+                {
+                    return null;
+                }
+
+                if( !securityService.unlock( EZProxyConstants.TOOL_PERM_NAME, siteService.siteReference( id.getSiteID() ) ) )
+                {
+                    throw new SecurityException( "User (" + sessionManager.getCurrentSessionUserId() + ") does not have permission ("
+                                                 + EZProxyConstants.TOOL_PERM_NAME + ") for site: " + id.getSiteID() );
+                }
+
+                return getEZProxyEntity( id );
+            }
+
+            // Otherwise resolve, authorise and sign the launch once, and send the user straight to EZProxy
+            else if( sakaiProxy.isCurrentUserViewAuth() )
             {
-                requestGetter.getResponse().sendRedirect( "/direct/" + ENTITY_PREFIX + "/" + ref.getId() + "/redirect" );
+                EZProxyEntity entity = getEZProxyEntity( ref.getId() );
+                if( entity == null )
+                {
+                    throw notFound( ref.getId() );
+                }
+
+                String finalURL = generateFinalEZProxyURL( entity, sessionManager.getCurrentSession().getUserEid() );
+                if( !finalURL.isEmpty() )
+                {
+                    requestGetter.getResponse().sendRedirect( finalURL );
+                }
+                else
+                {
+                    writeHTML( entity );
+                }
             }
+
+            // Users who may not view EZProxy links get the explanation inline (no need to look the link up)
             else
             {
-                requestGetter.getResponse().sendRedirect( "/direct/" + ENTITY_PREFIX + "/" + ref.getId() + "/viewHTML" );
+                writeHTML( null );
             }
         }
         catch( IOException ex ) { LOG.error( ex ); }
@@ -245,6 +436,596 @@ public class EZProxyEntityProviderImpl implements EZProxyEntityProvider, CoreEnt
         return ref;
     }
 
+    /**
+     * Write the HTML describing an EZProxy entity (see {@link #writeEZProxyEntityHTML(Writer, EZProxyEntity)}) to the response
+     * 
+     * @param entity the EZProxy entity; may be null if the current user is not allowed to view EZProxy links
+     * @throws IOException if the response cannot be written
+     */
+    private void writeHTML( EZProxyEntity entity ) throws IOException
+    {
+        HttpServletResponse response = requestGetter.getResponse();
+        response.setContentType( Formats.HTML_MIME_TYPE );
+        response.setCharacterEncoding( Formats.UTF_8 );
+
+        Writer writer = response.getWriter();
+        writeEZProxyEntityHTML( writer, entity );
+        writer.flush();
+    }
+
+    /**
+     * Writes single entities, getEntities collections and findEntityRefs results as JSON or XML, streaming them
+     * straight to the response
+     * 
+     * @param ref the entity reference requested (without an ID for collections)
+     * @param format the format requested
+     * @param entities the entities to write
+     * @param params the request parameters
+     * @param output the stream to write to
+     */
+    @Override
+    public void formatOutput( EntityReference ref, String format, List<EntityData> entities, Map<String, Object> params, OutputStream output )
+    {
+        LOG.debug( "formatOutput()" );
+
+        if( !EZProxyEntityWriter.isHandled( format ) )
+        {
+            throw new FormatUnsupportedException( "Format not handled by the EZProxy provider", ref.toString(), format );
+        }
+
+        try
+        {
+            Writer writer = new BufferedWriter( new OutputStreamWriter( output, StandardCharsets.UTF_8 ) );
+            new EZProxyEntityWriter( writer ).write( format, entities != null ? entities : Collections.<EntityData>emptyList(), ref.getId() == null );
+        }
+        catch( IOException ex ) { throw new IllegalStateException( "Unable to write " + format + " output for " + ref, ex ); }
+    }
+
+    /**
+     * Get the format requested by the current request, from the extension of its path (e.g. /direct/ezproxy/siteID:pageID.json)
+     * 
+     * @return the format (lower case), or null if there is no extension
+     */
+    private String getRequestedFormat()
+    {
+        HttpServletRequest request = ( requestGetter != null ) ? requestGetter.getRequest() : null;
+        String path = ( request != null ) ? request.getPathInfo() : null;
+        if( path == null )
+        {
+            return null;
+        }
+
+        int dot = path.lastIndexOf( '.' );
+        return ( dot > path.lastIndexOf( '/' ) ) ? path.substring( dot + 1 ).toLowerCase( Locale.ROOT ) : null;
+    }
+
+    /**
+     * Creates an EZProxy link (a new page holding the EZProxy tool) in the entity's site. The entity supplies the site ID,
+     * title and source URL; the frame height, custom height and new window settings are taken from the request parameters
+     * (frameHeight, customHeight, newWindow).
+     * 
+     * @param ref the entity reference (prefix only)
+     * @param entity the EZProxyEntity to create
+     * @param params the request parameters
+     * @return the ID of the new link (siteID:pageID)
+     */
+    @Override
+    public String createEntity( EntityReference ref, Object entity, Map<String, Object> params )
+    {
+        LOG.debug( "createEntity()" );
+
+        EZProxyBatchRecord record = toBatchRecord( EZProxyBatchRecord.Action.CREATE, null, entity, params );
+        applyRecord( record );
+        return record.getId();
+    }
+
+    /**
+     * Updates an EZProxy link; only the fields supplied (by the entity, or the frameHeight, customHeight and newWindow
+     * request parameters) are changed
+     * 
+     * @param ref the entity reference (siteID:pageID)
+     * @param entity the EZProxyEntity holding the changes
+     * @param params the request parameters
+     */
+    @Override
+    public void updateEntity( EntityReference ref, Object entity, Map<String, Object> params )
+    {
+        LOG.debug( "updateEntity()" );
+
+        applyRecord( toBatchRecord( EZProxyBatchRecord.Action.UPDATE, ref.getId(), entity, params ) );
+    }
+
+    /**
+     * Deletes an EZProxy link (the page holding it)
+     * 
+     * @param ref the entity reference (siteID:pageID)
+     * @param params the request parameters
+     */
+    @Override
+    public void deleteEntity( EntityReference ref, Map<String, Object> params )
+    {
+        LOG.debug( "deleteEntity()" );
+
+        applyRecord( toBatchRecord( EZProxyBatchRecord.Action.DELETE, ref.getId(), null, params ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getHandledInputFormats()
+    {
+        LOG.debug( "getHandledInputFormats()" );
+
+        return EZProxyEntityProvider.HANDLED_INPUT_FORMATS;
+    }
+
+    /**
+     * Sets the source URL (exproxyURL) or the title (title, pageTitle or toolTitle; the page and tool titles are kept
+     * the same) of an EZProxy link
+     * 
+     * @param reference the entity reference (/ezproxy/siteID:pageID)
+     * @param name the name of the property
+     * @param value the new value
+     */
+    @Override
+    public void setPropertyValue( String reference, String name, String value )
+    {
+        LOG.debug( "setPropertyValue()" );
+
+        String field;
+        if( EZPROXY_ENTITY_URL.equals( name ) )
+        {
+            field = EZProxyBatchRecord.FIELD_SOURCE_URL;
+        }
+        else if( EZPROXY_ENTITY_TITLE.equals( name ) || EZPROXY_ENTITY_PAGE_TITLE.equals( name ) || EZPROXY_ENTITY_TOOL_TITLE.equals( name ) )
+        {
+            field = EZProxyBatchRecord.FIELD_TITLE;
+        }
+        else
+        {
+            throw new IllegalArgumentException( "The property " + name + " can't be set" );
+        }
+
+        EZProxyBatchRecord record = toBatchRecord( EZProxyBatchRecord.Action.UPDATE, reference, null, null );
+        record.setField( field, value );
+        applyRecord( record );
+    }
+
+    /**
+     * Creates, updates and deletes many EZProxy links at once, e.g. POST /direct/ezproxy/batch.json or /direct/ezproxy/batch.csv.
+     * The request body holds the records (see {@link EZProxyBatchReader}): action (create, update or delete), siteID,
+     * pageID, sourceURL, frameHeight, customHeight, newWindow and title. Each site is loaded and saved once, and the
+     * outcome of every record is written back in the same format.
+     * 
+     * @param ref the EntityReference object requested (prefix only)
+     * @param out the stream to write the outcome to
+     * @return the action return wrapping the written stream
+     */
+    @EntityCustomAction( action = "batch", viewKey = EntityView.VIEW_NEW )
+    public ActionReturn batch( EntityReference ref, OutputStream out )
+    {
+        LOG.debug( "batch()" );
+
+        HttpServletRequest request = requestGetter.getRequest();
+        String format = getRequestedFormat();
+        if( format == null )
+        {
+            String contentType = request.getContentType();
+            format = ( contentType != null && contentType.toLowerCase( Locale.ROOT ).startsWith( "text/csv" ) ) ? EZProxyBatchReader.CSV : Formats.JSON;
+        }
+        if( !EZProxyBatchReader.isHandled( format ) )
+        {
+            throw new FormatUnsupportedException( "Batches must be JSON or CSV", ref.toString(), format );
+        }
+
+        try
+        {
+            List<EZProxyBatchRecord> records = new EZProxyBatchReader( request.getReader(), format ).readAll();
+            EZProxyBatchUpdater updater = applyBatch( records );
+            LOG.info( "Applied a batch of " + records.size() + " EZProxy link changes: " + updater );
+
+            Writer writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+            new EZProxyEntityWriter( writer ).writeBatchResults( format, records );
+        }
+        catch( IOException ex ) { throw new IllegalStateException( "Unable to process the batch of EZProxy links", ex ); }
+
+        return new ActionReturn( Formats.UTF_8, Formats.JSON.equals( format ) ? Formats.JSON_MIME_TYPE : "text/csv", out );
+    }
+
+    /**
+     * Streams the configuration of every EZProxy link in every site, e.g. GET /direct/ezproxy/export?format=csv.
+     * Records are written as newline delimited JSON (the default) or CSV, in the form read by the import and batch
+     * actions, as the sites are walked one at a time, so the export is never held in memory. Only available to super users.
+     * 
+     * @param ref the EntityReference object requested (prefix only)
+     * @param out the stream to write the export to
+     * @param params the request parameters (format: ndjson or csv)
+     * @return the action return wrapping the written stream
+     */
+    @EntityCustomAction( action = "export", viewKey = EntityView.VIEW_LIST )
+    public ActionReturn exportLinks( EntityReference ref, OutputStream out, Map<String, Object> params )
+    {
+        LOG.debug( "exportLinks()" );
+
+        if( !securityService.isSuperUser() )
+        {
+            throw new SecurityException( "Only super users may export the EZProxy links of every site" );
+        }
+
+        String format = getParameter( params, "format" );
+        boolean csv = EZProxyBatchReader.CSV.equalsIgnoreCase( format );
+        if( format != null && !csv && !EZProxyBatchReader.NDJSON.equalsIgnoreCase( format ) )
+        {
+            throw new FormatUnsupportedException( "Exports must be ndjson or csv", ref.toString(), format );
+        }
+        format = csv ? EZProxyBatchReader.CSV : EZProxyBatchReader.NDJSON;
+
+        long start = System.currentTimeMillis();
+        int count = 0;
+        try
+        {
+            requestGetter.getResponse().setHeader( "Content-Disposition", "attachment; filename=\"ezproxy-links." + format + "\"" );
+            Writer writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+            EZProxyEntityWriter exportWriter = new EZProxyEntityWriter( writer );
+            exportWriter.writeExportHeading( format );
+
+            EZProxyToolIterator tools = new EZProxyToolIterator( siteService );
+            while( tools.hasNext() )
+            {
+                SitePage page = tools.next().getContainingPage();
+                ResourceProperties props = ( page != null ) ? page.getProperties() : null;
+                if( props == null || props.getProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL ) == null )
+                {
+                    continue;
+                }
+
+                exportWriter.writeExportRecord( format, EZProxyBatchRecord.Action.UPDATE.name().toLowerCase( Locale.ROOT ),
+                        tools.getCurrentSite().getId(), page.getId(), page.getTitle(),
+                        props.getProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL ),
+                        props.getProperty( EZProxyConstants.EZPROXY_PROP_FRAME_HEIGHT ),
+                        props.getProperty( EZProxyConstants.EZPROXY_PROP_CUSTOM_HEIGHT ),
+                        props.getProperty( EZProxyConstants.EZPROXY_PROP_NEW_WINDOW ) );
+                ++count;
+            }
+            writer.flush();
+        }
+        catch( IOException ex ) { throw new IllegalStateException( "Unable to write the EZProxy link export", ex ); }
+
+        LOG.info( "Exported " + count + " EZProxy links in " + ( System.currentTimeMillis() - start ) + "ms" );
+        return new ActionReturn( Formats.UTF_8, csv ? "text/csv" : "application/x-ndjson", out );
+    }
+
+    /**
+     * Applies an export (or any batch) of EZProxy link records in chunks, e.g.
+     * POST /direct/ezproxy/import?format=csv&amp;batchSize=500&amp;resumeFrom=0&amp;createMissing=true.
+     * The request body is read as a stream, one chunk (batchSize records, 500 by default) at a time, and each chunk is
+     * applied with one save per site. The outcome of every record is streamed back as newline delimited JSON, followed
+     * after each chunk by a checkpoint line giving the index of the next record. If an import is interrupted, it can be
+     * resumed by posting the same input again with resumeFrom set to the last checkpoint; the records before it are skipped.
+     * With createMissing, updates of links that don't exist create them, for importing into another instance.
+     * Only available to super users.
+     * 
+     * @param ref the EntityReference object requested (prefix only)
+     * @param out the stream to write the outcome to
+     * @param params the request parameters (format, batchSize, resumeFrom, createMissing)
+     * @return the action return wrapping the written stream
+     */
+    @EntityCustomAction( action = "import", viewKey = EntityView.VIEW_NEW )
+    public ActionReturn importLinks( EntityReference ref, OutputStream out, Map<String, Object> params )
+    {
+        LOG.debug( "importLinks()" );
+
+        if( !securityService.isSuperUser() )
+        {
+            throw new SecurityException( "Only super users may import EZProxy links" );
+        }
+
+        HttpServletRequest request = requestGetter.getRequest();
+        String format = getParameter( params, "format" );
+        if( format == null )
+        {
+            String contentType = request.getContentType();
+            format = ( contentType != null && contentType.toLowerCase( Locale.ROOT ).startsWith( "text/csv" ) ) ? EZProxyBatchReader.CSV : EZProxyBatchReader.NDJSON;
+        }
+        if( !EZProxyBatchReader.isHandled( format ) )
+        {
+            throw new FormatUnsupportedException( "Imports must be ndjson, json or csv", ref.toString(), format );
+        }
+
+        int batchSize = Math.min( MAX_IMPORT_BATCH_SIZE, Math.max( 1, parseInt( getParameter( params, "batchSize" ), DEFAULT_IMPORT_BATCH_SIZE ) ) );
+        int resumeFrom = Math.max( 0, parseInt( getParameter( params, "resumeFrom" ), 0 ) );
+        boolean createMissing = Boolean.parseBoolean( getParameter( params, "createMissing" ) );
+
+        int succeeded = 0;
+        int failed = 0;
+        try
+        {
+            EZProxyBatchReader reader = new EZProxyBatchReader( request.getReader(), format );
+            Writer writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+            EZProxyEntityWriter resultWriter = new EZProxyEntityWriter( writer );
+            List<EZProxyBatchRecord> chunk = new ArrayList<>( batchSize );
+            EZProxyBatchRecord record;
+            do
+            {
+                record = reader.next();
+                if( record != null && record.getIndex() >= resumeFrom )
+                {
+                    chunk.add( record );
+                }
+
+                if( chunk.size() >= batchSize || ( record == null && !chunk.isEmpty() ) )
+                {
+                    EZProxyBatchUpdater updater = applyBatch( chunk, createMissing );
+                    succeeded += updater.getSucceeded();
+                    failed += updater.getFailed();
+                    for( EZProxyBatchRecord applied : chunk )
+                    {
+                        resultWriter.writeBatchResultLine( applied );
+                    }
+
+                    int next = chunk.get( chunk.size() - 1 ).getIndex() + 1;
+                    resultWriter.writeCheckpoint( next, succeeded, failed );
+                    LOG.info( "EZProxy link import checkpoint: next=" + next + ", succeeded=" + succeeded + ", failed=" + failed );
+                    chunk.clear();
+                }
+            }
+            while( record != null );
+            writer.flush();
+        }
+        catch( IOException ex ) { throw new IllegalStateException( "Unable to process the EZProxy link import", ex ); }
+
+        LOG.info( "Imported EZProxy links from record " + resumeFrom + ": succeeded=" + succeeded + ", failed=" + failed );
+        return new ActionReturn( Formats.UTF_8, "application/x-ndjson", out );
+    }
+
+    /**
+     * Starts a background job rewriting the source URLs of the EZProxy links in every site, e.g.
+     * POST /direct/ezproxy/rewrite?mode=host&amp;match=old.vendor.com&amp;replacement=new.vendor.com&amp;dryRun=false.
+     * Parameters:
+     * <ul>
+     * <li>mode (host, prefix or regex), match and replacement - the rewrite rule (see {@link URLRewriteRule})</li>
+     * <li>dryRun - true (the default) to only report the changes the job would make</li>
+     * <li>threads - the number of sites updated in parallel (4 by default, at most 16); the sites are walked on a single thread</li>
+     * <li>savesPerSecond - the maximum rate of site saves (unlimited by default)</li>
+     * <li>resumeFrom - the checkpoint (site ID) of an earlier cancelled or failed run to resume after</li>
+     * </ul>
+     * Only one job runs at a time. Only available to super users.
+     * 
+     * @param ref the EntityReference object requested (prefix only)
+     * @param out the stream to write the job status to
+     * @param params the request parameters
+     * @return the action return wrapping the written stream
+     */
+    @EntityCustomAction( action = "rewrite", viewKey = EntityView.VIEW_NEW )
+    public ActionReturn startURLRewrite( EntityReference ref, OutputStream out, Map<String, Object> params )
+    {
+        LOG.debug( "startURLRewrite()" );
+
+        if( !securityService.isSuperUser() )
+        {
+            throw new SecurityException( "Only super users may rewrite the EZProxy links of every site" );
+        }
+
+        URLRewriteRule rule = new URLRewriteRule( URLRewriteRule.Mode.parse( getParameter( params, "mode" ) ),
+                getParameter( params, "match" ), getParameter( params, "replacement" ) );
+        String dryRun = getParameter( params, "dryRun" );
+        URLRewriteJob job = new URLRewriteJob( rule, dryRun == null || Boolean.parseBoolean( dryRun ),
+                parseInt( getParameter( params, "threads" ), URLRewriteJob.DEFAULT_THREADS ), parseInt( getParameter( params, "savesPerSecond" ), 0 ),
+                getParameter( params, "resumeFrom" ), siteService, securityService, sessionManager, sakaiProxy );
+
+        synchronized( this )
+        {
+            if( rewriteJob != null && rewriteJob.isRunning() )
+            {
+                throw new IllegalStateException( "A URL rewrite job is already running: " + rewriteJob );
+            }
+            rewriteJob = job;
+            job.start();
+        }
+
+        return writeRewriteStatus( job, out );
+    }
+
+    /**
+     * Reports the progress of the current (or last) URL rewrite job, e.g. GET /direct/ezproxy/rewriteStatus,
+     * including its checkpoint and (up to a limit) the changes it made or, in a dry run, would make.
+     * Only available to super users.
+     * 
+     * @param ref the EntityReference object requested (prefix only)
+     * @param out the stream to write the job status to
+     * @return the action return wrapping the written stream
+     */
+    @EntityCustomAction( action = "rewriteStatus", viewKey = EntityView.VIEW_LIST )
+    public ActionReturn getURLRewriteStatus( EntityReference ref, OutputStream out )
+    {
+        LOG.debug( "getURLRewriteStatus()" );
+
+        if( !securityService.isSuperUser() )
+        {
+            throw new SecurityException( "Only super users may see the URL rewrite job" );
+        }
+
+        return writeRewriteStatus( rewriteJob, out );
+    }
+
+    /**
+     * Asks the current URL rewrite job to stop once its current wave of sites is done, e.g. POST /direct/ezproxy/rewriteCancel.
+     * Only available to super users.
+     * 
+     * @param ref the EntityReference object requested (prefix only)
+     * @param out the stream to write the job status to
+     * @return the action return wrapping the written stream
+     */
+    @EntityCustomAction( action = "rewriteCancel", viewKey = EntityView.VIEW_NEW )
+    public ActionReturn cancelURLRewrite( EntityReference ref, OutputStream out )
+    {
+        LOG.debug( "cancelURLRewrite()" );
+
+        if( !securityService.isSuperUser() )
+        {
+            throw new SecurityException( "Only super users may cancel the URL rewrite job" );
+        }
+
+        URLRewriteJob job = rewriteJob;
+        if( job != null )
+        {
+            job.cancel();
+        }
+
+        return writeRewriteStatus( job, out );
+    }
+
+    /**
+     * Write the status of a URL rewrite job as JSON
+     * 
+     * @param job the job (null for none)
+     * @param out the stream to write to
+     * @return the action return wrapping the written stream
+     */
+    private static ActionReturn writeRewriteStatus( URLRewriteJob job, OutputStream out )
+    {
+        try
+        {
+            Writer writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+            new EZProxyEntityWriter( writer ).writeJSONObject( ( job != null ) ? job.getStatus() : Collections.<String, Object>emptyMap() );
+        }
+        catch( IOException ex ) { throw new IllegalStateException( "Unable to write the URL rewrite job status", ex ); }
+
+        return new ActionReturn( Formats.UTF_8, Formats.JSON_MIME_TYPE, out );
+    }
+
+    /**
+     * Get a request parameter as a string
+     * 
+     * @param params the request parameters (may be null)
+     * @param name the name of the parameter
+     * @return the (first) value, or null if it is not present
+     */
+    private static String getParameter( Map<String, Object> params, String name )
+    {
+        Object value = ( params != null ) ? params.get( name ) : null;
+        if( value instanceof String[] )
+        {
+            value = ( (String[]) value ).length > 0 ? ( (String[]) value )[0] : null;
+        }
+
+        return ( value != null ) ? value.toString() : null;
+    }
+
+    /**
+     * Parse an integer parameter
+     * 
+     * @param value the value (may be null)
+     * @param dflt the default value if the value is missing or not a number
+     * @return the integer
+     */
+    private static int parseInt( String value, int dflt )
+    {
+        try { return ( value != null ) ? Integer.parseInt( value.trim() ) : dflt; }
+        catch( NumberFormatException ex ) { return dflt; }
+    }
+
+    /**
+     * Apply a batch of records, and forget any of the changed IDs that were recently looked up and found missing
+     * 
+     * @param records the records to apply
+     * @return the updater, holding the outcome counts
+     */
+    private EZProxyBatchUpdater applyBatch( List<EZProxyBatchRecord> records )
+    {
+        return applyBatch( records, false );
+    }
+
+    /**
+     * Apply a batch of records, and forget any of the changed IDs that were recently looked up and found missing
+     * 
+     * @param records the records to apply
+     * @param createMissing true to create the links that updates refer to if they don't exist
+     * @return the updater, holding the outcome counts
+     */
+    private EZProxyBatchUpdater applyBatch( List<EZProxyBatchRecord> records, boolean createMissing )
+    {
+        EZProxyBatchUpdater updater = new EZProxyBatchUpdater( siteService, securityService, sakaiProxy );
+        updater.setCreateMissing( createMissing );
+        updater.apply( records );
+        for( EZProxyBatchRecord record : records )
+        {
+            if( record.getStatus() == EZProxyBatchRecord.Status.OK )
+            {
+                missingIDs.forget( NegativeLookupCache.siteKey( record.getSiteID() ) );
+                missingIDs.forget( record.getId() );
+            }
+        }
+
+        return updater;
+    }
+
+    /**
+     * Apply a single record
+     * 
+     * @param record the record to apply
+     * @throws IllegalArgumentException if the record could not be applied
+     */
+    private void applyRecord( EZProxyBatchRecord record )
+    {
+        applyBatch( Collections.singletonList( record ) );
+        if( record.getStatus() != EZProxyBatchRecord.Status.OK )
+        {
+            throw new IllegalArgumentException( record.getMessage() );
+        }
+    }
+
+    /**
+     * Build a batch record from an entity reference, an entity and the request parameters
+     * 
+     * @param action what to do
+     * @param reference the entity ID or reference (siteID:pageID); null for create
+     * @param entity the EZProxyEntity (may be null)
+     * @param params the request parameters (may be null)
+     * @return the record
+     */
+    private static EZProxyBatchRecord toBatchRecord( EZProxyBatchRecord.Action action, String reference, Object entity, Map<String, Object> params )
+    {
+        EZProxyBatchRecord record = new EZProxyBatchRecord( 0 );
+        record.setField( EZProxyBatchRecord.FIELD_ACTION, action.name() );
+        if( reference != null )
+        {
+            EZProxyEntityId id = EZProxyEntityId.parse( reference );
+            if( id == null )
+            {
+                throw new IllegalArgumentException( "You must supply a valid reference string" );
+            }
+            record.setField( EZProxyBatchRecord.FIELD_SITE_ID, id.getSiteID() );
+            record.setField( EZProxyBatchRecord.FIELD_PAGE_ID, id.getPageID() );
+        }
+
+        if( entity instanceof EZProxyEntity )
+        {
+            EZProxyEntity e = (EZProxyEntity) entity;
+            if( reference == null )
+            {
+                record.setField( EZProxyBatchRecord.FIELD_SITE_ID, e.getSiteID() );
+            }
+            record.setField( EZProxyBatchRecord.FIELD_SOURCE_URL, e.getSourceURL() );
+            record.setField( EZProxyBatchRecord.FIELD_TITLE, ( e.getTitle() != null ) ? e.getTitle() : e.getPageTitle() );
+        }
+
+        if( params != null )
+        {
+            for( String name : new String[] { EZProxyBatchRecord.FIELD_FRAME_HEIGHT, EZProxyBatchRecord.FIELD_CUSTOM_HEIGHT, EZProxyBatchRecord.FIELD_NEW_WINDOW } )
+            {
+                String value = getParameter( params, name );
+                if( value != null )
+                {
+                    record.setField( name, value );
+                }
+            }
+        }
+
+        return record;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -272,15 +1053,105 @@ public class EZProxyEntityProviderImpl implements EZProxyEntityProvider, CoreEnt
      * takes into account authentication for viewing EZProxy links.
      * 
      * @param ref the EntityReference object requested
-     * @return the HTML string describing the entity
+     * @param out the stream to write the HTML to
+     * @return the action return wrapping the written stream
      */
     @EntityCustomAction( action = "viewHTML", viewKey = EntityView.VIEW_SHOW )
-    public Object getEZProxyEntityAsHTML( EntityReference ref )
+    public Object getEZProxyEntityAsHTML( EntityReference ref, OutputStream out )
     {
         LOG.debug( "getEZProxyEntityAsHTML()" );
 
-        // Return the generated HTML
-        return new ActionReturn( Formats.UTF_8, Formats.HTML_MIME_TYPE, createEZProxyEntityHTML( (EZProxyEntity) getEZProxyEntity( ref.getId() ) ) );
+        // Stream the generated HTML
+        try
+        {
+            Writer writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+            EZProxyEntity entity = getEZProxyEntity( ref.getId() );
+            if( entity == null )
+            {
+                throw notFound( ref.getId() );
+            }
+
+            writeEZProxyEntityHTML( writer, entity );
+            writer.flush();
+        }
+        catch( IOException ex ) { throw new IllegalStateException( "Unable to write the HTML for " + ref.getId(), ex ); }
+
+        return new ActionReturn( Formats.UTF_8, Formats.HTML_MIME_TYPE, out );
+    }
+
+    /**
+     * Streams a CSV of personalised launch URLs for every active member of the site containing the EZProxy entity,
+     * e.g. /direct/ezproxy/{siteID:pageID}/roster. Only the IDs of the active members are loaded; their EIDs are looked
+     * up as the CSV is written. Only available to super users.
+     * 
+     * @param ref the EntityReference object requested
+     * @param out the stream to write the CSV to
+     * @return the action return wrapping the written stream
+     */
+    @EntityCustomAction( action = "roster", viewKey = EntityView.VIEW_SHOW )
+    public ActionReturn getRosterLaunchURLsAsCSV( EntityReference ref, OutputStream out )
+    {
+        LOG.debug( "getRosterLaunchURLsAsCSV()" );
+
+        if( !securityService.isSuperUser() )
+        {
+            throw new SecurityException( "Only super users may export roster launch URLs" );
+        }
+
+        EZProxyEntity entity = getEZProxyEntity( ref.getId() );
+        if( entity == null || entity.getSourceURL() == null )
+        {
+            throw new IllegalArgumentException( "No configured EZProxy link found for ID: " + ref.getId() );
+        }
+
+        BatchLaunchURLGenerator generator = sakaiProxy.getBatchLaunchURLGenerator();
+        if( generator == null )
+        {
+            throw new IllegalStateException( "EZProxy service URL (ezproxy.url) or shared secret (ezproxy.secret) missing from sakai.properties" );
+        }
+
+        try
+        {
+            Site site = siteService.getSite( entity.getSiteID() );
+            Iterator<String> userEids = site.getUsers().stream().map( this::getUserEid ).iterator();
+
+            requestGetter.getResponse().setHeader( "Content-Disposition", "attachment; filename=\"ezproxy-" + entity.getPageID() + ".csv\"" );
+            Writer writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+            int rows = generator.writeCSV( writer, entity.getSiteID(), userEids, entity.getSourceURL() );
+            writer.flush();
+            LOG.info( "Exported " + rows + " roster launch URLs for " + ref.getId() );
+        }
+        catch( IdUnusedException ex ) { throw new IllegalArgumentException( "No site found for site ID: " + entity.getSiteID() + " : " + ex.getMessage() ); }
+        catch( IOException ex ) { throw new IllegalStateException( "Unable to write roster launch URLs for " + ref.getId(), ex ); }
+
+        return new ActionReturn( Formats.UTF_8, "text/csv", out );
+    }
+
+    /**
+     * Look up the EID of a user
+     * @param userID the ID of the user
+     * @return the EID, or null if the user no longer exists
+     */
+    private String getUserEid( String userID )
+    {
+        try { return userDirectoryService.getUserEid( userID ); }
+        catch( UserNotDefinedException ex ) { return null; }
+    }
+
+    /**
+     * Runs the one-time job that stores the source URL validity flag for the EZProxy links saved before the flag existed,
+     * e.g. POST /direct/ezproxy/backfillURLValidity. Only available to super users.
+     *
+     * @param ref the EntityReference object requested (prefix only)
+     * @return the number of links flagged
+     */
+    @EntityCustomAction( action = "backfillURLValidity", viewKey = EntityView.VIEW_NEW )
+    public ActionReturn backfillURLValidity( EntityReference ref )
+    {
+        LOG.debug( "backfillURLValidity()" );
+
+        int flagged = sakaiProxy.backfillSourceURLValidity();
+        return new ActionReturn( Integer.toString( flagged ) );
     }
 
     /**
@@ -297,11 +1168,15 @@ public class EZProxyEntityProviderImpl implements EZProxyEntityProvider, CoreEnt
         LOG.debug( "redirectEZProxyEntity()" );
 
         // Get the entity & userEid
-        EZProxyEntity entity = (EZProxyEntity) getEZProxyEntity( vars.get( "id" ) );
+        EZProxyEntity entity = getEZProxyEntity( vars.get( "id" ) );
+        if( entity == null )
+        {
+            throw notFound( vars.get( "id" ) );
+        }
         String userEid = sessionManager.getCurrentSession().getUserEid();
 
         // If the current user is able to view an EZProxy link, generate and return the final URL
-        if( isCurrentUserViewAuth() )
+        if( sakaiProxy.isCurrentUserViewAuth() )
         {
             return generateFinalEZProxyURL( entity, userEid );
         }
@@ -351,6 +1226,19 @@ public class EZProxyEntityProviderImpl implements EZProxyEntityProvider, CoreEnt
         return EZProxyEntityProvider.HANDLED_OUTPUT_FORMATS;
     }
 
+    /**
+     * Build the exception reporting that there is no EZProxy link with the given ID; it has no stack trace, as it
+     * only ever becomes a 404 response, and misses (often repeated ones) are answered from the negative lookup cache
+     * @param id the ID that was looked up
+     * @return the exception, referring to the canonical entity reference when the ID is a valid one
+     */
+    private static EntityNotFoundException notFound( String id )
+    {
+        EZProxyEntityId entityId = EZProxyEntityId.parse( id );
+        String reference = ( entityId != null ) ? entityId.getReference() : "/" + ENTITY_PREFIX + "/" + id;
+        return new LinkNotFoundException( "No EZProxy link found for ID: " + id, reference );
+    }
+
     /**
      * Get an EZProxyEntity object by ID (siteID:pageID)
      * 
@@ -361,50 +1249,87 @@ public class EZProxyEntityProviderImpl implements EZProxyEntityProvider, CoreEnt
     {
         LOG.debug( "getEZProxyEntity()" );
 
-        // Return value
-        EZProxyEntity retVal = null;
-
         if( id == null || id.length() < 1 )
         {
             throw new IllegalArgumentException( "You must supply a valid reference string" );
         }
-        else
+
+        // Get the siteID and pageID from the provided ID
+        EZProxyEntityId entityId = EZProxyEntityId.parse( id );
+        return ( entityId != null ) ? getEZProxyEntity( entityId ) : null;
+    }
+
+    /**
+     * Get an EZProxyEntity object by its parsed ID
+     * 
+     * @param id the ID (siteID:pageID)
+     * @return the EZProxyEntity object requested, or null if the site has no such EZProxy link
+     */
+    private EZProxyEntity getEZProxyEntity( EZProxyEntityId id )
+    {
+        // Reject IDs that recently turned out not to exist
+        String key = id.toString();
+        if( missingIDs.isMissing( key ) )
+        {
+            return null;
+        }
+
+        // Return value
+        EZProxyEntity retVal = null;
+
+        // Get the site
+        Site site = findSite( id.getSiteID() );
+        if( site != null )
         {
-            // Get the siteID and pageID from the provided ID
-            String[] tokens = id.split( EZProxyEntityProvider.ENTITY_SITE_ID_PAGE_ID_SEPERATOR );
-            if( tokens.length == 2 )
+            // Loop through a list of EZProxy instances within this site
+            Collection<ToolConfiguration> ezproxyLinks = site.getTools( EZProxyConstants.TOOL_REG_NAME );
+            for( ToolConfiguration config : ezproxyLinks )
             {
-                String siteID = tokens[0];
-                String pageID = tokens[1];
-
-                try 
-                { 					
-                    // Get the site
-                    Site site = siteService.getSite( siteID );
-                    if( site != null )
-                    {
-                        // Loop through a list of EZProxy instances within this site
-                        Collection<ToolConfiguration> ezproxyLinks = site.getTools( TOOL_REG_NAME );
-                        for( ToolConfiguration config : ezproxyLinks )
-                        {
-                            // Get the page that contains this EZProxy instance
-                            SitePage page = config.getContainingPage();
+                // Get the page that contains this EZProxy instance
+                SitePage page = config.getContainingPage();
 
-                            // If the page is NOT null AND the pageID's match, this EZProxy Entity exists
-                            if( page != null && pageID.equalsIgnoreCase( page.getId() ) )
-                            {
-                                retVal = getEZProxyEntity( site, page, config );
-                            }
-                        }
-                    }
+                // If the page is NOT null AND the pageID's match, this EZProxy Entity exists
+                if( page != null && id.getPageID().equalsIgnoreCase( page.getId() ) )
+                {
+                    retVal = getEZProxyEntity( site, page, config );
                 }
-                catch( IdUnusedException ex ) { throw new IllegalArgumentException( "No site found for site ID: " + siteID + " : " + ex.getMessage() ); }
             }
         }
 
+        if( retVal == null )
+        {
+            missingIDs.recordMissing( key );
+        }
+
         return retVal;
     }
 
+    /**
+     * Get a site, without treating an unknown site ID as an error; unknown site IDs are remembered for a short
+     * time, so they are rejected without asking the site service again
+     * 
+     * @param siteID the ID of the site
+     * @return the site, or null if there is no such site
+     */
+    private Site findSite( String siteID )
+    {
+        String key = NegativeLookupCache.siteKey( siteID );
+        if( missingIDs.isMissing( key ) )
+        {
+            return null;
+        }
+
+        try
+        {
+            return siteService.getSite( siteID );
+        }
+        catch( IdUnusedException ex )
+        {
+            missingIDs.recordMissing( key );
+            return null;
+        }
+    }
+
     /**
      * Get an EZProxyEntity object by site, page and tool configuration
      * 
@@ -446,30 +1371,16 @@ public class EZProxyEntityProviderImpl implements EZProxyEntityProvider, CoreEnt
     }
 
     /**
-     * Determine if the current user should be able to view the EZProxy link
-     * Only student, staff, faculty and admin members are able to view EZProxy links
+     * Determine if the source URL of an EZProxy link is a valid http(s) URL, trusting the validity flag stored when the
+     * link was saved; only links saved before the flag existed are validated here
      * 
-     * @return true/false if the user is allowed to view EZProxy links
+     * @param props the page properties of the EZProxy link
+     * @return true if the URL is valid
      */
-    private boolean isCurrentUserViewAuth()
+    private static boolean isValidSourceURL( ResourceProperties props )
     {
-        LOG.debug( "isCurrentUserViewAuth()" );
-
-        // Get the user's type
-        boolean retVal = false ;
-        String type = userDirectoryService.getCurrentUser().getType().toLowerCase();
-
-        // If the users's type is in the list of allowed roles, OR if they're an admin
-        // they're allowed to view the EZProxy link; otherwise they're not
-        if( type != null )
-        {
-            if( allowedRoles.contains( type ) || securityService.isSuperUser() )
-            {
-                retVal = true;
-            }
-        }
-
-        return retVal;
+        return SourceURLValidator.isValid( props.getProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL ),
+                                           props.getProperty( EZProxyConstants.EZPROXY_PROP_SOURCE_URL_VALID ) );
     }
 
     /**
@@ -483,58 +1394,111 @@ public class EZProxyEntityProviderImpl implements EZProxyEntityProvider, CoreEnt
         LOG.debug( "generateFinalEZProxyURL()" );
 
         // Generate the MAC and the final URL
-        String mac = "";
-        try { mac = SharedSecretAuth.generateMAC( userEid + entity.getSiteID(), SHARED_SECRET );}
-        catch( NoSuchAlgorithmException | IndexOutOfBoundsException ex ) { LOG.error( ex ); }
-        return SERVICE_URL + "?mac=" + mac + "&pid=" + userEid + "&lcid=" + entity.getSiteID() + "&url=" + entity.getSourceURL();
+        String finalURL = sakaiProxy.generateLaunchURL( userEid, entity.getSiteID(), entity.getSourceURL() );
+        if( finalURL == null )
+        {
+            LOG.error( "EZProxy service URL (ezproxy.url) or shared secret (ezproxy.secret) missing from sakai.properties" );
+            return "";
+        }
+
+        sakaiProxy.postEvent( EZProxyConstants.EVENT_LAUNCH, EZProxyConstants.EVENT_REFERENCE_PREFIX + entity.getId(), false );
+        return finalURL;
     }
 
     /**
-     * Creates an HTML string for a given EZProxyEntity object
+     * Writes the HTML for a given EZProxyEntity object, using the templates compiled for the current user's locale
      * 
-     * @param entity the EZProxy entity to describe via HTML
-     * @return the generated HTML string based on the provided EZProxyEntity object
+     * @param out the writer to write the HTML to
+     * @param entity the EZProxy entity to describe via HTML (only used if the current user may view EZProxy links)
+     * @throws IOException if the writer fails
      */
-    private String createEZProxyEntityHTML( EZProxyEntity entity )
+    private void writeEZProxyEntityHTML( Writer out, EZProxyEntity entity ) throws IOException
     {
-        LOG.debug( "createEZProxyEntityHTML()" );
+        LOG.debug( "writeEZProxyEntityHTML()" );
 
-        StringBuilder sb = new StringBuilder();
-        sb.append( resourceLoader.getFormattedMessage( "htmlHeader", new Object[] { ServerConfigurationService.getString( "skin.repo" ) + "/tool_base.css" } ) );
+        HTMLTemplates templates = getHTMLTemplates();
+        templates.header.write( out, sakaiProxy.getSkinRepoProperty() + "/tool_base.css" );
 
         // If the user is allowed to view EZProxy links, generate the HTML to view the link
-        if( isCurrentUserViewAuth() )
+        if( sakaiProxy.isCurrentUserViewAuth() )
         {
-            sb.append( resourceLoader.getFormattedMessage( "htmlIframe", new Object[]
-                    { generateFinalEZProxyURL( entity, sessionManager.getCurrentSession().getUserEid() ) } ) );
+            templates.iframe.write( out, generateFinalEZProxyURL( entity, sessionManager.getCurrentSession().getUserEid() ) );
         }
 
         // Otherwise just build some HTML to tell the user they're not allowed to view EZProxy links
         else
         {
-            sb.append( resourceLoader.getFormattedMessage( "htmlH2", new Object[] { resourceLoader.getString( "authFailMsg" ) } ) );
+            templates.h2.write( out, templates.authFailMsg );
         }
 
-        // Return the built HTML string
-        sb.append( resourceLoader.getString( "htmlFooter" ) );
-        return sb.toString();
+        out.write( templates.footer );
     }
 
-    // *************************************************************
-    // ******************* Unimplemented Methods *******************
-    // *************************************************************
-    @Override public String     createEntity( EntityReference ref, Object entity, Map<String, Object> params )  { return null; }
-    @Override public void       updateEntity( EntityReference ref, Object entity, Map<String, Object> params )  {}
-    @Override public void       deleteEntity( EntityReference ref, Map<String, Object> params )                 {}
-    @Override public List<?>    getEntities ( EntityReference ref, Search search )                              { return null; }
-    @Override public String[]   getHandledInputFormats()                                                        { return null; }
-    @Override public void       setPropertyValue( String reference, String name, String value )                 {}
+    /**
+     * Get the HTML templates for the current user's locale, compiling them the first time the locale is seen
+     * 
+     * @return the compiled templates
+     */
+    private HTMLTemplates getHTMLTemplates()
+    {
+        Locale locale = resourceLoader.getLocale();
+        HTMLTemplates templates = HTML_TEMPLATES.get( locale );
+        if( templates == null )
+        {
+            templates = new HTMLTemplates( resourceLoader );
+            HTML_TEMPLATES.putIfAbsent( locale, templates );
+        }
+
+        return templates;
+    }
+
+    /**
+     * The viewHTML templates (htmlHeader, htmlIframe, htmlH2, htmlFooter) of one locale
+     */
+    private static final class HTMLTemplates
+    {
+        private final MessageTemplate   header;
+        private final MessageTemplate   iframe;
+        private final MessageTemplate   h2;
+        private final String            footer;
+        private final String            authFailMsg;
+
+        private HTMLTemplates( ResourceLoader loader )
+        {
+            this.header         = new MessageTemplate( loader.getString( "htmlHeader" ) );
+            this.iframe         = new MessageTemplate( loader.getString( "htmlIframe" ) );
+            this.h2             = new MessageTemplate( loader.getString( "htmlH2" ) );
+            this.footer         = loader.getString( "htmlFooter" );
+            this.authFailMsg    = loader.getString( "authFailMsg" );
+        }
+    }
+
+    /**
+     * An EntityNotFoundException without a stack trace (see {@link EZProxyEntityProviderImpl#notFound(String)})
+     */
+    private static final class LinkNotFoundException extends EntityNotFoundException
+    {
+        private static final long serialVersionUID = 1083349992452935141L;
+
+        private LinkNotFoundException( String message, String entityReference )
+        {
+            super( message, entityReference );
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace()
+        {
+            return this;
+        }
+    }
 
     // Sakai API's
     @Getter @Setter private SessionManager          sessionManager;
     @Getter @Setter private SiteService             siteService;
     @Getter @Setter private SecurityService         securityService;
+    @Getter @Setter private EventTrackingService    eventTrackingService;
     @Getter @Setter private UserDirectoryService    userDirectoryService;
+    @Getter @Setter private SakaiProxy              sakaiProxy;
                     private RequestGetter           requestGetter;
 
     @Override
@@ -544,18 +1508,29 @@ public class EZProxyEntityProviderImpl implements EZProxyEntityProvider, CoreEnt
     }
 
     /**
-     * init - perform any actions required here for when this bean starts up
+     * init - start forgetting the missing IDs of sites as they change
      */
     public void init()
     {
         LOG.debug( "init" );
 
-        // Get the list of allowed system roles to view an ezproxy link
-        try { allowedRoles = Arrays.asList( ServerConfigurationService.getStrings( SAK_PROP_ALLOWED_ROLES ) ); }
-        catch( Exception ex ) 
+        eventTrackingService.addObserver( missingIDs );
+    }
+
+    /**
+     * destroy - stop observing site events, and stop any running URL rewrite job when this bean shuts down
+     */
+    public void destroy()
+    {
+        LOG.debug( "destroy" );
+
+        eventTrackingService.deleteObserver( missingIDs );
+
+        URLRewriteJob job = rewriteJob;
+        if( job != null && job.isRunning() )
         {
-            LOG.error( "sakai.property not found: ezproxy.allow.view - " + ex.getMessage() );
-            allowedRoles = new ArrayList<>();
+            job.cancel();
+            LOG.info( "Cancelled the running URL rewrite job: " + job );
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,479 @@
+package ca.uwo.owl.ezproxy.logic.entity;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.sakaiproject.entitybroker.entityprovider.extension.EntityData;
+import org.sakaiproject.entitybroker.entityprovider.extension.Formats;
+
+/**
+ * Writes EZProxy entities as JSON or XML straight to a writer, field by field, without building a map (or any
+ * other intermediate representation) per entity.
+ *
+ * A single entity is written as an object/element; a collection is wrapped in an ezproxy_collection array/element,
+ * following the EntityBroker conventions. Entities without data (e.g. from findEntityRefs) are written as their
+ * reference only.
+ */
+public class EZProxyEntityWriter
+{
+    // Class members
+    private static final String ELEMENT     = EZProxyEntityProvider.ENTITY_PREFIX;                  // The name of an entity element
+    private static final String COLLECTION  = EZProxyEntityProvider.ENTITY_PREFIX + "_collection";  // The name of the collection element
+    private static final String BATCH       = EZProxyEntityProvider.ENTITY_PREFIX + "_batch";       // The name of the batch results array
+    private static final char[] HEX_DIGITS  = "0123456789abcdef".toCharArray();
+
+    // The fields of an export record, in order
+    public static final String[] EXPORT_FIELDS = { EZProxyBatchRecord.FIELD_ACTION, EZProxyBatchRecord.FIELD_SITE_ID, EZProxyBatchRecord.FIELD_PAGE_ID,
+                                                   EZProxyBatchRecord.FIELD_TITLE, EZProxyBatchRecord.FIELD_SOURCE_URL, EZProxyBatchRecord.FIELD_FRAME_HEIGHT,
+                                                   EZProxyBatchRecord.FIELD_CUSTOM_HEIGHT, EZProxyBatchRecord.FIELD_NEW_WINDOW };
+
+    // Instance members
+    private final Writer out;   // The writer to write to
+
+    public EZProxyEntityWriter( Writer out )
+    {
+        this.out = out;
+    }
+
+    /**
+     * Determine if the given format is written by this class
+     * @param format the format (extension) requested
+     * @return true for json and xml
+     */
+    public static boolean isHandled( String format )
+    {
+        return Formats.JSON.equalsIgnoreCase( format ) || Formats.XML.equalsIgnoreCase( format );
+    }
+
+    /**
+     * Write the entities in the given format
+     * @param format json or xml
+     * @param entities the entities to write
+     * @param collection true to write a collection, false to write the first entity on its own
+     * @throws IOException if the writer fails
+     */
+    public void write( String format, List<EntityData> entities, boolean collection ) throws IOException
+    {
+        if( Formats.JSON.equalsIgnoreCase( format ) )
+        {
+            writeJSON( entities, collection );
+        }
+        else if( Formats.XML.equalsIgnoreCase( format ) )
+        {
+            writeXML( entities, collection );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unsupported format: " + format );
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Write the outcome of each record of a batch (index, action, id, status, message), as JSON (an ezproxy_batch array)
+     * or CSV (with a heading row)
+     * @param format json or csv
+     * @param records the records of the batch
+     * @throws IOException if the writer fails
+     */
+    public void writeBatchResults( String format, List<EZProxyBatchRecord> records ) throws IOException
+    {
+        boolean json = Formats.JSON.equalsIgnoreCase( format );
+        if( !json && !EZProxyBatchReader.CSV.equalsIgnoreCase( format ) )
+        {
+            throw new IllegalArgumentException( "Unsupported format: " + format );
+        }
+
+        out.write( json ? "{\"" + BATCH + "\":[" : "index,action,id,status,message\r\n" );
+        for( int i = 0; i < records.size(); ++i )
+        {
+            EZProxyBatchRecord record = records.get( i );
+            if( json )
+            {
+                if( i > 0 )
+                {
+                    out.write( ',' );
+                }
+                writeBatchResultJSON( record );
+            }
+            else
+            {
+                out.write( Integer.toString( record.getIndex() ) );
+                out.write( ',' );
+                out.write( record.getAction().name() );
+                out.write( ',' );
+                writeCSVValue( record.getId() );
+                out.write( ',' );
+                out.write( record.getStatus().name() );
+                out.write( ',' );
+                writeCSVValue( record.getMessage() );
+                out.write( "\r\n" );
+            }
+        }
+        if( json )
+        {
+            out.write( "]}" );
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Write the outcome of a single batch record as a line of newline delimited JSON
+     * @param record the record
+     * @throws IOException if the writer fails
+     */
+    public void writeBatchResultLine( EZProxyBatchRecord record ) throws IOException
+    {
+        writeBatchResultJSON( record );
+        out.write( '\n' );
+    }
+
+    /**
+     * Write an import checkpoint as a line of newline delimited JSON, and flush it to the client
+     * @param next the index of the first record not applied yet (to resume from)
+     * @param succeeded the number of records applied so far
+     * @param failed the number of records that failed so far
+     * @throws IOException if the writer fails
+     */
+    public void writeCheckpoint( int next, int succeeded, int failed ) throws IOException
+    {
+        out.write( "{\"checkpoint\":" );
+        out.write( Integer.toString( next ) );
+        out.write( ",\"succeeded\":" );
+        out.write( Integer.toString( succeeded ) );
+        out.write( ",\"failed\":" );
+        out.write( Integer.toString( failed ) );
+        out.write( "}\n" );
+        out.flush();
+    }
+
+    /**
+     * Write the heading of an export: the field names, for CSV (nothing for newline delimited JSON)
+     * @param format ndjson or csv
+     * @throws IOException if the writer fails
+     */
+    public void writeExportHeading( String format ) throws IOException
+    {
+        if( EZProxyBatchReader.CSV.equalsIgnoreCase( format ) )
+        {
+            for( int i = 0; i < EXPORT_FIELDS.length; ++i )
+            {
+                out.write( i > 0 ? "," : "" );
+                out.write( EXPORT_FIELDS[i] );
+            }
+            out.write( "\r\n" );
+        }
+    }
+
+    /**
+     * Write the configuration of a link as an export record, which can be read back by {@link EZProxyBatchReader}
+     * @param format ndjson or csv
+     * @param values the values of the {@link #EXPORT_FIELDS}, in order
+     * @throws IOException if the writer fails
+     */
+    public void writeExportRecord( String format, String... values ) throws IOException
+    {
+        boolean csv = EZProxyBatchReader.CSV.equalsIgnoreCase( format );
+        out.write( csv ? "" : "{" );
+        for( int i = 0; i < EXPORT_FIELDS.length; ++i )
+        {
+            String value = ( i < values.length ) ? values[i] : null;
+            if( csv )
+            {
+                out.write( i > 0 ? "," : "" );
+                writeCSVValue( value );
+            }
+            else
+            {
+                writeJSONField( EXPORT_FIELDS[i], value, i == 0 );
+            }
+        }
+        out.write( csv ? "\r\n" : "}\n" );
+    }
+
+    /**
+     * Write the outcome of a single batch record as a JSON object
+     */
+    private void writeBatchResultJSON( EZProxyBatchRecord record ) throws IOException
+    {
+        out.write( "{\"index\":" );
+        out.write( Integer.toString( record.getIndex() ) );
+        writeJSONField( "action", record.getAction().name(), false );
+        writeJSONField( "id", record.getId(), false );
+        writeJSONField( "status", record.getStatus().name(), false );
+        writeJSONField( "message", record.getMessage(), false );
+        out.write( '}' );
+    }
+
+    /**
+     * Write a flat JSON object (e.g. the status of a job): numbers and booleans as they are, collections as arrays of
+     * strings, and anything else as a string
+     * @param values the values, by name
+     * @throws IOException if the writer fails
+     */
+    public void writeJSONObject( Map<String, ?> values ) throws IOException
+    {
+        out.write( '{' );
+        boolean first = true;
+        for( Map.Entry<String, ?> entry : values.entrySet() )
+        {
+            Object value = entry.getValue();
+            if( value == null || value instanceof Number || value instanceof Boolean )
+            {
+                out.write( first ? "\"" : ",\"" );
+                out.write( entry.getKey() );
+                out.write( "\":" );
+                out.write( String.valueOf( value ) );
+            }
+            else if( value instanceof Collection )
+            {
+                out.write( first ? "\"" : ",\"" );
+                out.write( entry.getKey() );
+                out.write( "\":[" );
+                boolean firstItem = true;
+                for( Object item : (Collection<?>) value )
+                {
+                    if( !firstItem )
+                    {
+                        out.write( ',' );
+                    }
+                    writeJSONString( ( item != null ) ? item.toString() : null );
+                    firstItem = false;
+                }
+                out.write( ']' );
+            }
+            else
+            {
+                writeJSONField( entry.getKey(), value.toString(), first );
+            }
+            first = false;
+        }
+        out.write( '}' );
+        out.flush();
+    }
+
+    /**
+     * Write a CSV value, quoted if needed (null as an empty value)
+     */
+    private void writeCSVValue( String value ) throws IOException
+    {
+        if( value == null )
+        {
+            return;
+        }
+
+        if( value.indexOf( ',' ) < 0 && value.indexOf( '"' ) < 0 && value.indexOf( '\n' ) < 0 && value.indexOf( '\r' ) < 0 )
+        {
+            out.write( value );
+            return;
+        }
+
+        out.write( '"' );
+        out.write( value.replace( "\"", "\"\"" ) );
+        out.write( '"' );
+    }
+
+    /**
+     * Write the entities as JSON
+     */
+    private void writeJSON( List<EntityData> entities, boolean collection ) throws IOException
+    {
+        if( !collection )
+        {
+            if( entities.isEmpty() )
+            {
+                out.write( "{}" );
+            }
+            else
+            {
+                writeJSON( entities.get( 0 ) );
+            }
+            return;
+        }
+
+        out.write( "{\"" );
+        out.write( COLLECTION );
+        out.write( "\":[" );
+        for( int i = 0; i < entities.size(); ++i )
+        {
+            if( i > 0 )
+            {
+                out.write( ',' );
+            }
+            writeJSON( entities.get( i ) );
+        }
+        out.write( "]}" );
+    }
+
+    /**
+     * Write a single entity as a JSON object
+     */
+    private void writeJSON( EntityData data ) throws IOException
+    {
+        out.write( '{' );
+        writeJSONField( "entityReference", data.getEntityReference(), true );
+        writeJSONField( "entityURL", data.getEntityURL(), false );
+
+        Object entity = data.getData();
+        if( entity instanceof EZProxyEntity )
+        {
+            EZProxyEntity e = (EZProxyEntity) entity;
+            writeJSONField( "id", e.getId(), false );
+            writeJSONField( "siteID", e.getSiteID(), false );
+            writeJSONField( "pageID", e.getPageID(), false );
+            writeJSONField( "pageTitle", e.getPageTitle(), false );
+            writeJSONField( "toolTitle", e.getToolTitle(), false );
+            writeJSONField( "sourceURL", e.getSourceURL(), false );
+            writeJSONField( "title", e.getTitle(), false );
+        }
+        out.write( '}' );
+    }
+
+    /**
+     * Write a "name":"value" pair (value null as JSON null)
+     */
+    private void writeJSONField( String name, String value, boolean first ) throws IOException
+    {
+        if( !first )
+        {
+            out.write( ',' );
+        }
+
+        out.write( '"' );
+        out.write( name );
+        out.write( "\":" );
+        writeJSONString( value );
+    }
+
+    /**
+     * Write a JSON string (null as JSON null)
+     */
+    private void writeJSONString( String value ) throws IOException
+    {
+        if( value == null )
+        {
+            out.write( "null" );
+            return;
+        }
+
+        out.write( '"' );
+        for( int i = 0; i < value.length(); ++i )
+        {
+            char c = value.charAt( i );
+            switch( c )
+            {
+                case '"':   out.write( "\\\"" ); break;
+                case '\\':  out.write( "\\\\" ); break;
+                case '\n':  out.write( "\\n" ); break;
+                case '\r':  out.write( "\\r" ); break;
+                case '\t':  out.write( "\\t" ); break;
+                case '<':   out.write( "\\u003c" ); break; // Keep the output safe to embed in HTML
+                default:
+                    if( c < 0x20 || c == 0x2028 || c == 0x2029 )
+                    {
+                        out.write( "\\u" );
+                        out.write( HEX_DIGITS[( c >> 12 ) & 0xF] );
+                        out.write( HEX_DIGITS[( c >> 8 ) & 0xF] );
+                        out.write( HEX_DIGITS[( c >> 4 ) & 0xF] );
+                        out.write( HEX_DIGITS[c & 0xF] );
+                    }
+                    else
+                    {
+                        out.write( c );
+                    }
+            }
+        }
+        out.write( '"' );
+    }
+
+    /**
+     * Write the entities as XML
+     */
+    private void writeXML( List<EntityData> entities, boolean collection ) throws IOException
+    {
+        out.write( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" );
+        if( !collection )
+        {
+            if( entities.isEmpty() )
+            {
+                out.write( "<" + ELEMENT + "/>" );
+            }
+            else
+            {
+                writeXML( entities.get( 0 ) );
+            }
+            return;
+        }
+
+        out.write( "<" + COLLECTION + ">" );
+        for( EntityData data : entities )
+        {
+            writeXML( data );
+        }
+        out.write( "</" + COLLECTION + ">" );
+    }
+
+    /**
+     * Write a single entity as an XML element
+     */
+    private void writeXML( EntityData data ) throws IOException
+    {
+        out.write( "<" + ELEMENT + ">" );
+        writeXMLElement( "entityReference", data.getEntityReference() );
+        writeXMLElement( "entityURL", data.getEntityURL() );
+
+        Object entity = data.getData();
+        if( entity instanceof EZProxyEntity )
+        {
+            EZProxyEntity e = (EZProxyEntity) entity;
+            writeXMLElement( "id", e.getId() );
+            writeXMLElement( "siteID", e.getSiteID() );
+            writeXMLElement( "pageID", e.getPageID() );
+            writeXMLElement( "pageTitle", e.getPageTitle() );
+            writeXMLElement( "toolTitle", e.getToolTitle() );
+            writeXMLElement( "sourceURL", e.getSourceURL() );
+            writeXMLElement( "title", e.getTitle() );
+        }
+        out.write( "</" + ELEMENT + ">" );
+    }
+
+    /**
+     * Write a &lt;name&gt;value&lt;/name&gt; element; null values are omitted
+     */
+    private void writeXMLElement( String name, String value ) throws IOException
+    {
+        if( value == null )
+        {
+            return;
+        }
+
+        out.write( '<' );
+        out.write( name );
+        out.write( '>' );
+        for( int i = 0; i < value.length(); ++i )
+        {
+            char c = value.charAt( i );
+            switch( c )
+            {
+                case '<':   out.write( "&lt;" ); break;
+                case '>':   out.write( "&gt;" ); break;
+                case '&':   out.write( "&amp;" ); break;
+                case '"':   out.write( "&quot;" ); break;
+                default:
+                    // Characters that are not allowed in XML 1.0 are dropped
+                    if( c >= 0x20 || c == '\t' || c == '\n' || c == '\r' )
+                    {
+                        out.write( c );
+                    }
+            }
+        }
+        out.write( "</" );
+        out.write( name );
+        out.write( '>' );
+    }
+}
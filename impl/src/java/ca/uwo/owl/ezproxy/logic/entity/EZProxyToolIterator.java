@@ -0,0 +1,164 @@
+package ca.uwo.owl.ezproxy.logic.entity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.site.api.SiteService.SelectionType;
+import org.sakaiproject.site.api.SiteService.SortType;
+import org.sakaiproject.site.api.ToolConfiguration;
+
+import ca.uwo.owl.ezproxy.utilities.EZProxyConstants;
+
+/**
+ * Walks the EZProxy tool placements of one site, or of every site, one at a time, in site ID order and then page ID
+ * order within each site.
+ *
+ * When walking every site, the IDs of the sites are fetched once and the sites are then fetched one at a time, so
+ * only the site IDs and the current site are ever held in memory. A walk can resume after a given site (or a given
+ * page of it): it carries on with the sites whose IDs sort after it, so sites created or removed since the position
+ * was recorded don't cause any other site to be skipped or walked twice.
+ */
+public class EZProxyToolIterator implements Iterator<ToolConfiguration>
+{
+    // Class members
+    private static final Comparator<ToolConfiguration> BY_PAGE_ID = Comparator.comparing( ToolConfiguration::getPageId );
+
+    // Instance members
+    private final SiteService               siteService;    // Fetches the sites
+    private final Iterator<String>          siteIDs;        // The IDs of the sites still to walk
+    private final String                    resumeSiteID;   // The site whose placements are walked from after resumePageID
+    private final String                    resumePageID;   // The page of resumeSiteID to resume after (null to walk the whole site)
+    private Site                            fetchedSite;    // The site fetched up front (single site walks), until it is walked
+    private Iterator<ToolConfiguration>     tools;          // The EZProxy placements of the current site
+    private Site                            currentSite;    // The site the current placements belong to
+
+    /**
+     * Walk the EZProxy placements of a single site
+     * @param siteService the site service
+     * @param siteID the ID of the site
+     * @throws IdUnusedException if there is no such site
+     */
+    public EZProxyToolIterator( SiteService siteService, String siteID ) throws IdUnusedException
+    {
+        this.siteService    = siteService;
+        this.fetchedSite    = siteService.getSite( siteID );
+        this.siteIDs        = Collections.singletonList( siteID ).iterator();
+        this.resumeSiteID   = null;
+        this.resumePageID   = null;
+        this.tools          = Collections.emptyIterator();
+    }
+
+    /**
+     * Walk the EZProxy placements of every site
+     * @param siteService the site service
+     */
+    public EZProxyToolIterator( SiteService siteService )
+    {
+        this( siteService, null, null );
+    }
+
+    /**
+     * Walk the EZProxy placements of every site, resuming after a given site or placement (e.g. where a job or the
+     * previous page of a listing stopped)
+     * @param siteService the site service
+     * @param afterSiteID the ID of the site to resume after (null to start at the beginning); the site need not
+     *        exist any more
+     * @param afterPageID the ID of the page of that site to resume after, or null to resume after the whole site
+     */
+    public EZProxyToolIterator( SiteService siteService, String afterSiteID, String afterPageID )
+    {
+        List<String> ids = new ArrayList<>( siteService.getSiteIds( SelectionType.ANY, null, null, null, SortType.NONE, null ) );
+        Collections.sort( ids );
+
+        int from = 0;
+        if( afterSiteID != null )
+        {
+            int position = Collections.binarySearch( ids, afterSiteID );
+            from = ( position < 0 ) ? -position - 1 : ( afterPageID != null ) ? position : position + 1;
+        }
+
+        this.siteService    = siteService;
+        this.siteIDs        = ids.subList( from, ids.size() ).iterator();
+        this.resumeSiteID   = ( afterPageID != null ) ? afterSiteID : null;
+        this.resumePageID   = afterPageID;
+        this.tools          = Collections.emptyIterator();
+    }
+
+    /**
+     * Get the site the placement last returned by {@link #next()} belongs to
+     * @return the site, or null if next() has not been called yet
+     */
+    public Site getCurrentSite()
+    {
+        return currentSite;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        while( !tools.hasNext() )
+        {
+            if( !siteIDs.hasNext() )
+            {
+                return false;
+            }
+
+            String siteID = siteIDs.next();
+            Site site = ( fetchedSite != null ) ? fetchedSite : fetchSite( siteID );
+            fetchedSite = null;
+            if( site != null )
+            {
+                tools = getPlacements( site, siteID.equals( resumeSiteID ) ? resumePageID : null );
+                if( tools.hasNext() )
+                {
+                    currentSite = site;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public ToolConfiguration next()
+    {
+        if( !hasNext() )
+        {
+            throw new NoSuchElementException();
+        }
+
+        return tools.next();
+    }
+
+    /**
+     * Fetch a site by ID
+     * @return the site, or null if it has been removed since the site IDs were fetched
+     */
+    private Site fetchSite( String siteID )
+    {
+        try { return siteService.getSite( siteID ); }
+        catch( IdUnusedException ex ) { return null; }
+    }
+
+    /**
+     * Get the EZProxy placements of a site in page ID order
+     * @param afterPageID only return the placements of pages whose IDs sort after this one (null for all of them)
+     */
+    private static Iterator<ToolConfiguration> getPlacements( Site site, String afterPageID )
+    {
+        List<ToolConfiguration> placements = new ArrayList<>( site.getTools( EZProxyConstants.TOOL_REG_NAME ) );
+        if( afterPageID != null )
+        {
+            placements.removeIf( tool -> tool.getPageId().compareTo( afterPageID ) <= 0 );
+        }
+        placements.sort( BY_PAGE_ID );
+        return placements.iterator();
+    }
+}
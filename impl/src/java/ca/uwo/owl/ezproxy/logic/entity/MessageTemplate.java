@@ -0,0 +1,143 @@
+package ca.uwo.owl.ezproxy.logic.entity;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message pattern (as used by {@link MessageFormat}) compiled once into literal segments and argument slots, so
+ * it can be written out repeatedly without parsing the pattern again or building the whole string first.
+ *
+ * Simple {n} placeholders and MessageFormat quoting ('' and '...') are supported. Patterns using anything else
+ * (e.g. {0,number}) are handed to MessageFormat on every write, so they still render exactly as before.
+ */
+public final class MessageTemplate
+{
+    // Instance members
+    private final String[]      segments;   // The literal text before each slot, plus the text after the last one
+    private final int[]         slots;      // The argument index of each slot
+    private final MessageFormat fallback;   // Used instead of the segments when the pattern is not a simple one
+
+    /**
+     * Compile a pattern
+     * @param pattern the MessageFormat pattern
+     */
+    public MessageTemplate( String pattern )
+    {
+        List<String> segmentList = new ArrayList<>();
+        List<Integer> slotList = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        boolean quoted = false;
+        boolean simple = true;
+
+        for( int i = 0; i < pattern.length() && simple; ++i )
+        {
+            char c = pattern.charAt( i );
+            if( c == '\'' )
+            {
+                if( i + 1 < pattern.length() && pattern.charAt( i + 1 ) == '\'' )
+                {
+                    literal.append( '\'' );
+                    ++i;
+                }
+                else
+                {
+                    quoted = !quoted;
+                }
+            }
+            else if( c == '{' && !quoted )
+            {
+                int close = pattern.indexOf( '}', i );
+                int index = ( close > i + 1 ) ? parseIndex( pattern, i + 1, close ) : -1;
+                if( index < 0 )
+                {
+                    simple = false;
+                }
+                else
+                {
+                    segmentList.add( literal.toString() );
+                    slotList.add( index );
+                    literal.setLength( 0 );
+                    i = close;
+                }
+            }
+            else
+            {
+                literal.append( c );
+            }
+        }
+
+        if( simple )
+        {
+            segmentList.add( literal.toString() );
+            this.segments   = segmentList.toArray( new String[segmentList.size()] );
+            this.slots      = new int[slotList.size()];
+            for( int i = 0; i < slots.length; ++i )
+            {
+                slots[i] = slotList.get( i );
+            }
+            this.fallback   = null;
+        }
+        else
+        {
+            this.segments   = null;
+            this.slots      = null;
+            this.fallback   = new MessageFormat( pattern );
+        }
+    }
+
+    /**
+     * Write the message with the given arguments
+     * @param out the writer to write to
+     * @param args the arguments; missing ones are written as {n}, as MessageFormat does
+     * @throws IOException if the writer fails
+     */
+    public void write( Writer out, Object... args ) throws IOException
+    {
+        if( fallback != null )
+        {
+            synchronized( fallback )
+            {
+                out.write( fallback.format( args ) );
+            }
+            return;
+        }
+
+        for( int i = 0; i < slots.length; ++i )
+        {
+            out.write( segments[i] );
+            int index = slots[i];
+            if( args != null && index < args.length )
+            {
+                out.write( String.valueOf( args[index] ) );
+            }
+            else
+            {
+                out.write( "{" + index + "}" );
+            }
+        }
+        out.write( segments[slots.length] );
+    }
+
+    /**
+     * Parse a placeholder's argument index
+     * @return the index, or -1 if the placeholder is not a plain non-negative integer
+     */
+    private static int parseIndex( String pattern, int from, int to )
+    {
+        int index = 0;
+        for( int i = from; i < to; ++i )
+        {
+            char c = pattern.charAt( i );
+            if( c < '0' || c > '9' || index > 1000 )
+            {
+                return -1;
+            }
+            index = index * 10 + ( c - '0' );
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,166 @@
+package ca.uwo.owl.ezproxy.logic.entity;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ca.uwo.owl.ezproxy.logic.SitePageIndex;
+
+/**
+ * Remembers, for a short time, IDs that were looked up and found not to exist (unknown sites, or sites without the
+ * requested EZProxy page), so repeated requests for them (crawlers, stale bookmarks) are rejected without going back
+ * to the site service.
+ *
+ * Missing sites are recorded under {@link #siteKey(String)}, and missing links under their entity ID (siteID:pageID).
+ * The cache is bounded: once it is full, expired entries are swept, and if that is not enough it is cleared. The
+ * records of a site are also dropped when an event changing the site (creation, update, ...) is observed.
+ */
+public class NegativeLookupCache implements Observer
+{
+    // Class members
+    private static final String SITE_KEY_PREFIX     = "site/";  // Keeps missing site IDs apart from missing entity IDs
+    private static final String ENTITY_SEPARATOR    = EZProxyEntityProvider.ENTITY_SITE_ID_PAGE_ID_SEPERATOR;  // Separates the site ID from the page ID in entity IDs
+    public  static final long   DEFAULT_TTL         = 30000L;   // The default time an ID is remembered as missing, in millis
+    public  static final int    DEFAULT_MAX_ENTRIES = 10000;    // The default maximum number of remembered IDs
+
+    // Instance members
+    private final long                          ttl;                                        // How long an ID is remembered as missing, in millis
+    private final int                           maxEntries;                                 // The maximum number of remembered IDs
+    private final ConcurrentMap<String, Long>   missing     = new ConcurrentHashMap<>();    // When each missing ID expires
+    private final AtomicLong                    hits        = new AtomicLong();             // The number of lookups rejected by the cache
+
+    // Constructors
+    public NegativeLookupCache() { this( DEFAULT_TTL, DEFAULT_MAX_ENTRIES ); }
+    public NegativeLookupCache( long ttl, int maxEntries )
+    {
+        this.ttl        = Math.max( 0, ttl );
+        this.maxEntries = Math.max( 1, maxEntries );
+    }
+
+    /**
+     * Determine if an ID is known not to exist
+     * @param key the ID
+     * @return true if the ID was recorded as missing and the record has not expired
+     */
+    public boolean isMissing( String key )
+    {
+        Long expires = missing.get( key );
+        if( expires == null )
+        {
+            return false;
+        }
+
+        if( expires > System.currentTimeMillis() )
+        {
+            hits.incrementAndGet();
+            return true;
+        }
+
+        missing.remove( key, expires );
+        return false;
+    }
+
+    /**
+     * Record that an ID does not exist
+     * @param key the ID
+     */
+    public void recordMissing( String key )
+    {
+        if( ttl == 0 )
+        {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if( missing.size() >= maxEntries )
+        {
+            sweep( now );
+            if( missing.size() >= maxEntries )
+            {
+                missing.clear();
+            }
+        }
+        missing.put( key, now + ttl );
+    }
+
+    /**
+     * Forget that an ID was missing (e.g. because it has just been created)
+     * @param key the ID
+     */
+    public void forget( String key )
+    {
+        missing.remove( key );
+    }
+
+    /**
+     * Forget that a site, and any link in it, was missing
+     * @param siteID the ID of the site
+     */
+    public void forgetSite( String siteID )
+    {
+        if( siteID == null || missing.isEmpty() )
+        {
+            return;
+        }
+
+        missing.remove( siteKey( siteID ) );
+        String entityPrefix = siteID + ENTITY_SEPARATOR;
+        missing.keySet().removeIf( key -> key.startsWith( entityPrefix ) );
+    }
+
+    /**
+     * Get the key a missing site is recorded under
+     * @param siteID the ID of the site
+     * @return the key
+     */
+    public static String siteKey( String siteID )
+    {
+        return SITE_KEY_PREFIX + siteID;
+    }
+
+    /**
+     * Forgets the records of a site whenever an event changing it (creation, update, ...) is posted.
+     * Register with EventTrackingService.addObserver().
+     */
+    @Override
+    public void update( Observable observable, Object arg )
+    {
+        forgetSite( SitePageIndex.getSiteIdOfSiteChange( arg ) );
+    }
+
+    // Getters
+    public long getHits()   { return hits.get(); }
+    public int  getSize()   { return missing.size(); }
+
+    /**
+     * Drop the expired records
+     * @param now the current time
+     */
+    private void sweep( long now )
+    {
+        for( Iterator<Map.Entry<String, Long>> it = missing.entrySet().iterator(); it.hasNext(); )
+        {
+            if( it.next().getValue() <= now )
+            {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns a string representation of the cache statistics.
+     * @return the string representation of the cache
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append( "{ entries=" ).append( getSize() ).append( ", maxEntries=" ).append( maxEntries ).append( ", ttl=" ).append( ttl )
+            .append( ", hits=" ).append( getHits() ).append( " }" );
+        return b.toString();
+    }
+}
@@ -0,0 +1,129 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SitePage;
+
+/**
+ * Checks the page lookups of {@link SitePageIndex}, and which site events drop a site's index.
+ */
+public class SitePageIndexTest
+{
+    @Test
+    public void testGetPage()
+    {
+        SitePageIndex index = new SitePageIndex();
+        Site site = site( "s1", "p1", "P2", "p3" );
+        assertSame( site.getPages().get( 1 ), index.getPage( site, "p2" ) );
+        assertSame( site.getPages().get( 0 ), index.getPage( site, "p1" ) );
+        assertNull( index.getPage( site, "p4" ) );
+        assertNull( index.getPage( site, null ) );
+        assertNull( index.getPage( null, "p1" ) );
+    }
+
+    @Test
+    public void testPageAddedSinceIndexed()
+    {
+        // A page added and another removed in one save keeps the page count; the new page is still found
+        SitePageIndex index = new SitePageIndex();
+        Site site = site( "s1", "p1", "p2" );
+        assertSame( site.getPages().get( 1 ), index.getPage( site, "p2" ) );
+        site.getPages().set( 1, page( "p3" ) );
+        assertSame( site.getPages().get( 1 ), index.getPage( site, "p3" ) );
+        assertNull( index.getPage( site, "p2" ) );
+    }
+
+    @Test
+    public void testVisitKeepsIndex()
+    {
+        SitePageIndex index = new SitePageIndex();
+        Site site = site( "s1", "p1", "p2" );
+        index.getPage( site, "p1" );
+        assertEquals( 1, index.getSize() );
+
+        index.update( null, event( "site.visit", "/site/s1", false ) );
+        index.update( null, event( "content.read", "/site/s1", false ) );
+        index.update( null, event( "site.upd", "/site/s1", false ) );
+        index.update( null, event( "ezproxy.launch", "/site/s1", true ) );
+        index.update( null, "not an event" );
+        assertEquals( 1, index.getSize() );
+
+        long misses = index.getMisses();
+        assertSame( site.getPages().get( 1 ), index.getPage( site, "p2" ) );
+        assertEquals( misses, index.getMisses() );
+    }
+
+    @Test
+    public void testSiteChangesDropIndex()
+    {
+        SitePageIndex index = new SitePageIndex();
+        for( String name : new String[] { "site.upd", "site.upd.site.mbrshp", "site.del", "site.add" } )
+        {
+            index.getPage( site( "s1", "p1" ), "p1" );
+            index.getPage( site( "s2", "p1" ), "p1" );
+            index.update( null, event( name, "/site/s1", true ) );
+            assertEquals( name, 1, index.getSize() );
+            index.invalidateAll();
+        }
+    }
+
+    @Test
+    public void testGetSiteIdOfSiteChange()
+    {
+        assertEquals( "s1", SitePageIndex.getSiteIdOfSiteChange( event( "site.upd", "/site/s1", true ) ) );
+        assertEquals( "s1", SitePageIndex.getSiteIdOfSiteChange( event( "site.upd", "/site/s1/group/g1", true ) ) );
+        assertNull( SitePageIndex.getSiteIdOfSiteChange( event( "site.visit", "/site/s1", false ) ) );
+        assertNull( SitePageIndex.getSiteIdOfSiteChange( event( "site.upd", "/content/s1", true ) ) );
+        assertNull( SitePageIndex.getSiteIdOfSiteChange( event( null, "/site/s1", true ) ) );
+        assertNull( SitePageIndex.getSiteIdOfSiteChange( null ) );
+    }
+
+    private static Site site( String id, String... pageIDs )
+    {
+        List<SitePage> pages = new ArrayList<>();
+        for( String pageID : pageIDs )
+        {
+            pages.add( page( pageID ) );
+        }
+
+        return stub( Site.class, "getId", id, "getPages", pages );
+    }
+
+    private static SitePage page( String id )
+    {
+        return stub( SitePage.class, "getId", id );
+    }
+
+    private static Event event( String name, String resource, boolean modify )
+    {
+        return stub( Event.class, "getEvent", name, "getResource", resource, "getModify", modify );
+    }
+
+    /**
+     * A stub of an interface whose named getters return the given values (and every other method null)
+     */
+    @SuppressWarnings( "unchecked" )
+    private static <T> T stub( Class<T> type, Object... getters )
+    {
+        return (T) Proxy.newProxyInstance( type.getClassLoader(), new Class<?>[] { type }, ( proxy, method, args ) ->
+        {
+            for( int i = 0; i < getters.length; i += 2 )
+            {
+                if( getters[i].equals( method.getName() ) )
+                {
+                    return getters[i + 1];
+                }
+            }
+            return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+        } );
+    }
+}
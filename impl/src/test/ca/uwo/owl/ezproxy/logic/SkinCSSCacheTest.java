@@ -0,0 +1,74 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+import org.sakaiproject.event.api.Event;
+
+/**
+ * Checks the lookups of {@link SkinCSSCache}, and which site events drop a site's entries.
+ */
+public class SkinCSSCacheTest
+{
+    @Test
+    public void testGet()
+    {
+        SkinCSSCache cache = new SkinCSSCache();
+        cache.put( "t1", "s1", "/library/skin", "key", "/library/skin/a/tool.css" );
+        assertEquals( "/library/skin/a/tool.css", cache.get( "t1", "/library/skin", "key" ) );
+        assertNull( cache.get( "t1", "/library/skin", "other key" ) );
+        assertNull( cache.get( "t1", "/other/skin", "key" ) );
+        assertNull( cache.get( null, "/library/skin", "key" ) );
+    }
+
+    @Test
+    public void testSiteEvents()
+    {
+        SkinCSSCache cache = new SkinCSSCache();
+        cache.put( "t1", "s1", "/library/skin", "key", "a" );
+        cache.put( "t2", "s1", "/library/skin", "key", "a" );
+        cache.put( "t3", "s2", "/library/skin", "key", "b" );
+
+        // Visits don't change the site
+        cache.update( null, event( "site.visit", "/site/s1", false ) );
+        assertEquals( 3, cache.getSize() );
+
+        cache.update( null, event( "site.upd", "/site/s1", true ) );
+        assertEquals( 1, cache.getSize() );
+        assertNull( cache.get( "t1", "/library/skin", "key" ) );
+        assertEquals( "b", cache.get( "t3", "/library/skin", "key" ) );
+
+        // Entries cached again after the change are dropped by the next one
+        cache.put( "t1", "s1", "/library/skin", "key", "c" );
+        cache.update( null, event( "site.del", "/site/s1", true ) );
+        assertNull( cache.get( "t1", "/library/skin", "key" ) );
+    }
+
+    @Test
+    public void testFullCacheIsCleared()
+    {
+        SkinCSSCache cache = new SkinCSSCache( 2 );
+        cache.put( "t1", "s1", "r", "key", "a" );
+        cache.put( "t2", "s1", "r", "key", "a" );
+        cache.put( "t3", "s2", "r", "key", "b" );
+        assertEquals( 1, cache.getSize() );
+        assertEquals( "b", cache.get( "t3", "r", "key" ) );
+    }
+
+    private static Event event( String name, String resource, boolean modify )
+    {
+        return (Event) Proxy.newProxyInstance( Event.class.getClassLoader(), new Class<?>[] { Event.class }, ( proxy, method, args ) ->
+        {
+            switch( method.getName() )
+            {
+                case "getEvent":    return name;
+                case "getResource": return resource;
+                case "getModify":   return modify;
+                default:            return null;
+            }
+        } );
+    }
+}
@@ -0,0 +1,111 @@
+package ca.uwo.owl.ezproxy.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import ca.uwo.owl.ezproxy.logic.URLRewriteRule.Mode;
+
+/**
+ * Checks the host, prefix and regex rewriting of {@link URLRewriteRule}.
+ */
+public class URLRewriteRuleTest
+{
+    @Test
+    public void testHost()
+    {
+        URLRewriteRule rule = new URLRewriteRule( Mode.HOST, " DB.Vendor.com ", "db.newvendor.com" );
+        assertEquals( "db.vendor.com", rule.getMatch() );
+        assertEquals( "https://db.newvendor.com/search?q=DB.Vendor.com", rule.rewrite( "https://DB.vendor.COM/search?q=DB.Vendor.com" ) );
+        assertEquals( "http://db.newvendor.com", rule.rewrite( "http://db.vendor.com" ) );
+        assertEquals( "http://db.newvendor.com?a=1", rule.rewrite( "http://db.vendor.com?a=1" ) );
+        assertEquals( "http://db.newvendor.com#top", rule.rewrite( "http://db.vendor.com#top" ) );
+    }
+
+    @Test
+    public void testHostKeepsUserInfoAndPort()
+    {
+        URLRewriteRule rule = new URLRewriteRule( Mode.HOST, "db.vendor.com", "db.newvendor.com" );
+        assertEquals( "https://user:pw@db.newvendor.com:8443/a", rule.rewrite( "https://user:pw@db.vendor.com:8443/a" ) );
+        assertEquals( "https://db.newvendor.com:8443", rule.rewrite( "https://db.vendor.com:8443" ) );
+    }
+
+    @Test
+    public void testHostNoMatch()
+    {
+        URLRewriteRule rule = new URLRewriteRule( Mode.HOST, "db.vendor.com", "db.newvendor.com" );
+        assertNull( rule.rewrite( "https://www.db.vendor.com/a" ) );
+        assertNull( rule.rewrite( "https://db.vendor.com.evil.org/a" ) );
+        assertNull( rule.rewrite( "https://other.com/db.vendor.com" ) );
+        assertNull( rule.rewrite( "https://other.com/?u=x@db.vendor.com" ) );
+        assertNull( rule.rewrite( "db.vendor.com/a" ) );
+        assertNull( rule.rewrite( "" ) );
+        assertNull( rule.rewrite( null ) );
+    }
+
+    @Test
+    public void testPrefix()
+    {
+        URLRewriteRule rule = new URLRewriteRule( Mode.PREFIX, "http://db.vendor.com/old/", "https://db.vendor.com/new/" );
+        assertEquals( "https://db.vendor.com/new/search?q=1", rule.rewrite( "http://db.vendor.com/old/search?q=1" ) );
+        assertEquals( "https://db.vendor.com/new/", rule.rewrite( "http://db.vendor.com/old/" ) );
+        assertNull( rule.rewrite( "http://DB.vendor.com/old/search" ) );
+        assertNull( rule.rewrite( "https://proxy/?url=http://db.vendor.com/old/" ) );
+    }
+
+    @Test
+    public void testRegex()
+    {
+        URLRewriteRule rule = new URLRewriteRule( Mode.REGEX, "ebsco(host)?\\.com/(\\w+)", "ebsco.example.org/$2" );
+        assertEquals( "https://search.ebsco.example.org/login?x=ebsco.example.org/a",
+                      rule.rewrite( "https://search.ebscohost.com/login?x=ebsco.com/a" ) );
+        assertNull( rule.rewrite( "https://jstor.org/" ) );
+    }
+
+    @Test
+    public void testUnchangedURLsAreNotRewritten()
+    {
+        assertNull( new URLRewriteRule( Mode.HOST, "db.vendor.com", "DB.VENDOR.COM" ).rewrite( "https://db.vendor.com/a" ) );
+        assertNull( new URLRewriteRule( Mode.PREFIX, "https://a/", "https://a/" ).rewrite( "https://a/b" ) );
+        assertNull( new URLRewriteRule( Mode.REGEX, "(b)", "$1" ).rewrite( "https://a/b" ) );
+    }
+
+    @Test
+    public void testModeParse()
+    {
+        assertEquals( Mode.HOST, Mode.parse( " host " ) );
+        assertEquals( Mode.PREFIX, Mode.parse( "Prefix" ) );
+        assertEquals( Mode.REGEX, Mode.parse( "REGEX" ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testModeParseUnknown()
+    {
+        Mode.parse( "glob" );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testModeParseNull()
+    {
+        Mode.parse( null );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testInvalidRegex()
+    {
+        new URLRewriteRule( Mode.REGEX, "(unclosed", "x" );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testEmptyMatch()
+    {
+        new URLRewriteRule( Mode.PREFIX, "", "x" );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testMissingReplacement()
+    {
+        new URLRewriteRule( Mode.HOST, "a.com", null );
+    }
+}
@@ -0,0 +1,227 @@
+package ca.uwo.owl.ezproxy.logic.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks the JSON and CSV parsing of {@link EZProxyBatchReader}, and the record fields it sets.
+ */
+public class EZProxyBatchReaderTest
+{
+    // *************************************************************
+    // ***************************** JSON **************************
+    // *************************************************************
+
+    @Test
+    public void testJSONArray() throws IOException
+    {
+        List<EZProxyBatchRecord> records = read( "json", " [ {\"siteID\":\"s1\",\"pageID\":\"p1\",\"title\":\"One\"},\n"
+                                                       + "{ \"action\" : \"create\", \"siteID\" : \"s2\", \"newWindow\" : true } ] \n" );
+        assertEquals( 2, records.size() );
+        assertEquals( "s1:p1", records.get( 0 ).getId() );
+        assertEquals( "One", records.get( 0 ).getTitle() );
+        assertEquals( EZProxyBatchRecord.Action.UPDATE, records.get( 0 ).getAction() );
+        assertEquals( EZProxyBatchRecord.Action.CREATE, records.get( 1 ).getAction() );
+        assertEquals( Boolean.TRUE, records.get( 1 ).getNewWindow() );
+        assertEquals( 1, records.get( 1 ).getIndex() );
+    }
+
+    @Test
+    public void testNDJSON() throws IOException
+    {
+        List<EZProxyBatchRecord> records = read( "ndjson", "{\"siteID\":\"s1\"}\n{\"siteID\":\"s2\"}\r\n\n{\"siteID\":\"s3\"}" );
+        assertEquals( 3, records.size() );
+        assertEquals( "s3", records.get( 2 ).getSiteID() );
+    }
+
+    @Test
+    public void testJSONEmpty() throws IOException
+    {
+        assertTrue( read( "json", "[]" ).isEmpty() );
+        assertTrue( read( "json", "  [ \n ]  " ).isEmpty() );
+        assertTrue( read( "json", "" ).isEmpty() );
+        assertTrue( read( "ndjson", " \n " ).isEmpty() );
+        assertEquals( 1, read( "json", "[{}]" ).size() );
+    }
+
+    @Test
+    public void testJSONEscapes() throws IOException
+    {
+        EZProxyBatchRecord record = read( "json", "[{\"title\":\"a\\\"b\\\\c\\/d\\n\\t\\u00e9\\u738B\\ud83d\\ude00\"}]" ).get( 0 );
+        assertEquals( "a\"b\\c/d\n\té王😀", record.getTitle() );
+    }
+
+    @Test
+    public void testJSONLiterals() throws IOException
+    {
+        EZProxyBatchRecord record = read( "json", "[{\"title\":null,\"frameHeight\":600,\"newWindow\":false,\"unknown\":\"x\"}]" ).get( 0 );
+        assertNull( record.getTitle() );
+        assertEquals( "600", record.getFrameHeight() );
+        assertEquals( Boolean.FALSE, record.getNewWindow() );
+        assertEquals( EZProxyBatchRecord.Status.PENDING, record.getStatus() );
+    }
+
+    @Test
+    public void testJSONMalformed() throws IOException
+    {
+        String[] malformed =
+        {
+            "[",                                        // Unterminated array
+            "[{\"siteID\":\"s1\"}",                     // Unterminated array
+            "[{\"siteID\":\"s1\"},]",                   // Trailing comma
+            "[{\"siteID\":\"s1\"}] x",                  // Trailing garbage
+            "[{\"siteID\":\"s1\"}][]",                  // Trailing garbage
+            "{\"siteID\":\"s1\"} x",                    // Trailing garbage (sequence)
+            "{\"siteID\":\"s1\"",                       // Unterminated object
+            "{\"siteID\" \"s1\"}",                      // Missing colon
+            "{\"siteID\":\"s1\" \"pageID\":\"p1\"}",    // Missing comma
+            "{\"siteID\":}",                            // Missing value
+            "{siteID:\"s1\"}",                          // Unquoted name
+            "{\"siteID\":\"s1}",                        // Unterminated string
+            "{\"siteID\":\"\\x\"}",                     // Invalid escape
+            "{\"siteID\":\"\\u12G4\"}",                 // Invalid unicode escape
+            "{\"siteID\":\"\\u12",                      // Truncated unicode escape
+            "{\"siteID\":{\"a\":1}}",                   // Nested object
+            "{\"siteID\":[1]}",                         // Nested array
+            "\"siteID\"",                               // Not an object
+        };
+
+        for( String input : malformed )
+        {
+            try
+            {
+                read( "json", input );
+                fail( "Expected " + input + " to be rejected" );
+            }
+            catch( IllegalArgumentException ex ) { /* expected */ }
+        }
+    }
+
+    @Test
+    public void testJSONErrorLine() throws IOException
+    {
+        try
+        {
+            read( "ndjson", "{\"siteID\":\"s1\"}\n{\"siteID\":\"s2\"}\n{\"siteID\" }" );
+            fail();
+        }
+        catch( IllegalArgumentException ex )
+        {
+            assertTrue( ex.getMessage(), ex.getMessage().contains( "line 3" ) );
+        }
+    }
+
+    @Test
+    public void testStreaming() throws IOException
+    {
+        // Records are returned as they are read, before any later malformed input
+        EZProxyBatchReader reader = new EZProxyBatchReader( new StringReader( "[{\"siteID\":\"s1\"}, oops" ), "json" );
+        assertEquals( "s1", reader.next().getSiteID() );
+        assertEquals( 1, reader.getCount() );
+        try
+        {
+            reader.next();
+            fail();
+        }
+        catch( IllegalArgumentException ex ) { /* expected */ }
+    }
+
+    // *************************************************************
+    // ***************************** CSV ***************************
+    // *************************************************************
+
+    @Test
+    public void testCSV() throws IOException
+    {
+        List<EZProxyBatchRecord> records = read( "csv", " siteID , pageID,title\r\ns1,p1,One\r\n\r\ns2,p2,Two" );
+        assertEquals( 2, records.size() );
+        assertEquals( "s1:p1", records.get( 0 ).getId() );
+        assertEquals( "Two", records.get( 1 ).getTitle() );
+    }
+
+    @Test
+    public void testCSVQuoting() throws IOException
+    {
+        List<EZProxyBatchRecord> records = read( "csv", "siteID,title,sourceURL\n"
+                                                      + "s1,\"Smith, J. \"\"Notes\"\"\",\"https://db.com/?a=1,2\"\n"
+                                                      + "s2,\"Two\nlines\r\nthree\",\n"
+                                                      + "s3,\"\",a\"b\n" );
+        assertEquals( 3, records.size() );
+        assertEquals( "Smith, J. \"Notes\"", records.get( 0 ).getTitle() );
+        assertEquals( "https://db.com/?a=1,2", records.get( 0 ).getSourceURL() );
+        assertEquals( "Two\nlines\r\nthree", records.get( 1 ).getTitle() );
+        assertNull( records.get( 1 ).getSourceURL() );
+        assertNull( records.get( 2 ).getTitle() );
+        assertEquals( "a\"b", records.get( 2 ).getSourceURL() );
+    }
+
+    @Test
+    public void testCSVShortAndLongRows() throws IOException
+    {
+        List<EZProxyBatchRecord> records = read( "csv", "siteID,pageID\ns1\ns2,p2,extra\n" );
+        assertEquals( 2, records.size() );
+        assertNull( records.get( 0 ).getPageID() );
+        assertEquals( "p2", records.get( 1 ).getPageID() );
+    }
+
+    @Test
+    public void testCSVEmpty() throws IOException
+    {
+        assertTrue( read( "csv", "" ).isEmpty() );
+        assertTrue( read( "csv", "siteID,pageID\n" ).isEmpty() );
+        assertTrue( read( "csv", "siteID,pageID\n\n\n" ).isEmpty() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testCSVUnterminatedQuote() throws IOException
+    {
+        read( "csv", "siteID,title\ns1,\"Unterminated\n" );
+    }
+
+    // *************************************************************
+    // *************************** Records *************************
+    // *************************************************************
+
+    @Test
+    public void testNewWindow() throws IOException
+    {
+        List<EZProxyBatchRecord> records = read( "csv", "siteID,newWindow\ns1,TRUE\ns2, false \ns3,\ns4,yes\ns5,1\n" );
+        assertEquals( Boolean.TRUE, records.get( 0 ).getNewWindow() );
+        assertEquals( Boolean.FALSE, records.get( 1 ).getNewWindow() );
+        assertNull( records.get( 2 ).getNewWindow() );
+        assertEquals( EZProxyBatchRecord.Status.PENDING, records.get( 2 ).getStatus() );
+        for( EZProxyBatchRecord record : records.subList( 3, 5 ) )
+        {
+            assertEquals( EZProxyBatchRecord.Status.FAILED, record.getStatus() );
+            assertTrue( record.getMessage(), record.getMessage().contains( EZProxyBatchRecord.FIELD_NEW_WINDOW ) );
+        }
+    }
+
+    @Test
+    public void testUnknownAction() throws IOException
+    {
+        EZProxyBatchRecord record = read( "json", "{\"action\":\"rename\",\"siteID\":\"s1\"}" ).get( 0 );
+        assertEquals( EZProxyBatchRecord.Status.FAILED, record.getStatus() );
+        assertFalse( record.getMessage().isEmpty() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testUnsupportedFormat()
+    {
+        new EZProxyBatchReader( new StringReader( "" ), "xml" );
+    }
+
+    private static List<EZProxyBatchRecord> read( String format, String input ) throws IOException
+    {
+        return new EZProxyBatchReader( new StringReader( input ), format ).readAll();
+    }
+}
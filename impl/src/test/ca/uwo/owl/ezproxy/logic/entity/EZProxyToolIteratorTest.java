@@ -0,0 +1,200 @@
+package ca.uwo.owl.ezproxy.logic.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.site.api.ToolConfiguration;
+
+/**
+ * Checks the order of the placements walked by {@link EZProxyToolIterator}, and that resuming after a placement
+ * neither skips nor repeats placements when sites are created or removed in between.
+ */
+public class EZProxyToolIteratorTest
+{
+    // The EZProxy pages of each site, by site ID (sites are returned by the service in no particular order)
+    private final Map<String, List<String>> sites = new TreeMap<>( ( a, b ) -> b.compareTo( a ) );
+
+    @Test
+    public void testOrder()
+    {
+        addSite( "b", "p2", "p1" );
+        addSite( "a", "p9" );
+        addSite( "c" );
+        addSite( "d", "p3" );
+        assertEquals( Arrays.asList( "a:p9", "b:p1", "b:p2", "d:p3" ), walk( new EZProxyToolIterator( service() ), Integer.MAX_VALUE ) );
+    }
+
+    @Test
+    public void testSingleSite() throws IdUnusedException
+    {
+        addSite( "a", "p1" );
+        addSite( "b", "p3", "p2" );
+        assertEquals( Arrays.asList( "b:p2", "b:p3" ), walk( new EZProxyToolIterator( service(), "b" ), Integer.MAX_VALUE ) );
+    }
+
+    @Test( expected = IdUnusedException.class )
+    public void testSingleSiteMissing() throws IdUnusedException
+    {
+        new EZProxyToolIterator( service(), "missing" );
+    }
+
+    @Test
+    public void testResumeAfterPlacement()
+    {
+        addSites();
+        List<String> listed = walk( new EZProxyToolIterator( service() ), 3 );
+        listed.addAll( walk( resume( listed ), Integer.MAX_VALUE ) );
+        assertEquals( Arrays.asList( "a:p1", "a:p2", "b:p1", "b:p2", "c:p1", "c:p2", "d:p1", "d:p2" ), listed );
+    }
+
+    @Test
+    public void testSiteRemovedBeforeCursor()
+    {
+        addSites();
+        List<String> listed = walk( new EZProxyToolIterator( service() ), 3 );
+        sites.remove( "a" );
+        listed.addAll( walk( resume( listed ), Integer.MAX_VALUE ) );
+        assertEquals( Arrays.asList( "a:p1", "a:p2", "b:p1", "b:p2", "c:p1", "c:p2", "d:p1", "d:p2" ), listed );
+    }
+
+    @Test
+    public void testSiteOfCursorRemoved()
+    {
+        addSites();
+        List<String> listed = walk( new EZProxyToolIterator( service() ), 3 );
+        sites.remove( "b" );
+        listed.addAll( walk( resume( listed ), Integer.MAX_VALUE ) );
+        assertEquals( Arrays.asList( "a:p1", "a:p2", "b:p1", "c:p1", "c:p2", "d:p1", "d:p2" ), listed );
+    }
+
+    @Test
+    public void testSitesRemovedAndCreatedBetweenPages()
+    {
+        addSites();
+        List<String> listed = walk( new EZProxyToolIterator( service() ), 3 );
+        sites.remove( "a" );
+        sites.remove( "c" );
+        addSite( "aa", "p1" );      // Before the cursor; not listed
+        addSite( "bb", "p1" );      // After the cursor
+        listed.addAll( walk( resume( listed ), 2 ) );
+        sites.remove( "d" );
+        listed.addAll( walk( resume( listed ), Integer.MAX_VALUE ) );
+        assertEquals( Arrays.asList( "a:p1", "a:p2", "b:p1", "b:p2", "bb:p1" ), listed );
+    }
+
+    @Test
+    public void testSiteRemovedWhileWalking()
+    {
+        addSites();
+        EZProxyToolIterator tools = new EZProxyToolIterator( service() );
+        List<String> listed = walk( tools, 1 );
+        sites.remove( "b" );
+        listed.addAll( walk( tools, Integer.MAX_VALUE ) );
+        assertEquals( Arrays.asList( "a:p1", "a:p2", "c:p1", "c:p2", "d:p1", "d:p2" ), listed );
+    }
+
+    @Test
+    public void testResumeAfterWholeSite()
+    {
+        addSites();
+        assertEquals( Arrays.asList( "c:p1", "c:p2", "d:p1", "d:p2" ), walk( new EZProxyToolIterator( service(), "b", null ), Integer.MAX_VALUE ) );
+        assertEquals( Arrays.asList( "c:p1", "c:p2", "d:p1", "d:p2" ), walk( new EZProxyToolIterator( service(), "bz", null ), Integer.MAX_VALUE ) );
+        assertFalse( new EZProxyToolIterator( service(), "z", null ).hasNext() );
+    }
+
+    private void addSites()
+    {
+        for( String siteID : new String[] { "a", "b", "c", "d" } )
+        {
+            addSite( siteID, "p1", "p2" );
+        }
+    }
+
+    private void addSite( String siteID, String... pageIDs )
+    {
+        sites.put( siteID, new ArrayList<>( Arrays.asList( pageIDs ) ) );
+    }
+
+    /**
+     * Resume after the last placement listed
+     */
+    private EZProxyToolIterator resume( List<String> listed )
+    {
+        EZProxyEntityId last = EZProxyEntityId.parse( listed.get( listed.size() - 1 ) );
+        return new EZProxyToolIterator( service(), last.getSiteID(), last.getPageID() );
+    }
+
+    /**
+     * Walk up to the given number of placements
+     * @return the IDs (siteID:pageID) of the placements walked
+     */
+    private static List<String> walk( EZProxyToolIterator tools, int max )
+    {
+        List<String> ids = new ArrayList<>();
+        while( ids.size() < max && tools.hasNext() )
+        {
+            ToolConfiguration tool = tools.next();
+            ids.add( EZProxyEntityId.toString( tools.getCurrentSite().getId(), tool.getPageId() ) );
+        }
+
+        return ids;
+    }
+
+    /**
+     * A site service serving the current sites
+     */
+    private SiteService service()
+    {
+        return stub( SiteService.class, ( name, args ) ->
+        {
+            switch( name )
+            {
+                case "getSiteIds":
+                    return new ArrayList<>( sites.keySet() );
+                case "getSite":
+                    String siteID = (String) args[0];
+                    List<String> pageIDs = sites.get( siteID );
+                    if( pageIDs == null )
+                    {
+                        throw new IdUnusedException( siteID );
+                    }
+                    return site( siteID, pageIDs );
+                default:
+                    return null;
+            }
+        } );
+    }
+
+    private static Site site( String siteID, List<String> pageIDs )
+    {
+        List<ToolConfiguration> tools = new ArrayList<>();
+        for( String pageID : pageIDs )
+        {
+            tools.add( stub( ToolConfiguration.class, ( name, args ) -> "getPageId".equals( name ) ? pageID : null ) );
+        }
+
+        return stub( Site.class, ( name, args ) -> "getId".equals( name ) ? siteID : "getTools".equals( name ) ? tools : null );
+    }
+
+    private interface Handler
+    {
+        Object invoke( String name, Object[] args ) throws Exception;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static <T> T stub( Class<T> type, Handler handler )
+    {
+        return (T) Proxy.newProxyInstance( type.getClassLoader(), new Class<?>[] { type }, ( proxy, method, args ) -> handler.invoke( method.getName(), args ) );
+    }
+}
@@ -0,0 +1,101 @@
+package ca.uwo.owl.ezproxy.logic.entity;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.text.MessageFormat;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link MessageTemplate} writes exactly what {@link MessageFormat} formats, for the simple patterns it
+ * compiles and the ones it hands to MessageFormat.
+ */
+public class MessageTemplateTest
+{
+    private static final String[] PATTERNS =
+    {
+        "",
+        "No placeholders",
+        "{0}",
+        "<a href=\"{0}\">{1}</a>",
+        "{1} before {0}, then {1} again",
+        "{10}{2}",
+        "It''s {0}",
+        "''{0}''",
+        "'{0}' is quoted",
+        "'It''s' {0} 'quoted {1} text'",
+        "Unterminated 'quote {0}",
+        "{0} missing {3}",
+        "Accents é and 王 {0}",
+    };
+
+    private static final Object[][] ARGUMENTS =
+    {
+        {},
+        { "a" },
+        { "a", "b" },
+        { "<b>&amp;</b>", "it's", "c" },
+        { null, "b" },
+        { "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k" },
+    };
+
+    @Test
+    public void testMatchesMessageFormat() throws IOException
+    {
+        for( String pattern : PATTERNS )
+        {
+            MessageTemplate template = new MessageTemplate( pattern );
+            for( Object[] args : ARGUMENTS )
+            {
+                assertEquals( "pattern " + pattern, new MessageFormat( pattern ).format( args ), write( template, args ) );
+            }
+        }
+    }
+
+    @Test
+    public void testNullArguments() throws IOException
+    {
+        String pattern = "{0} and {1}";
+        assertEquals( new MessageFormat( pattern ).format( null ), write( new MessageTemplate( pattern ), (Object[]) null ) );
+    }
+
+    @Test
+    public void testFallbackFormats() throws IOException
+    {
+        // Patterns with format types go through MessageFormat
+        Object[] args = { 1234567, "x" };
+        for( String pattern : new String[] { "{0,number,integer} of {1}", "{0,choice,0#none|1#one|1<many} '{1}' {1}" } )
+        {
+            assertEquals( new MessageFormat( pattern ).format( args ), write( new MessageTemplate( pattern ), args ) );
+        }
+    }
+
+    @Test
+    public void testWriteTwice() throws IOException
+    {
+        MessageTemplate template = new MessageTemplate( "[{0}]" );
+        assertEquals( "[a]", write( template, "a" ) );
+        assertEquals( "[b]", write( template, "b" ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testUnclosedPlaceholder()
+    {
+        new MessageTemplate( "Broken {0" );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testInvalidPlaceholder()
+    {
+        new MessageTemplate( "Broken { 0}" );
+    }
+
+    private static String write( MessageTemplate template, Object... args ) throws IOException
+    {
+        StringWriter out = new StringWriter();
+        template.write( out, args );
+        return out.toString();
+    }
+}
@@ -38,7 +38,6 @@ public class BasePage extends WebPage implements IHeaderContributor
 {
     // Class members
     private static final Logger LOG = Logger.getLogger( BasePage.class );   // The logger 
-    protected static final int NUM_ENTRIES_PER_LINK = 4;                    // The number of rows per EZProxy link in the database
     protected static final String EZPROXY_CSS = "styles/ezproxy.css";
 
     // Bean that provides access to sakai API
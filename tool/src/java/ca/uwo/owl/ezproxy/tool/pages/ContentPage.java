@@ -1,8 +1,5 @@
 package ca.uwo.owl.ezproxy.tool.pages;
 
-import java.security.NoSuchAlgorithmException;
-import java.util.List;
-
 import org.apache.log4j.Logger;
 import org.apache.wicket.markup.html.IHeaderContributor;
 import org.apache.wicket.markup.head.IHeaderResponse;
@@ -13,10 +10,9 @@ import org.apache.wicket.markup.html.image.Image;
 import org.apache.wicket.markup.html.image.NonCachingImage;
 import org.apache.wicket.model.ResourceModel;
 import org.apache.wicket.AttributeModifier;
-import org.sakaiproject.component.cover.ServerConfigurationService;
 
-import ca.uwo.owl.ezproxy.logic.SharedSecretAuth;
-import ca.uwo.owl.ezproxy.model.EZProxyEntry;
+import ca.uwo.owl.ezproxy.logic.entity.EZProxyEntityId;
+import ca.uwo.owl.ezproxy.model.EZProxyConfig;
 import ca.uwo.owl.ezproxy.utilities.EZProxyConstants;
 import org.apache.wicket.markup.head.OnLoadHeaderItem;
 import org.apache.wicket.request.resource.ContextRelativeResource;
@@ -38,16 +34,13 @@ public class ContentPage extends BasePage implements IHeaderContributor
     boolean propsNotFound   = true;     // Were the EZProxy sakai.properties present/valid
     String  finalURL        = "";       // Holds the final (generated) URL
 
-    private static final String SAK_PROP_EZPROXY_SERVICE_URL = "ezproxy.url";
-    private static final String SAK_PROP_EZPROXY_SHARED_SECTRET = "ezproxy.secret";
-
     // Constructor
     public ContentPage()
     {
         // Get any generic info needed
         final String siteID = sakaiProxy.getCurrentSiteId();
         final String pageID = sakaiProxy.getCurrentPageId();
-        List<EZProxyEntry> entries = sakaiProxy.getEZProxyEntry( siteID, pageID );
+        EZProxyConfig config = sakaiProxy.getEZProxyConfig( siteID, pageID );
         boolean ableToConfig = sakaiProxy.isCurrentUserConfigAuth();
         boolean ableToView = sakaiProxy.isCurrentUserViewAuth();
         Image imageIcon = new Image( "icon", new ContextRelativeResource( "images/error.png" ) );
@@ -63,35 +56,15 @@ public class ContentPage extends BasePage implements IHeaderContributor
             MultiLineLabel configuredPopup = new MultiLineLabel( "configuredPopupHeading", new ResourceModel( "heading.configuredPopup" ) );
             configuredPopup.setVisibilityAllowed( false );
 
-            // If there were the right amount of entries returned...
-            String destinationURL = "";
-            if( entries != null && entries.size() == NUM_ENTRIES_PER_LINK )
+            // If the link has been configured...
+            if( config.isConfigured() )
             {
                 // It has been configured
                 isConfigured = true;
-                
-                // Get the destination URL
-                for( EZProxyEntry e : entries )
-                {
-                    if( EZProxyConstants.EZPROXY_PROP_SOURCE_URL.equalsIgnoreCase( e.getName() ) )
-                    {
-                        destinationURL = e.getValue();
-                    }
-                }
-
-                // Determine if it was configured for a new window/tab
                 notConfiguredHeading.setVisibilityAllowed( false );
-                for( EZProxyEntry e : entries )
-                {
-                    if( EZProxyConstants.EZPROXY_PROP_NEW_WINDOW.equalsIgnoreCase( e.getName() ) )
-                    {
-                        // If the config options were set to open in a new window OR the destination URL is NOT https...
-                        if( "true".equalsIgnoreCase( e.getValue() ) || !destinationURL.toLowerCase().startsWith( "https" ) )
-                        {
-                            newWindow = true;
-                        }
-                    }
-                }
+
+                // Determine if it opens in a new window/tab (configured to, OR the destination URL is NOT https)
+                newWindow = config.isOpenInNewWindow();
 
                 // If it's a new window link, show the info label, change to the info icon
                 if( newWindow )
@@ -111,43 +84,24 @@ public class ContentPage extends BasePage implements IHeaderContributor
             // If the link has been configured...
             if( isConfigured )
             {
-                // Get all the necessary pieces of info
-                String serviceURL = ServerConfigurationService.getString( SAK_PROP_EZPROXY_SERVICE_URL );
-                String sharedSecret = ServerConfigurationService.getString( SAK_PROP_EZPROXY_SHARED_SECTRET );
-                String userEid = sakaiProxy.getCurrentUserEid();
-                String mac = "";
-
-                // Make sure the service URL and shared secret were in sakai.properties
-                if( serviceURL != null && !serviceURL.isEmpty() && sharedSecret != null && !sharedSecret.isEmpty() )
+                // Generate the MAC and the final URL; this is null if the service URL or shared secret were not in sakai.properties
+                String launchURL = sakaiProxy.generateLaunchURL( sakaiProxy.getCurrentUserEid(), siteID, config.getSourceURL() );
+                if( launchURL != null )
                 {
                     propsNotFound = false;
+                    finalURL = launchURL;
+                    sakaiProxy.postEvent( EZProxyConstants.EVENT_LAUNCH, EZProxyConstants.EVENT_REFERENCE_PREFIX + EZProxyEntityId.toString( siteID, pageID ), false );
                 }
 
                 // If the properties were there, continue...
                 if( !propsNotFound )
                 {
-                    // Generate the MAC, and the final URL
-                    try { mac = SharedSecretAuth.generateMAC( userEid + siteID, sharedSecret );	}
-                    catch( NoSuchAlgorithmException | IndexOutOfBoundsException ex ) { LOG.error( ex ); }
-                    finalURL = serviceURL + "?mac=" + mac + "&pid=" + userEid + "&lcid=" + siteID + "&url=" + destinationURL;
-
                     // If it's configured to open in the iframe...
                     if( !newWindow )
                     {
                         // Get the frame height and custom height values
-                        String frameHeight = "";
-                        String customHeight = "";
-                        for( EZProxyEntry e : entries )
-                        {
-                            if( EZProxyConstants.EZPROXY_PROP_FRAME_HEIGHT.equalsIgnoreCase( e.getName() ) )
-                            {
-                                frameHeight = e.getValue();
-                            }
-                            if( EZProxyConstants.EZPROXY_PROP_CUSTOM_HEIGHT.equalsIgnoreCase( e.getName() ) )
-                            {
-                                customHeight = e.getValue();
-                            }
-                        }
+                        String frameHeight = config.getFrameHeight();
+                        String customHeight = config.getCustomHeight();
 
                         // Setup the iframe; 'frameHeight.option9' = 'Something else', which means the user provided a custom height
                         iframe.setVisibilityAllowed( true );
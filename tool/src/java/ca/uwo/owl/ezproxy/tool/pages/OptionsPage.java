@@ -3,7 +3,6 @@ package ca.uwo.owl.ezproxy.tool.pages;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.validator.routines.UrlValidator;
 import org.apache.log4j.Logger;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.form.AjaxFormComponentUpdatingBehavior;
@@ -21,7 +20,7 @@ import org.apache.wicket.model.ResourceModel;
 import org.apache.wicket.validation.validator.RangeValidator;
 import org.apache.wicket.AttributeModifier;
 
-import ca.uwo.owl.ezproxy.model.EZProxyEntry;
+import ca.uwo.owl.ezproxy.model.EZProxyConfig;
 import ca.uwo.owl.ezproxy.tool.model.EZProxyInputModel;
 import ca.uwo.owl.ezproxy.utilities.EZProxyConstants;
 
@@ -52,47 +51,12 @@ public class OptionsPage extends BasePage
         String pageTitle = sakaiProxy.getPageTitle( siteID, pageID );
         boolean ableToConfig = sakaiProxy.isCurrentUserConfigAuth();
 
-        // Create a list of valid protocols for URL validation, create the URL validator object
-        final String[] schemes = { EZProxyConstants.URL_PROTOCOL_HTTP, EZProxyConstants.URL_PROTOCOL_HTTPS };
-        final UrlValidator urlValidator = new UrlValidator( schemes );
-
-        // Get the EZProxyEntries
-        boolean firstRunCheck = false;
-        List<EZProxyEntry> entries = sakaiProxy.getEZProxyEntry( siteID, pageID );
-        String frameHeight = null;
-        String customHeight = null;
-        String url = null;
-        String newWindow = null;
-        if( entries != null && entries.size() == NUM_ENTRIES_PER_LINK )
-        {
-            // Get the values
-            for( EZProxyEntry e : entries )
-            {
-                if( EZProxyConstants.EZPROXY_PROP_FRAME_HEIGHT.equalsIgnoreCase( e.getName() ) )
-                {
-                    frameHeight = e.getValue();
-                }
-                else if( EZProxyConstants.EZPROXY_PROP_CUSTOM_HEIGHT.equalsIgnoreCase( e.getName() ) )
-                {
-                    customHeight = e.getValue();
-                }
-                else if( EZProxyConstants.EZPROXY_PROP_SOURCE_URL.equalsIgnoreCase( e.getName() ) )
-                {
-                    url = e.getValue();
-                }
-                else if( EZProxyConstants.EZPROXY_PROP_NEW_WINDOW.equalsIgnoreCase( e.getName() ) )
-                {
-                    newWindow = e.getValue();
-                }
-            }
-        }
-
-        // If no entries were returned, or the wrong number was returned, this must be the 'first run'
-        else
-        {
-            firstRunCheck = true;
-        }
-        final boolean firstRun = firstRunCheck;
+        // Get the EZProxy link configuration; if it hasn't been configured, this must be the 'first run'
+        EZProxyConfig config = sakaiProxy.getEZProxyConfig( siteID, pageID );
+        final boolean firstRun = !config.isConfigured();
+        String frameHeight = config.getFrameHeight();
+        String customHeight = config.getCustomHeight();
+        String url = config.getSourceURL();
         
         // Default to HTTPS if not previously set
         if( url == null || url.isEmpty() )
@@ -213,21 +177,19 @@ public class OptionsPage extends BasePage
         configForm.add( checkboxHolder );
         final CheckBox chk = new CheckBox( "chkNewWindow" );
         final Label chkLabel = new Label( "newWindowLabel", new ResourceModel( "newWindow" ) );
-        if( newWindow != null && !newWindow.isEmpty() )
+        if( !firstRun )
         {
             boolean checked = false;
             boolean disabled = false;
             
             // If the previously saved URL is set to open in a new window AND is HTTPS, check the box and keep it enabled
-            if( "true".equalsIgnoreCase( newWindow  ) && isHTTPS )
+            if( config.isNewWindow() && isHTTPS )
             {
                 checked = true;
             }
 
-            // If the previously saved URL is set to open in a new window AND is HTTP, check the box and disable it
-            // OR, if the previously saved URL is NOT set to open in a new window AND is HTTP, check the box and disable it
-            else if( ("true".equalsIgnoreCase( newWindow ) && !isHTTPS)
-                    || ("false".equalsIgnoreCase( newWindow ) && !isHTTPS) )
+            // If the previously saved URL is HTTP (whether or not it is set to open in a new window), check the box and disable it
+            else if( !isHTTPS )
             {
                 checked = true;
                 disabled = true;
@@ -276,36 +238,13 @@ public class OptionsPage extends BasePage
                 model.setDdFrameHeight( ddModel.getObject() );
 
                 // If the source URL IS a valid URL, save all the info
-                if( urlValidator.isValid( model.getTxtSourceURL() ) )
+                if( sakaiProxy.isValidSourceURL( model.getTxtSourceURL() ) )
                 {
-                    // Update the tool title and page title
-                    sakaiProxy.setToolTitle( siteID, pageID, sakaiProxy.getToolTitle(), model.getTxtToolTitle() );
-                    sakaiProxy.setPageTitle( siteID, pageID, model.getTxtPageTitle() );
-
-                    // Set the siteID and pageID
-                    EZProxyEntry e = new EZProxyEntry();
-                    e.setSiteID( siteID );
-                    e.setPageID( pageID );
-
-                    // Frame height
-                    e.setName( EZProxyConstants.EZPROXY_PROP_FRAME_HEIGHT );
-                    e.setValue( model.getDdFrameHeight() );
-                    sakaiProxy.setEZProxyEntry( e );
-
-                    // Custom height
-                    e.setName( EZProxyConstants.EZPROXY_PROP_CUSTOM_HEIGHT );
-                    e.setValue( model.getTxtCustomHeight() );
-                    sakaiProxy.setEZProxyEntry( e );
-
-                    // URL
-                    e.setName( EZProxyConstants.EZPROXY_PROP_SOURCE_URL );
-                    e.setValue( model.getTxtSourceURL() );
-                    sakaiProxy.setEZProxyEntry( e );
-
-                    // New window
-                    e.setName( EZProxyConstants.EZPROXY_PROP_NEW_WINDOW );
-                    e.setValue( model.getChkNewWindow().toString() );
-                    sakaiProxy.setEZProxyEntry( e );
+                    // Update the tool title, page title and link configuration with a single save
+                    EZProxyConfig newConfig = new EZProxyConfig( model.getTxtSourceURL(), model.getDdFrameHeight(),
+                            model.getTxtCustomHeight(), Boolean.TRUE.equals( model.getChkNewWindow() ) );
+                    sakaiProxy.saveEZProxyConfiguration( siteID, pageID, sakaiProxy.getToolTitle(), model.getTxtToolTitle(),
+                            model.getTxtPageTitle(), newConfig );
 
                     // Return to the content page
                     setResponsePage( ContentPage.class );
@@ -321,7 +260,7 @@ public class OptionsPage extends BasePage
         };
 
         btnUpdate.add( AttributeModifier.replace( "value", new ResourceModel( "update" ).getObject() ) );
-        if( urlValidator.isValid( url ) )
+        if( sakaiProxy.isValidSourceURL( url ) )
         {
             btnUpdate.setEnabled( true );
         }
@@ -359,6 +298,9 @@ public class OptionsPage extends BasePage
         {
             private static final long serialVersionUID = -8344894283071902526L;
 
+            private String  lastURL;    // The URL validated last
+            private boolean lastValid;  // Was it valid
+
             @Override
             protected void onUpdate( AjaxRequestTarget target )
             {
@@ -389,8 +331,15 @@ public class OptionsPage extends BasePage
                     }
                 }
 
+                // Only validate the source URL if it changed since the last update
+                if( URL == null || !URL.equals( lastURL ) )
+                {
+                    lastURL = URL;
+                    lastValid = sakaiProxy.isValidSourceURL( URL );
+                }
+
                 // If the source URL is valid, enable the update button
-                if( urlValidator.isValid( URL ) )
+                if( lastValid )
                 {
                     btnUpdate.setEnabled( true );
                 }